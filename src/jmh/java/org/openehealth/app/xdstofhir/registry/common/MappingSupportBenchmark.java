@@ -0,0 +1,41 @@
+package org.openehealth.app.xdstofhir.registry.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the classification of {@link MappingSupport#toUrnCoded(String)} against the former exception
+ * driven parsing for typical code systems and identifiers. The last value is classified by the memo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingSupportBenchmark {
+
+    @Param({"2.16.840.1.113883.6.1", "urn:oid:1.3.6.1.4.1.19376.1.2.3", "6c0a6ea3-3bb6-4d27-a7a3-ee5e1d6fa8e0",
+            "http://loinc.org", "LOINC", "Connect-a-thon classCodes"})
+    private String value;
+
+    @Benchmark
+    public String classification() {
+        return MappingSupport.toUrnCoded(value);
+    }
+
+    @Benchmark
+    public String parsing() {
+        return MappingSupport.parseUrnCoded(value);
+    }
+}
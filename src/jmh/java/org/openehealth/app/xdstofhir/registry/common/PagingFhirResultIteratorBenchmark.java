@@ -0,0 +1,72 @@
+package org.openehealth.app.xdstofhir.registry.common;
+
+import java.util.concurrent.TimeUnit;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.util.BundleUtil;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares iterating a single result page with {@link PagingFhirResultIterator} against the former
+ * approach, which extracted the resources from the bundle on every element access.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PagingFhirResultIteratorBenchmark {
+
+    @Param({"50", "500", "5000"})
+    private int pageSize;
+
+    private IGenericClient client;
+    private Bundle page;
+
+    @Setup
+    public void setup() {
+        client = FhirContext.forR4Cached().newRestfulGenericClient("http://localhost");
+        page = new Bundle();
+        page.setType(BundleType.SEARCHSET);
+        for (int i = 0; i < pageSize; i++) {
+            var doc = new DocumentReference();
+            doc.setId("DocumentReference/" + i);
+            page.addEntry().setResource(doc);
+        }
+    }
+
+    @Benchmark
+    public void pageCachingIterator(Blackhole blackhole) {
+        var iterator = new PagingFhirResultIterator<>(page, DocumentReference.class, client);
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+    }
+
+    @Benchmark
+    public void perElementExtraction(Blackhole blackhole) {
+        int index = 0;
+        while (index < BundleUtil.toListOfResourcesOfType(client.getFhirContext(), page, DocumentReference.class)
+                .size()) {
+            blackhole.consume(BundleUtil
+                    .toListOfResourcesOfType(client.getFhirContext(), page, DocumentReference.class).get(index));
+            index++;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.openehealth.app.xdstofhir.registry.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookup of the repositoryUniqueId of a download URL with the endpoint index of {@link RegistryConfiguration}
+ * compared against the former regular expression match over all configured endpoints. The URL belongs to the
+ * last configured repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryConfigurationBenchmark {
+
+    @Param({"1", "10", "50"})
+    private int repositories;
+
+    private RegistryConfiguration registryConfig;
+    private String url;
+
+    @Setup
+    public void setup() {
+        var endpoints = new LinkedHashMap<String, String>();
+        for (int i = 0; i < repositories; i++) {
+            endpoints.put("1.2.3." + i, "http://repository" + i + ".example.org/binary/$documentUniqueId");
+        }
+        registryConfig = new RegistryConfiguration();
+        registryConfig.setUnknownRepositoryId("2.999.1.2.3");
+        registryConfig.setRepositoryEndpoint(endpoints);
+        url = "http://repository" + (repositories - 1) + ".example.org/binary/1.2.3.4.5.6789";
+    }
+
+    @Benchmark
+    public String endpointIndex() {
+        return registryConfig.repositoryFromUrl(url);
+    }
+
+    @Benchmark
+    public String regexMatch() {
+        return registryConfig.getRepositoryEndpoint().entrySet().stream()
+                .filter(configItem -> url.matches(configItem.getValue().replace("$documentUniqueId", ".*")))
+                .map(Map.Entry::getKey).findFirst().orElse(registryConfig.getUnknownRepositoryId());
+    }
+}
@@ -0,0 +1,168 @@
+package org.openehealth.app.xdstofhir.registry.common.mapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import ca.uhn.hl7v2.parser.PipeParser;
+import ca.uhn.hl7v2.util.Terser;
+import jakarta.xml.bind.JAXBContext;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.Patient;
+import org.openehealth.app.xdstofhir.registry.common.RegistryConfiguration;
+import org.openehealth.app.xdstofhir.registry.common.fhir.MhdFolder;
+import org.openehealth.app.xdstofhir.registry.common.fhir.MhdSubmissionSet;
+import org.openehealth.ipf.commons.ihe.xds.core.SampleData;
+import org.openehealth.ipf.commons.ihe.xds.core.ebxml.ebxml30.EbXMLFactory30;
+import org.openehealth.ipf.commons.ihe.xds.core.ebxml.ebxml30.EbXMLSubmitObjectsRequest30;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Folder;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.SubmissionSet;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.RegisterDocumentSet;
+import org.openehealth.ipf.commons.ihe.xds.core.stub.ebrs30.lcm.SubmitObjectsRequest;
+import org.openehealth.ipf.commons.ihe.xds.core.transform.requests.RegisterDocumentSetTransformer;
+import org.openehealth.ipf.commons.spring.map.SpringBidiMappingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Throughput of the metadata mappers per object type and direction. The submission set and document entry are
+ * taken from the ITI-42 test message, the document entry is enriched with the authors, event codes and
+ * sourcePatientInfo of the IPF sample document, so that all parts of the mapping are exercised. The FHIR
+ * resources of the reverse direction are the mapping results of the XDS objects.
+ *
+ * The benchmark profile runs with the gc profiler, which reports the allocation rate (gc.alloc.rate.norm)
+ * of each mapping next to the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataMapperBenchmark {
+    private XdsToFhirDocumentMapper xdsToFhirDocument;
+    private FhirToXdsDocumentMapper fhirToXdsDocument;
+    private XdsToFhirSubmissionsetMapper xdsToFhirSubmission;
+    private FhirToXdsSubmissionsetMapper fhirToXdsSubmission;
+    private XdsToFhirFolderMapper xdsToFhirFolder;
+    private FhirToXdsFolderMapper fhirToXdsFolder;
+    private Hl7ToFhirPatientMapper hl7ToFhirPatient;
+
+    private DocumentEntry documentEntry;
+    private DocumentReference documentReference;
+    private SubmissionSet submissionSet;
+    private MhdSubmissionSet mhdSubmissionSet;
+    private Folder folder;
+    private MhdFolder mhdFolder;
+    private Terser patientFeed;
+
+    @Setup
+    public void setup() throws Exception {
+        var registryConfig = new RegistryConfiguration();
+        registryConfig.setDefaultHash("0000000000000000000000000000000000000000");
+        registryConfig.setRepositoryEndpoint(Map.of("1.2.3.4", "http://my.doc.retrieve/binary/$documentUniqueId"));
+        registryConfig.setUnknownRepositoryId("2.999.1.2.3");
+        var mapService = new SpringBidiMappingService();
+        mapService.setMappingResource(new ClassPathResource("META-INF/map/fhir-hl7v2-translation.map"));
+        mapService.setMappingResource(new ClassPathResource("META-INF/map/codesystem-fhir-translation.map"));
+
+        xdsToFhirDocument = new XdsToFhirDocumentMapper(registryConfig);
+        fhirToXdsDocument = new FhirToXdsDocumentMapper(registryConfig);
+        xdsToFhirSubmission = new XdsToFhirSubmissionsetMapper();
+        fhirToXdsSubmission = new FhirToXdsSubmissionsetMapper();
+        xdsToFhirFolder = new XdsToFhirFolderMapper();
+        fhirToXdsFolder = new FhirToXdsFolderMapper();
+        xdsToFhirDocument.setFhirMapping(mapService);
+        fhirToXdsDocument.setFhirMapping(mapService);
+        xdsToFhirSubmission.setFhirMapping(mapService);
+        fhirToXdsSubmission.setFhirMapping(mapService);
+        xdsToFhirFolder.setFhirMapping(mapService);
+        fhirToXdsFolder.setFhirMapping(mapService);
+        hl7ToFhirPatient = new Hl7ToFhirPatientMapper();
+
+        var register = loadRegisterDocumentSet("messages/iti-42.xml");
+        submissionSet = register.getSubmissionSet();
+        documentEntry = register.getDocumentEntries().getFirst();
+        var sampleDocument = SampleData.createDocumentEntry(documentEntry.getPatientId());
+        documentEntry.getAuthors().addAll(sampleDocument.getAuthors());
+        documentEntry.getEventCodeList().addAll(sampleDocument.getEventCodeList());
+        if (documentEntry.getSourcePatientInfo() == null) {
+            documentEntry.setSourcePatientInfo(sampleDocument.getSourcePatientInfo());
+        }
+        folder = register.getFolders().isEmpty() ? SampleData.createFolder(documentEntry.getPatientId())
+                : register.getFolders().getFirst();
+
+        documentReference = xdsToFhirDocument.apply(documentEntry, Collections.emptyList());
+        mhdSubmissionSet = xdsToFhirSubmission.apply(submissionSet, Collections.emptyList());
+        mhdFolder = xdsToFhirFolder.apply(folder, Collections.emptyList());
+
+        var hl7 = new ClassPathResource("messages/msg-01.hl7").getContentAsString(StandardCharsets.UTF_8);
+        patientFeed = new Terser(new PipeParser().parse(hl7.replaceAll("\r?\n", "\r")));
+    }
+
+    private static RegisterDocumentSet loadRegisterDocumentSet(String resource) throws Exception {
+        var factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try (var in = new ClassPathResource(resource).getInputStream()) {
+            var body = factory.newDocumentBuilder().parse(in)
+                    .getElementsByTagNameNS("urn:oasis:names:tc:ebxml-regrep:xsd:lcm:3.0", "SubmitObjectsRequest")
+                    .item(0);
+            if (body == null) {
+                throw new IOException("No SubmitObjectsRequest in " + resource);
+            }
+            var request = JAXBContext.newInstance(SubmitObjectsRequest.class).createUnmarshaller()
+                    .unmarshal(body, SubmitObjectsRequest.class).getValue();
+            return new RegisterDocumentSetTransformer(new EbXMLFactory30())
+                    .fromEbXML(new EbXMLSubmitObjectsRequest30(request));
+        }
+    }
+
+    @Benchmark
+    public DocumentReference documentEntryToFhir() {
+        return xdsToFhirDocument.apply(documentEntry, Collections.emptyList());
+    }
+
+    @Benchmark
+    public DocumentEntry documentReferenceToXds() {
+        return fhirToXdsDocument.apply(documentReference);
+    }
+
+    @Benchmark
+    public MhdSubmissionSet submissionSetToFhir() {
+        return xdsToFhirSubmission.apply(submissionSet, Collections.emptyList());
+    }
+
+    @Benchmark
+    public SubmissionSet submissionSetToXds() {
+        return fhirToXdsSubmission.apply(mhdSubmissionSet);
+    }
+
+    @Benchmark
+    public MhdFolder folderToFhir() {
+        return xdsToFhirFolder.apply(folder, Collections.emptyList());
+    }
+
+    @Benchmark
+    public Folder folderToXds() {
+        return fhirToXdsFolder.apply(mhdFolder);
+    }
+
+    @Benchmark
+    public Patient patientFeedToFhir() {
+        return hl7ToFhirPatient.apply(patientFeed);
+    }
+}
@@ -0,0 +1,65 @@
+package org.openehealth.app.xdstofhir.registry.common.mapper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openehealth.ipf.commons.spring.map.SpringBidiMappingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Code system and gender translations with the frozen {@link TranslationTables} compared against the former
+ * per call lookup at the {@link org.openehealth.ipf.commons.map.BidiMappingService}. The code system is either
+ * part of the mapping or translated by the ELSE fallback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranslationTablesBenchmark {
+
+    @Param({"2.16.840.1.113883.6.1", "1.2.3.4.5"})
+    private String codeSystem;
+
+    private SpringBidiMappingService mapService;
+    private TranslationTables translations;
+
+    @Setup
+    public void setup() {
+        mapService = new SpringBidiMappingService();
+        mapService.setMappingResource(new ClassPathResource("META-INF/map/fhir-hl7v2-translation.map"));
+        mapService.setMappingResource(new ClassPathResource("META-INF/map/codesystem-fhir-translation.map"));
+        translations = new TranslationTables(mapService);
+    }
+
+    @Benchmark
+    public Object codeSystemTable() {
+        return translations.get("xds2FhirCodesystemMapping", codeSystem);
+    }
+
+    @Benchmark
+    public Object codeSystemMappingService() {
+        return mapService.get("xds2FhirCodesystemMapping", codeSystem);
+    }
+
+    @Benchmark
+    public Object genderTable() {
+        return translations.get("hl7v2fhir-patient-administrativeGender", "F");
+    }
+
+    @Benchmark
+    public Object genderMappingService() {
+        return mapService.get("hl7v2fhir-patient-administrativeGender", "F");
+    }
+}
@@ -0,0 +1,111 @@
+package org.openehealth.app.xdstofhir.registry.loadtest;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies and failures of one transaction type within a measurement window. Percentiles are computed with the
+ * nearest-rank method over all transactions scheduled within the window.
+ *
+ * The throughput only counts transactions completed within the window. Transactions scheduled within the window, but
+ * still queued or running at its end (completed later or dropped at shutdown), are reported as backlog.
+ */
+class LatencyRecorder {
+    private final String transaction;
+    private final long windowStart;
+    private final long windowEnd;
+    private long[] samples = new long[1024];
+    private int count;
+    private int failures;
+    private int scheduled;
+    private int completedInWindow;
+    private int scheduledAndCompletedInWindow;
+
+    /**
+     * @param transaction - name of the transaction
+     * @param windowStart - start of the measurement window, as given by {@link System#nanoTime()}
+     * @param windowEnd - end of the measurement window, as given by {@link System#nanoTime()}
+     */
+    LatencyRecorder(String transaction, long windowStart, long windowEnd) {
+        this.transaction = transaction;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+    }
+
+    /**
+     * @param scheduledNanos - scheduled start of a transaction
+     */
+    synchronized void scheduled(long scheduledNanos) {
+        if (inWindow(scheduledNanos)) {
+            scheduled++;
+        }
+    }
+
+    /**
+     * @param scheduledNanos - scheduled start of a transaction, that was not executed
+     */
+    synchronized void skipped(long scheduledNanos) {
+        if (inWindow(scheduledNanos)) {
+            scheduled--;
+        }
+    }
+
+    /**
+     * @param scheduledNanos - scheduled start of the transaction
+     * @param completedNanos - completion of the transaction
+     * @param success - false, if the transaction failed or returned a failure status
+     */
+    synchronized void record(long scheduledNanos, long completedNanos, boolean success) {
+        if (inWindow(completedNanos)) {
+            completedInWindow++;
+        }
+        if (!inWindow(scheduledNanos)) {
+            return;
+        }
+        if (completedNanos < windowEnd) {
+            scheduledAndCompletedInWindow++;
+        }
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = completedNanos - scheduledNanos;
+        if (!success) {
+            failures++;
+        }
+    }
+
+    static String header() {
+        return String.format(Locale.ROOT, "%-20s %8s %8s %10s %8s %9s %9s %9s %9s", "transaction", "count",
+                "failures", "tx/s", "backlog", "p50 ms", "p95 ms", "p99 ms", "max ms");
+    }
+
+    /**
+     * @return report line with throughput, backlog and latency percentiles.
+     */
+    synchronized String report() {
+        var sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        var throughput = completedInWindow / ((windowEnd - windowStart) / (double) TimeUnit.SECONDS.toNanos(1));
+        var backlog = scheduled - scheduledAndCompletedInWindow;
+        return String.format(Locale.ROOT, "%-20s %8d %8d %10.1f %8d %9.1f %9.1f %9.1f %9.1f", transaction, count,
+                failures, throughput, backlog, millis(percentile(sorted, 50)), millis(percentile(sorted, 95)),
+                millis(percentile(sorted, 99)), millis(count == 0 ? 0 : sorted[count - 1]));
+    }
+
+    static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        var rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private boolean inWindow(long nanos) {
+        return nanos >= windowStart && nanos < windowEnd;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
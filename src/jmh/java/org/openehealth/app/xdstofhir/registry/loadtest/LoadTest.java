@@ -0,0 +1,279 @@
+package org.openehealth.app.xdstofhir.registry.loadtest;
+
+import static org.openehealth.ipf.commons.ihe.xds.core.responses.Status.SUCCESS;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ca.uhn.hl7v2.model.Message;
+import ca.uhn.hl7v2.parser.PipeParser;
+import ca.uhn.hl7v2.util.Terser;
+import org.apache.camel.CamelContext;
+import org.apache.camel.ProducerTemplate;
+import org.openehealth.app.xdstofhir.registry.FhirStandIn;
+import org.openehealth.app.xdstofhir.registry.XdsToFhirApplication;
+import org.openehealth.ipf.commons.ihe.xds.core.SampleData;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.AssigningAuthority;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Association;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.AvailabilityStatus;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Identifiable;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.ObjectReference;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.QueryRegistry;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.RemoveMetadata;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.builder.RegisterDocumentSetBuilder;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.query.FindDocumentsQuery;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.query.QueryReturnType;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.QueryResponse;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.Response;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Offline load test of the registry. The registry is started against the {@link FhirStandIn} (or the FHIR server
+ * given with loadtest.fhir.base) and driven with ITI-8 patient feeds over MLLP and ITI-42 registrations, ITI-18
+ * FindDocuments queries (LeafClass and ObjectRef) and ITI-62 removes over SOAP, each at a fixed rate.
+ *
+ * The load is open-loop: transactions are started at their rate regardless of the response time, the latency is
+ * measured from the scheduled start, so that queueing in front of the worker threads is part of the latency. After
+ * the warmup, throughput and p50/p95/p99 latency per transaction are reported. The throughput only counts
+ * transactions completed within the measurement, transactions still queued or dropped at its end are reported as
+ * backlog.
+ *
+ * Configuration with system properties, e.g. mvn verify -Ploadtest -DskipTests -Dloadtest.rate.iti42=20
+ * <ul>
+ * <li>loadtest.duration - measurement in seconds (60)</li>
+ * <li>loadtest.warmup - warmup in seconds, not reported (10)</li>
+ * <li>loadtest.patients - patients fed before the load starts (20)</li>
+ * <li>loadtest.threads - concurrent clients (32)</li>
+ * <li>loadtest.rate.iti8, loadtest.rate.iti42, loadtest.rate.iti18.leafclass, loadtest.rate.iti18.objectref,
+ * loadtest.rate.iti62 - transactions per second, 0 disables the transaction (1, 10, 10, 10, 2)</li>
+ * </ul>
+ */
+public final class LoadTest {
+    private static final String PATIENT_AUTHORITY = "2.999.1.2.3.4";
+    private static final int REPORTED_FAILURES = 5;
+
+    private final Config config;
+    private final ProducerTemplate producer;
+    private final String iti8Uri;
+    private final String iti18Uri;
+    private final String iti42Uri;
+    private final String iti62Uri;
+    private final String patientFeedTemplate;
+    private final String runId = Long.toString(System.currentTimeMillis());
+    private final AtomicLong sequence = new AtomicLong();
+    private final List<Identifiable> patients = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<Submission> submissions = new LinkedBlockingQueue<>();
+    private final AtomicInteger reportedFailures = new AtomicInteger();
+    private final List<LatencyRecorder> recorders = new ArrayList<>();
+    private long measurementStart;
+    private long measurementEnd;
+
+    private LoadTest(Config config, ProducerTemplate producer, int httpPort, int mllpPort) throws IOException {
+        this.config = config;
+        this.producer = producer;
+        this.iti8Uri = "xds-iti8://localhost:" + mllpPort;
+        this.iti18Uri = "xds-iti18://localhost:" + httpPort + "/services/registry/iti18";
+        this.iti42Uri = "xds-iti42://localhost:" + httpPort + "/services/registry/iti42";
+        this.iti62Uri = "rmd-iti62://localhost:" + httpPort + "/services/registry/iti62";
+        this.patientFeedTemplate = new ClassPathResource("messages/msg-01.hl7").getContentAsString(StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws Exception {
+        var config = Config.fromSystemProperties();
+        try (var standIn = config.fhirBase() == null ? FhirStandIn.start(0) : null) {
+            var fhirBase = standIn != null ? standIn.getBaseUrl() : config.fhirBase();
+            var mllpPort = freePort();
+            try (ConfigurableApplicationContext registry = new SpringApplicationBuilder(XdsToFhirApplication.class)
+                    .run("--fhir.server.base=" + fhirBase,
+                            "--server.port=0",
+                            "--xds.endpoint.iti8=xds-iti8:0.0.0.0:" + mllpPort,
+                            "--fhir.server.profile.bootstrap=false",
+                            "--logging.level.root=WARN",
+                            "--logging.level.org.apache.cxf=WARN",
+                            "--logging.level.ca.uhn.fhir.rest.client.interceptor=WARN",
+                            "--logging.level.org.openehealth.app.xdstofhir.registry=WARN")) {
+                var httpPort = Integer.parseInt(registry.getEnvironment().getRequiredProperty("local.server.port"));
+                var producer = registry.getBean(CamelContext.class).createProducerTemplate();
+                new LoadTest(config, producer, httpPort, mllpPort).run();
+            }
+        }
+        System.exit(0);
+    }
+
+    private void run() throws InterruptedException {
+        for (var i = 0; i < config.patients(); i++) {
+            call(this::feedPatient);
+        }
+        if (patients.isEmpty()) {
+            throw new IllegalStateException("No patient could be fed to the registry");
+        }
+
+        var scheduler = Executors.newSingleThreadScheduledExecutor();
+        var workers = Executors.newFixedThreadPool(config.threads());
+        var warmup = TimeUnit.SECONDS.toNanos(config.warmup());
+        var duration = TimeUnit.SECONDS.toNanos(config.duration());
+        measurementStart = System.nanoTime() + warmup;
+        measurementEnd = measurementStart + duration;
+        schedule(scheduler, workers, "ITI-8", config.iti8Rate(), this::feedPatient);
+        schedule(scheduler, workers, "ITI-42", config.iti42Rate(), this::register);
+        schedule(scheduler, workers, "ITI-18 LeafClass", config.iti18LeafClassRate(),
+                () -> findDocuments(QueryReturnType.LEAF_CLASS));
+        schedule(scheduler, workers, "ITI-18 ObjectRef", config.iti18ObjectRefRate(),
+                () -> findDocuments(QueryReturnType.OBJECT_REF));
+        schedule(scheduler, workers, "ITI-62", config.iti62Rate(), this::remove);
+
+        TimeUnit.NANOSECONDS.sleep(warmup + duration);
+        scheduler.shutdownNow();
+        workers.shutdown();
+        if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+            workers.shutdownNow();
+        }
+
+        System.out.println();
+        System.out.println(LatencyRecorder.header());
+        recorders.forEach(recorder -> System.out.println(recorder.report()));
+    }
+
+    private void schedule(ScheduledExecutorService scheduler, ExecutorService workers, String transaction,
+            double rate, Callable<Boolean> operation) {
+        if (rate <= 0) {
+            return;
+        }
+        var recorder = new LatencyRecorder(transaction, measurementStart, measurementEnd);
+        recorders.add(recorder);
+        var period = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        scheduler.scheduleAtFixedRate(() -> {
+            var scheduled = System.nanoTime();
+            recorder.scheduled(scheduled);
+            workers.execute(() -> {
+                var success = call(operation);
+                if (success != null) {
+                    recorder.record(scheduled, System.nanoTime(), success);
+                } else {
+                    recorder.skipped(scheduled);
+                }
+            });
+        }, 0, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return outcome of the transaction, null if the transaction was skipped.
+     */
+    private Boolean call(Callable<Boolean> call) {
+        try {
+            return call.call();
+        } catch (Exception e) {
+            if (reportedFailures.incrementAndGet() <= REPORTED_FAILURES) {
+                System.err.println("Transaction failed: " + e);
+            }
+            return false;
+        }
+    }
+
+    private Boolean feedPatient() throws Exception {
+        var patientId = new Identifiable("LOAD-" + runId + "-" + sequence.incrementAndGet(),
+                new AssigningAuthority(PATIENT_AUTHORITY));
+        var feed = new PipeParser().parse(patientFeedTemplate
+                .replace("$PATIENTID", patientId.getId())
+                .replace("$MPI-OID", PATIENT_AUTHORITY));
+        var ack = producer.requestBody(iti8Uri, feed, Message.class);
+        var accepted = "AA".equals(new Terser(ack).get("/MSA-1"));
+        if (accepted) {
+            patients.add(patientId);
+        }
+        return accepted;
+    }
+
+    private Boolean register() {
+        var patientId = randomPatient();
+        var doc = SampleData.createDocumentEntry(patientId);
+        doc.setSourcePatientId(new Identifiable("source", new AssigningAuthority("2.999.1.2")));
+        doc.assignEntryUuid();
+        doc.setUniqueId(nextUniqueId());
+        var submissionSet = SampleData.createSubmissionSet(patientId);
+        submissionSet.assignEntryUuid();
+        submissionSet.setUniqueId(nextUniqueId());
+        var register = new RegisterDocumentSetBuilder(true, submissionSet).withDocument(doc).build();
+
+        var response = producer.requestBody(iti42Uri, register, Response.class);
+        if (response.getStatus() == SUCCESS) {
+            submissions.add(new Submission(doc.getEntryUuid(), submissionSet.getEntryUuid(),
+                    register.getAssociations().stream().map(Association::getEntryUuid).toList()));
+        }
+        return response.getStatus() == SUCCESS;
+    }
+
+    private Boolean findDocuments(QueryReturnType returnType) {
+        var query = new FindDocumentsQuery();
+        query.setStatus(List.of(AvailabilityStatus.APPROVED));
+        query.setPatientId(randomPatient());
+        var response = producer.requestBody(iti18Uri, new QueryRegistry(query, returnType), QueryResponse.class);
+        return response.getStatus() == SUCCESS;
+    }
+
+    private Boolean remove() {
+        var submission = submissions.poll();
+        if (submission == null) {
+            return null;
+        }
+        var removal = new RemoveMetadata();
+        removal.getReferences().add(new ObjectReference(submission.documentUuid()));
+        removal.getReferences().add(new ObjectReference(submission.submissionSetUuid()));
+        submission.associationUuids().forEach(uuid -> removal.getReferences().add(new ObjectReference(uuid)));
+        var response = producer.requestBody(iti62Uri, removal, Response.class);
+        return response.getStatus() == SUCCESS;
+    }
+
+    private Identifiable randomPatient() {
+        return patients.get(ThreadLocalRandom.current().nextInt(patients.size()));
+    }
+
+    private String nextUniqueId() {
+        return "1.2.3.4.5." + runId + "." + sequence.incrementAndGet();
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private record Submission(String documentUuid, String submissionSetUuid, List<String> associationUuids) {
+    }
+
+    private record Config(String fhirBase, int duration, int warmup, int patients, int threads, double iti8Rate,
+            double iti42Rate, double iti18LeafClassRate, double iti18ObjectRefRate, double iti62Rate) {
+
+        static Config fromSystemProperties() {
+            var fhirBase = System.getProperty("loadtest.fhir.base");
+            return new Config(fhirBase == null || fhirBase.isBlank() ? null : fhirBase,
+                    Integer.getInteger("loadtest.duration", 60),
+                    Integer.getInteger("loadtest.warmup", 10),
+                    Integer.getInteger("loadtest.patients", 20),
+                    Integer.getInteger("loadtest.threads", 32),
+                    rate("iti8", 1), rate("iti42", 10), rate("iti18.leafclass", 10), rate("iti18.objectref", 10),
+                    rate("iti62", 2));
+        }
+
+        private static double rate(String transaction, double defaultRate) {
+            var rate = System.getProperty("loadtest.rate." + transaction);
+            return rate == null || rate.isBlank() ? defaultRate : Double.parseDouble(rate);
+        }
+    }
+}
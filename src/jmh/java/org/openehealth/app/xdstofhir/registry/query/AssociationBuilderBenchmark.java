@@ -0,0 +1,173 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import static org.openehealth.app.xdstofhir.registry.query.StoredQueryMapper.entryUuidFrom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.DocumentReference.DocumentRelationshipType;
+import org.hl7.fhir.r4.model.DomainResource;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Identifier.IdentifierUse;
+import org.hl7.fhir.r4.model.ListResource;
+import org.hl7.fhir.r4.model.Reference;
+import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
+import org.openehealth.app.xdstofhir.registry.common.fhir.MhdFolder;
+import org.openehealth.app.xdstofhir.registry.common.fhir.MhdSubmissionSet;
+import org.openehealth.ipf.commons.core.URN;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Association;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.AssociationType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Association building of a GetAll query for a synthetic patient. Compares {@link AssociationBuilder}
+ * against the former nested loop implementation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class AssociationBuilderBenchmark {
+    private static final String BASE_URL = "http://localhost:8080/fhir/";
+    private static final int DOCUMENTS_PER_SUBMISSION = 20;
+    private static final int DOCUMENTS_PER_FOLDER = 10;
+
+    /** Number of list entries of the synthetic patient, each document is referenced by three entries. */
+    @Param({"1000", "10000"})
+    private int entries;
+
+    private List<DocumentReference> documents;
+    private List<MhdSubmissionSet> submissions;
+    private List<MhdFolder> folders;
+
+    @Setup
+    public void setup() {
+        documents = new ArrayList<>();
+        submissions = new ArrayList<>();
+        folders = new ArrayList<>();
+        var documentCount = entries / 3;
+        MhdSubmissionSet submission = null;
+        MhdFolder folder = null;
+        for (int i = 0; i < documentCount; i++) {
+            var doc = new DocumentReference();
+            doc.setId(BASE_URL + "DocumentReference/" + i + "/_history/1");
+            doc.addIdentifier(urnIdentifier());
+            if (i % 10 == 9) {
+                doc.addRelatesTo().setCode(DocumentRelationshipType.REPLACES)
+                        .setTarget(new Reference("DocumentReference/" + (i - 1)));
+            }
+            documents.add(doc);
+
+            if (i % DOCUMENTS_PER_SUBMISSION == 0) {
+                submission = new MhdSubmissionSet();
+                submission.setId(BASE_URL + "List/ss" + i);
+                submission.addIdentifier(urnIdentifier());
+                submissions.add(submission);
+            }
+            addEntry(submission, "DocumentReference/" + i);
+            if (i % DOCUMENTS_PER_FOLDER == 0) {
+                folder = new MhdFolder();
+                folder.setId(BASE_URL + "List/f" + i);
+                folder.addIdentifier(urnIdentifier());
+                folders.add(folder);
+            }
+            var folderEntry = addEntry(folder, "DocumentReference/" + i);
+            submission.addEntry().setId(new URN(UUID.randomUUID()).toString())
+                    .setItem(new Reference().setIdentifier(new Identifier().setValue(folderEntry.getId())));
+        }
+    }
+
+    @Benchmark
+    public void indexedAssociations(Blackhole blackhole) {
+        blackhole.consume(AssociationBuilder.createAssociationsFrom(submissions, documents));
+        blackhole.consume(AssociationBuilder.createAssociationsFrom(submissions, folders));
+        var fdDocAssoc = AssociationBuilder.createAssociationsFrom(folders, documents);
+        blackhole.consume(AssociationBuilder.createAssociationsBetween(submissions, fdDocAssoc));
+        blackhole.consume(AssociationBuilder.createAssociationsBetween(documents));
+    }
+
+    @Benchmark
+    public void nestedLoopAssociations(Blackhole blackhole) {
+        blackhole.consume(nestedLoopAssociationsFrom(submissions, documents));
+        blackhole.consume(nestedLoopAssociationsFrom(submissions, folders));
+        var fdDocAssoc = nestedLoopAssociationsFrom(folders, documents);
+        blackhole.consume(nestedLoopAssociationsBetween(submissions, fdDocAssoc));
+        blackhole.consume(nestedLoopAssociationsBetween(documents));
+    }
+
+    private static Identifier urnIdentifier() {
+        return new Identifier().setUse(IdentifierUse.OFFICIAL).setSystem(MappingSupport.URI_URN)
+                .setValue(new URN(UUID.randomUUID()).toString());
+    }
+
+    private static ListResource.ListEntryComponent addEntry(ListResource list, String reference) {
+        var entry = list.addEntry();
+        entry.setId(new URN(UUID.randomUUID()).toString());
+        entry.setItem(new Reference(reference));
+        return entry;
+    }
+
+    private static List<Association> nestedLoopAssociationsFrom(List<? extends ListResource> lists,
+            List<? extends DomainResource> fhirResource) {
+        var xdsAssocations = new ArrayList<Association>();
+        for (var list : lists) {
+            for (var entry : list.getEntry()) {
+                for (var doc : fhirResource) {
+                    if (entry.getItem().hasReference() && doc.getId().contains(entry.getItem().getReference())) {
+                        xdsAssocations.add(new Association(AssociationType.HAS_MEMBER, entry.getId(),
+                                entryUuidFrom(list), entryUuidFrom(doc)));
+                    }
+                }
+            }
+        }
+        return xdsAssocations;
+    }
+
+    private static List<Association> nestedLoopAssociationsBetween(List<DocumentReference> fhirDocuments) {
+        var xdsAssocations = new ArrayList<Association>();
+        for (var doc : fhirDocuments) {
+            for (var related : doc.getRelatesTo()) {
+                for (var doc2 : fhirDocuments) {
+                    if (related.getTarget().hasReference()
+                            && doc2.getId().contains(related.getTarget().getReference())) {
+                        xdsAssocations.add(new Association(AssociationType.REPLACE, related.getId(),
+                                entryUuidFrom(doc), entryUuidFrom(doc2)));
+                    }
+                }
+            }
+        }
+        return xdsAssocations;
+    }
+
+    private static List<Association> nestedLoopAssociationsBetween(List<MhdSubmissionSet> fhirSubmissions,
+            List<Association> fdDocAssoc) {
+        var xdsAssocations = new ArrayList<Association>();
+        for (var list : fhirSubmissions) {
+            for (var entry : list.getEntry()) {
+                for (var assoc : fdDocAssoc) {
+                    if (assoc.getEntryUuid().equals(entry.getItem().getIdentifier().getValue())) {
+                        xdsAssocations.add(new Association(AssociationType.HAS_MEMBER, entry.getId(),
+                                entryUuidFrom(list), assoc.getEntryUuid()));
+                    }
+                }
+            }
+        }
+        return xdsAssocations;
+    }
+}
@@ -0,0 +1,97 @@
+package org.openehealth.app.xdstofhir.registry.register;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Association;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.AssociationType;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.SubmissionSet;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.XDSMetaClass;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * entryUUID assignment of a bulk submission with symbolic ids. Compares {@link SymbolicIdResolver} against
+ * the former String.replace scan over all associations per object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SymbolicIdResolverBenchmark {
+
+    @Param({"1000", "5000"})
+    private int documents;
+
+    private List<XDSMetaClass> xdsObjects;
+    private List<Association> associations;
+
+    /**
+     * The ids get replaced by each run, so a fresh submission is required per invocation.
+     */
+    @Setup(Level.Invocation)
+    public void setup() {
+        xdsObjects = new ArrayList<>();
+        associations = new ArrayList<>();
+        var submissionSet = new SubmissionSet();
+        submissionSet.setEntryUuid("SubmissionSet01");
+        for (int i = 0; i < documents; i++) {
+            var doc = new DocumentEntry();
+            doc.setEntryUuid("Document" + i);
+            xdsObjects.add(doc);
+            associations.add(new Association(AssociationType.HAS_MEMBER, "Association" + i,
+                    submissionSet.getEntryUuid(), doc.getEntryUuid()));
+        }
+        xdsObjects.add(submissionSet);
+    }
+
+    @Benchmark
+    public void resolutionTable(Blackhole blackhole) {
+        var symbolicIds = new SymbolicIdResolver();
+        xdsObjects.forEach(symbolicIds::assignEntryUuid);
+        associations.forEach(symbolicIds::assignEntryUuid);
+        symbolicIds.resolveReferences(associations);
+        blackhole.consume(associations);
+    }
+
+    @Benchmark
+    public void replaceScan(Blackhole blackhole) {
+        for (var xdsObject : xdsObjects) {
+            if (!xdsObject.getEntryUuid().startsWith(MappingSupport.UUID_URN)) {
+                var previousIdentifier = xdsObject.getEntryUuid();
+                xdsObject.assignEntryUuid();
+                associations.forEach(assoc -> {
+                    assoc.setSourceUuid(assoc.getSourceUuid().replace(previousIdentifier, xdsObject.getEntryUuid()));
+                    assoc.setTargetUuid(assoc.getTargetUuid().replace(previousIdentifier, xdsObject.getEntryUuid()));
+                });
+            }
+        }
+        for (var assoc : associations) {
+            if (!assoc.getEntryUuid().startsWith(MappingSupport.UUID_URN)) {
+                var previousIdentifier = assoc.getEntryUuid();
+                assoc.assignEntryUuid();
+                associations.forEach(as -> {
+                    as.setSourceUuid(as.getSourceUuid().replace(previousIdentifier, assoc.getEntryUuid()));
+                    as.setTargetUuid(as.getTargetUuid().replace(previousIdentifier, assoc.getEntryUuid()));
+                });
+            }
+        }
+        blackhole.consume(associations);
+    }
+}
@@ -0,0 +1,105 @@
+package org.openehealth.app.xdstofhir.registry.remove;
+
+import static org.openehealth.app.xdstofhir.registry.common.MappingSupport.URI_URN;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.BundleBuilder;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.DocumentReference.DocumentReferenceRelatesToComponent;
+import org.hl7.fhir.r4.model.DocumentReference.DocumentRelationshipType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Identifier.IdentifierUse;
+import org.hl7.fhir.r4.model.ListResource;
+import org.hl7.fhir.r4.model.ListResource.ListEntryComponent;
+import org.hl7.fhir.r4.model.Reference;
+import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Bookkeeping of a remove metadata request, that removes a submission set with all its documents, the
+ * membership associations and relations between the documents. No FHIR server is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataRemovalBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    private int documents;
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+    private List<String> uuids;
+    private List<DocumentReference> documentResult;
+    private List<ListResource> listResult;
+
+    /**
+     * Relations and list entries get removed by each run, so fresh resources are required per invocation.
+     */
+    @Setup(Level.Invocation)
+    public void setup() {
+        uuids = new ArrayList<>();
+        documentResult = new ArrayList<>();
+        var submissionSet = new ListResource();
+        submissionSet.setId("List/1");
+        submissionSet.addIdentifier(identifier());
+        submissionSet.getMeta().addProfile(MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE);
+        DocumentReference previous = null;
+        for (int i = 0; i < documents; i++) {
+            var doc = new DocumentReference();
+            doc.setId("DocumentReference/" + i);
+            doc.addIdentifier(identifier());
+            if (previous != null) {
+                var relation = new DocumentReferenceRelatesToComponent().setCode(DocumentRelationshipType.APPENDS)
+                        .setTarget(new Reference(previous));
+                relation.setId(uuid());
+                doc.addRelatesTo(relation);
+                uuids.add(relation.getId());
+            }
+            var entry = new ListEntryComponent(new Reference(doc));
+            entry.setId(uuid());
+            submissionSet.addEntry(entry);
+            uuids.add(entry.getId());
+            uuids.add(doc.getIdentifierFirstRep().getValue());
+            documentResult.add(doc);
+            previous = doc;
+        }
+        uuids.add(submissionSet.getIdentifierFirstRep().getValue());
+        listResult = List.of(submissionSet);
+    }
+
+    @Benchmark
+    public void remove(Blackhole blackhole) {
+        var removal = new MetadataRemoval(uuids, new BundleBuilder(fhirContext));
+        removal.processDocuments(documentResult);
+        removal.processLists(listResult);
+        blackhole.consume(removal.errors());
+    }
+
+    private static Identifier identifier() {
+        return new Identifier().setSystem(URI_URN).setValue(uuid()).setUse(IdentifierUse.OFFICIAL);
+    }
+
+    private static String uuid() {
+        return "urn:uuid:" + UUID.randomUUID();
+    }
+}
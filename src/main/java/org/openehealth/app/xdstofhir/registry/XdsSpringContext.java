@@ -3,6 +3,8 @@ package org.openehealth.app.xdstofhir.registry;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
@@ -68,6 +70,16 @@ public class XdsSpringContext {
         return client;
     }
 
+    /**
+     * Executor for background FHIR requests, e.g. prefetching of result pages.
+     *
+     * @return virtual thread based executor
+     */
+    @Bean(destroyMethod = "close")
+    ExecutorService fhirQueryExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
     @Bean
     CustomMappings customMapping() {
         var mapping = new CustomMappings();
@@ -0,0 +1,86 @@
+package org.openehealth.app.xdstofhir.registry.common;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DomainResource;
+
+/**
+ * Iterate the results of a search that was split into several searches (chunks). The chunks are iterated
+ * one after another, each with a {@link PagingFhirResultIterator}. Resources matching more than one chunk
+ * are returned only once.
+ *
+ * @param <T>
+ */
+public class ChunkedFhirResultIterator<T extends DomainResource> implements Iterator<T>, AutoCloseable {
+
+    private final List<CompletableFuture<Bundle>> chunks;
+    private final Iterator<CompletableFuture<Bundle>> pendingChunks;
+    private final Class<T> resultTypeClass;
+    private final IGenericClient client;
+    private final Set<String> returnedIds = new HashSet<>();
+    private PagingFhirResultIterator<T> currentChunk;
+    private T nextResult;
+    private boolean closed = false;
+
+    /**
+     * @param chunks - the pending first result page of each chunk
+     * @param resultTypeClass
+     * @param client
+     */
+    public ChunkedFhirResultIterator(List<CompletableFuture<Bundle>> chunks, Class<T> resultTypeClass,
+            IGenericClient client) {
+        this.chunks = chunks;
+        this.pendingChunks = chunks.iterator();
+        this.resultTypeClass = resultTypeClass;
+        this.client = client;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextResult == null && !closed) {
+            if (currentChunk != null && currentChunk.hasNext()) {
+                var candidate = currentChunk.next();
+                var id = candidate.getIdElement().toUnqualifiedVersionless().getValue();
+                if (chunks.size() == 1 || id == null || returnedIds.add(id)) {
+                    nextResult = candidate;
+                }
+            } else if (pendingChunks.hasNext()) {
+                currentChunk = new PagingFhirResultIterator<>(Futures.await(pendingChunks.next()),
+                        resultTypeClass, client);
+            } else {
+                return false;
+            }
+        }
+        return nextResult != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more elements present.");
+        }
+        var result = nextResult;
+        nextResult = null;
+        return result;
+    }
+
+    /**
+     * Stop iteration and cancel the searches of chunks not yet iterated.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        nextResult = null;
+        if (currentChunk != null) {
+            currentChunk.close();
+        }
+        pendingChunks.forEachRemaining(chunk -> chunk.cancel(true));
+    }
+}
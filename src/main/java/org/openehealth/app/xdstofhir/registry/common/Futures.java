@@ -0,0 +1,33 @@
+package org.openehealth.app.xdstofhir.registry.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import lombok.experimental.UtilityClass;
+
+@UtilityClass
+public class Futures {
+
+    /**
+     * Wait for the result of an asynchronous FHIR operation.
+     *
+     * @param future
+     * @return the result of the future
+     * @throws RuntimeException the unchecked exception or error the future completed with, unwrapped from the
+     *             {@link CompletionException}, so that callers see the same FHIR client exception as with a
+     *             synchronous call.
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
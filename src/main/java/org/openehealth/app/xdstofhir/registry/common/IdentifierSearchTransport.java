@@ -0,0 +1,91 @@
+package org.openehealth.app.xdstofhir.registry.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+import ca.uhn.fhir.rest.api.SearchStyleEnum;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.gclient.IQuery;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DomainResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Transport of searches with a potentially large list of identifiers.
+ *
+ * Above a configurable number of identifiers the search is sent as POST [type]/_search with a form body instead
+ * of a GET query string, to avoid URL length limits. For FHIR servers limiting the number of parameter values,
+ * the identifiers can also be split into chunks that are searched concurrently and merged to one result.
+ */
+@Component
+public class IdentifierSearchTransport {
+
+    private final int postThreshold;
+    private final int maxIdentifiersPerSearch;
+    private final Executor executor;
+
+    /**
+     * @param postThreshold - number of identifiers above which POST is used, 0 to always use GET
+     * @param maxIdentifiersPerSearch - maximum number of identifiers of a single search, 0 for no limit
+     * @param fhirQueryExecutor - executor for the concurrent chunk searches, may be null to search sequentially
+     */
+    public IdentifierSearchTransport(@Value("${xds.search.post-threshold:50}") int postThreshold,
+            @Value("${xds.search.max-identifiers:0}") int maxIdentifiersPerSearch,
+            ExecutorService fhirQueryExecutor) {
+        this.postThreshold = postThreshold;
+        this.maxIdentifiersPerSearch = maxIdentifiersPerSearch;
+        this.executor = fhirQueryExecutor != null ? fhirQueryExecutor : Runnable::run;
+    }
+
+    /**
+     * @param search - the search to send
+     * @param identifierCount - number of identifiers that are part of the search
+     * @return the given search, switched to POST if the number of identifiers exceeds the threshold
+     */
+    public IQuery<Bundle> withTransport(IQuery<Bundle> search, int identifierCount) {
+        if (postThreshold > 0 && identifierCount > postThreshold) {
+            search.usingStyle(SearchStyleEnum.POST);
+        }
+        return search;
+    }
+
+    /**
+     * Search resources by identifier. The searches of all chunks are started immediately, the results
+     * are iterated in the order of the identifiers.
+     *
+     * @param client
+     * @param identifiers - the identifiers to search for
+     * @param searchFactory - create the search for a chunk of identifiers
+     * @param resultTypeClass - resource type of the result
+     * @return the merged result of all chunks
+     */
+    public <T extends DomainResource> ChunkedFhirResultIterator<T> search(IGenericClient client,
+            Collection<String> identifiers, Function<List<String>, IQuery<Bundle>> searchFactory,
+            Class<T> resultTypeClass) {
+        var partitions = partition(new ArrayList<>(identifiers));
+        var chunks = new ArrayList<CompletableFuture<Bundle>>(partitions.size());
+        for (var partition : partitions) {
+            var search = withTransport(searchFactory.apply(partition), partition.size());
+            chunks.add(partitions.size() == 1 ? CompletableFuture.completedFuture(search.execute())
+                    : CompletableFuture.supplyAsync(search::execute, executor));
+        }
+        return new ChunkedFhirResultIterator<>(chunks, resultTypeClass, client);
+    }
+
+    private List<List<String>> partition(List<String> identifiers) {
+        if (maxIdentifiersPerSearch <= 0 || identifiers.size() <= maxIdentifiersPerSearch) {
+            return List.of(identifiers);
+        }
+        var partitions = new ArrayList<List<String>>();
+        for (int i = 0; i < identifiers.size(); i += maxIdentifiersPerSearch) {
+            partitions.add(identifiers.subList(i, Math.min(i + maxIdentifiersPerSearch, identifiers.size())));
+        }
+        return partitions;
+    }
+}
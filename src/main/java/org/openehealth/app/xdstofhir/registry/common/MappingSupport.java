@@ -9,6 +9,8 @@ import java.util.UUID;
 import java.util.stream.Collectors;
 
 import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.experimental.UtilityClass;
 
 import org.hl7.fhir.r4.model.Narrative;
@@ -30,6 +32,9 @@ public class MappingSupport {
     public static final String UUID_URN = "urn:uuid:";
     public static final String XDS_URN = "urn:ihe:xds:";
     public static final String URI_URN = "urn:ietf:rfc:3986";
+    private static final String IHE_URN = "urn:ihe:";
+    private static final int MAX_CANONICAL_OID_LENGTH = 256;
+    private static final Cache<String, String> URN_CODED_VALUES = Caffeine.newBuilder().maximumSize(10_000).build();
     public static final String MHD_COMPREHENSIVE_PROFILE = "https://profiles.ihe.net/ITI/MHD/StructureDefinition/IHE.MHD.Comprehensive.DocumentReference";
     public static final String MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE = "https://profiles.ihe.net/ITI/MHD/StructureDefinition/IHE.MHD.Comprehensive.SubmissionSet";
     public static final String MHD_COMPREHENSIVE_FOLDER_PROFILE = "https://profiles.ihe.net/ITI/MHD/StructureDefinition/IHE.MHD.Comprehensive.Folder";
@@ -67,7 +72,33 @@ public class MappingSupport {
             .collect(Collectors.toMap(Map.Entry::getValue, Map.Entry::getKey, (x, y) -> y, LinkedHashMap::new));
 
 
+    /**
+     * Classify a value as urn (kept as is), oid or uuid (urn:oid: prefix), absolute uri (kept as is) or other
+     * (urn:ihe:xds: prefix).
+     *
+     * Frequent shapes are classified by a scan of the characters. Everything else is classified by parsing
+     * and the result is memoized, since the code systems of the registry recur.
+     *
+     * @param value - a code system or identifier
+     * @return the urn coded value
+     */
     public static String toUrnCoded(String value) {
+        if (isWellKnownUrn(value) || isAbsoluteHttpUri(value)) {
+            return value;
+        }
+        if (isCanonicalOid(value) || isCanonicalUuid(value)) {
+            return OID_URN + value;
+        }
+        if (isPlainToken(value)) {
+            return XDS_URN + value;
+        }
+        return URN_CODED_VALUES.get(value, MappingSupport::parseUrnCoded);
+    }
+
+    /**
+     * Classification by parsing, the reference for {@link #toUrnCoded(String)}.
+     */
+    static String parseUrnCoded(String value) {
         String adaptedValue = value;
         try {
             URN.create(adaptedValue);
@@ -94,6 +125,135 @@ public class MappingSupport {
         return adaptedValue;
     }
 
+    /**
+     * urn:oid:, urn:uuid: or urn:ihe: followed by letters, digits, ".", "-" and ":".
+     */
+    private static boolean isWellKnownUrn(String value) {
+        int nssStart;
+        if (value.startsWith(OID_URN)) {
+            nssStart = OID_URN.length();
+        } else if (value.startsWith(UUID_URN)) {
+            nssStart = UUID_URN.length();
+        } else if (value.startsWith(IHE_URN)) {
+            nssStart = IHE_URN.length();
+        } else {
+            return false;
+        }
+        if (value.length() == nssStart || !isLetterOrDigit(value.charAt(nssStart))
+                || value.charAt(value.length() - 1) == ':') {
+            return false;
+        }
+        for (int i = nssStart; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (!isLetterOrDigit(c) && c != '.' && c != '-' && c != ':') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * http:// or https:// followed by a host and unreserved characters, sub-delims, "/", ":", "@" and "?".
+     */
+    private static boolean isAbsoluteHttpUri(String value) {
+        int authorityStart;
+        if (value.startsWith("http://")) {
+            authorityStart = "http://".length();
+        } else if (value.startsWith("https://")) {
+            authorityStart = "https://".length();
+        } else {
+            return false;
+        }
+        if (value.length() == authorityStart || !isLetterOrDigit(value.charAt(authorityStart))) {
+            return false;
+        }
+        for (int i = authorityStart; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (!isLetterOrDigit(c) && "-._~!$&'()*+,;=/:@?".indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * At least two numeric arcs without leading zeros, the first arc 0 to 2 and the second arc below 40
+     * for the arcs 0 and 1.
+     */
+    private static boolean isCanonicalOid(String value) {
+        if (value.length() < 3 || value.length() > MAX_CANONICAL_OID_LENGTH) {
+            return false;
+        }
+        var first = value.charAt(0);
+        if (first < '0' || first > '2' || value.charAt(1) != '.') {
+            return false;
+        }
+        int arcs = 1;
+        int arcStart = 2;
+        for (int i = 2; i <= value.length(); i++) {
+            if (i == value.length() || value.charAt(i) == '.') {
+                var arcLength = i - arcStart;
+                if (arcLength == 0 || arcLength > 9 || (arcLength > 1 && value.charAt(arcStart) == '0')) {
+                    return false;
+                }
+                if (arcs == 1 && first < '2' && Integer.parseInt(value, arcStart, i, 10) >= 40) {
+                    return false;
+                }
+                arcs++;
+                arcStart = i + 1;
+            } else if (!isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 8-4-4-4-12 hexadecimal digits.
+     */
+    private static boolean isCanonicalUuid(String value) {
+        if (value.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            var isDash = i == 8 || i == 13 || i == 18 || i == 23;
+            if (isDash ? c != '-' : !(isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Letters, digits, "." and "_" with at least one letter or "_", e.g. LOINC or DCM. Such a value is neither
+     * a urn, oid, uuid nor an absolute uri.
+     */
+    private static boolean isPlainToken(String value) {
+        var hasNonDigit = false;
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (isLetter(c) || c == '_') {
+                hasNonDigit = true;
+            } else if (!isDigit(c) && c != '.') {
+                return false;
+            }
+        }
+        return hasNonDigit;
+    }
+
+    private static boolean isLetterOrDigit(char c) {
+        return isLetter(c) || isDigit(c);
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
     public static String urnDecodedScheme(String urnCodedSystem) {
         return urnCodedSystem
                 .replace(OID_URN, "")
@@ -1,13 +1,16 @@
 package org.openehealth.app.xdstofhir.registry.common;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.util.BundleUtil;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.DomainResource;
@@ -15,45 +18,113 @@ import org.hl7.fhir.r4.model.DomainResource;
 /**
  * Lazy Fhir Page Iterator. Fetches the next result page when the iterator has loaded the last element.
  *
+ * The resources of a page are extracted once when the page gets loaded and iterated by index afterwards.
+ *
+ * With a prefetch depth greater than 0, up to that many following pages are requested in the background
+ * while the current page is consumed. Pending requests are cancelled on {@link #close()}.
+ *
  * @param <T>
  */
-@RequiredArgsConstructor
-public class PagingFhirResultIterator<T extends DomainResource> implements Iterator<T> {
+public class PagingFhirResultIterator<T extends DomainResource> implements Iterator<T>, AutoCloseable {
 
-    @NonNull
     private Bundle resultBundle;
     private final Class<T> resultTypeClass;
-    private int currentIteratorIndex = 0;
     private final IGenericClient client;
+    private final int prefetchDepth;
+    private final Executor executor;
+    private final Deque<CompletableFuture<Bundle>> prefetchedPages = new ArrayDeque<>();
+    private List<T> currentPage;
+    private int currentIteratorIndex = 0;
+    private boolean closed = false;
+
+    public PagingFhirResultIterator(@NonNull Bundle resultBundle, Class<T> resultTypeClass, IGenericClient client) {
+        this(resultBundle, resultTypeClass, client, 0, null);
+    }
+
+    public PagingFhirResultIterator(@NonNull Bundle resultBundle, Class<T> resultTypeClass, IGenericClient client,
+            int prefetchDepth, Executor executor) {
+        this.resultBundle = resultBundle;
+        this.resultTypeClass = resultTypeClass;
+        this.client = client;
+        this.prefetchDepth = executor != null ? prefetchDepth : 0;
+        this.executor = executor;
+        this.currentPage = getResourcesFromBundle();
+        schedulePrefetch();
+    }
 
     @Override
     public boolean hasNext() {
-        if (currentIteratorIndex == getResourcesFromBundle().size()) {
+        if (currentIteratorIndex == currentPage.size()) {
             nextPageIfAvailable();
         }
-        return currentIteratorIndex < getResourcesFromBundle().size();
+        return currentIteratorIndex < currentPage.size();
     }
 
     private void nextPageIfAvailable() {
-        if (resultBundle.getLink(IBaseBundle.LINK_NEXT) != null) {
-            resultBundle = client.loadPage().next(resultBundle).execute();
-            currentIteratorIndex = 0;
+        if (closed) {
+            return;
+        }
+        if (prefetchDepth > 0) {
+            var nextPage = prefetchedPages.isEmpty() ? null : Futures.await(prefetchedPages.poll());
+            if (nextPage != null) {
+                switchToPage(nextPage);
+                schedulePrefetch();
+            }
+        } else if (resultBundle.getLink(IBaseBundle.LINK_NEXT) != null) {
+            switchToPage(client.loadPage().next(resultBundle).execute());
+        }
+    }
+
+    private void switchToPage(Bundle page) {
+        resultBundle = page;
+        currentPage = getResourcesFromBundle();
+        currentIteratorIndex = 0;
+    }
+
+    /**
+     * Chain page requests until prefetchDepth pages are pending. Each request waits for its predecessor,
+     * since the next link is only known from the previous page.
+     */
+    private void schedulePrefetch() {
+        if (prefetchDepth == 0 || closed || resultBundle.getLink(IBaseBundle.LINK_NEXT) == null) {
+            return;
+        }
+        while (prefetchedPages.size() < prefetchDepth) {
+            var previousPage = prefetchedPages.isEmpty() ? CompletableFuture.completedFuture(resultBundle)
+                    : prefetchedPages.peekLast();
+            prefetchedPages.add(previousPage.thenApplyAsync(this::loadNextPage, executor));
         }
     }
 
+    private Bundle loadNextPage(Bundle page) {
+        if (page == null || page.getLink(IBaseBundle.LINK_NEXT) == null) {
+            return null;
+        }
+        return client.loadPage().next(page).execute();
+    }
+
     @Override
     public T next() {
         if (!hasNext()) {
             throw new NoSuchElementException("No more elements present.");
         }
-        T result = getResourcesFromBundle().get(currentIteratorIndex);
+        T result = currentPage.get(currentIteratorIndex);
         currentIteratorIndex++;
         return result;
     }
 
+    /**
+     * Stop iteration and cancel all pending page requests.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        prefetchedPages.forEach(page -> page.cancel(true));
+        prefetchedPages.clear();
+    }
+
     private List<T> getResourcesFromBundle(){
         return BundleUtil.toListOfResourcesOfType(client.getFhirContext(),
                 resultBundle, resultTypeClass);
     }
 }
-
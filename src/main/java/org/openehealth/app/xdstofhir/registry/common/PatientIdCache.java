@@ -0,0 +1,67 @@
+package org.openehealth.app.xdstofhir.registry.common;
+
+import static org.openehealth.app.xdstofhir.registry.common.MappingSupport.OID_URN;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Identifiable;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded cache from a patient identifier (assigning authority and id) to the logical id of the FHIR Patient.
+ *
+ * Entries expire after a configurable time, so that changes on the FHIR server (e.g. patient merge)
+ * are picked up eventually. Hit and miss counts are exposed as cache metrics with name "patientIdCache".
+ */
+@Component
+public class PatientIdCache {
+
+    private final Cache<PatientIdentifier, String> cache;
+
+    public PatientIdCache(@Value("${xds.patient.cache.max-size:10000}") long maxSize,
+            @Value("${xds.patient.cache.ttl:10m}") Duration ttl, MeterRegistry meterRegistry) {
+        cache = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats().build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "patientIdCache");
+    }
+
+    /**
+     * @param identifier - the patient identifier
+     * @return the cached logical id of the FHIR Patient
+     */
+    public Optional<String> get(PatientIdentifier identifier) {
+        return Optional.ofNullable(cache.getIfPresent(identifier));
+    }
+
+    /**
+     * @param identifier - the patient identifier
+     * @param resolver - lookup of the logical id on cache miss, may return null if the patient does not exist
+     * @return the logical id of the FHIR Patient or null, if the patient is unknown
+     */
+    public String resolve(PatientIdentifier identifier, Function<PatientIdentifier, String> resolver) {
+        return cache.get(identifier, resolver);
+    }
+
+    public void put(PatientIdentifier identifier, String logicalId) {
+        cache.put(identifier, logicalId);
+    }
+
+    /**
+     * Patient identifier as used in FHIR token search.
+     *
+     * @param system - the assigning authority in urn:oid format
+     * @param value - the patient id
+     */
+    public record PatientIdentifier(String system, String value) {
+        public static PatientIdentifier of(Identifiable patientId) {
+            return new PatientIdentifier(OID_URN + patientId.getAssigningAuthority().getUniversalId(),
+                    patientId.getId());
+        }
+    }
+}
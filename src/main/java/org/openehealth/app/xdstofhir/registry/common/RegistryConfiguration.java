@@ -5,6 +5,7 @@ import java.util.Arrays;
 import java.util.Map;
 
 import jakarta.validation.constraints.NotBlank;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import org.cryptacular.util.CertUtil;
@@ -21,6 +22,30 @@ public class RegistryConfiguration {
     private String unknownRepositoryId;
     private String defaultHash;
     private XuaConfiguration xua;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile RepositoryEndpointIndex repositoryEndpointIndex = new RepositoryEndpointIndex(null,
+            DOCUMENT_UNIQUE_ID_PLACEHOLDER);
+
+    /**
+     * Bind the repository endpoints and build the lookup index over them. A configuration reload binds
+     * a new map, which replaces the index.
+     *
+     * @param repositoryEndpoint - repositoryUniqueId to download URL template
+     */
+    public void setRepositoryEndpoint(Map<String, String> repositoryEndpoint) {
+        this.repositoryEndpoint = repositoryEndpoint;
+        this.repositoryEndpointIndex = new RepositoryEndpointIndex(repositoryEndpoint, DOCUMENT_UNIQUE_ID_PLACEHOLDER);
+    }
+
+    private RepositoryEndpointIndex repositoryEndpointIndex() {
+        var index = repositoryEndpointIndex;
+        if (!index.isIndexOf(repositoryEndpoint)) {
+            index = new RepositoryEndpointIndex(repositoryEndpoint, DOCUMENT_UNIQUE_ID_PLACEHOLDER);
+            repositoryEndpointIndex = index;
+        }
+        return index;
+    }
 
 
     /**
@@ -32,7 +57,11 @@ public class RegistryConfiguration {
      * @return String containing the http download endpoint for the given document.
      */
     public String urlFrom(String repositoryUniqueId, String uniqueId) {
-        return repositoryEndpoint.get(repositoryUniqueId).replace(DOCUMENT_UNIQUE_ID_PLACEHOLDER, uniqueId);
+        var url = repositoryEndpointIndex().urlFrom(repositoryUniqueId, uniqueId);
+        if (url == null) {
+            throw new IllegalArgumentException("Unknown repositoryUniqueId " + repositoryUniqueId);
+        }
+        return url;
     }
 
     /**
@@ -43,9 +72,8 @@ public class RegistryConfiguration {
      * @return The repositoryUniqueId
      */
     public String repositoryFromUrl(String url) {
-        return repositoryEndpoint.entrySet().stream()
-                .filter(configItem -> url.matches(configItem.getValue().replace(DOCUMENT_UNIQUE_ID_PLACEHOLDER, ".*")))
-                .map(Map.Entry::getKey).findFirst().orElse(unknownRepositoryId);
+        var repositoryUniqueId = repositoryEndpointIndex().repositoryFromUrl(url);
+        return repositoryUniqueId != null ? repositoryUniqueId : unknownRepositoryId;
     }
 
     @Getter
@@ -0,0 +1,109 @@
+package org.openehealth.app.xdstofhir.registry.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index over the repository endpoint templates, e.g. "http://repo/binary/$documentUniqueId".
+ *
+ * The literal parts of each template are split at the placeholder once. A URL is resolved by walking a trie of
+ * the literal template prefixes along the URL, the remaining literal parts of the few candidates are verified
+ * with string comparisons. If several templates match, the first configured one wins.
+ */
+final class RepositoryEndpointIndex {
+    private final Map<String, String> source;
+    private final Map<String, Template> templatesByRepository = new HashMap<>();
+    private final Node root = new Node();
+
+    RepositoryEndpointIndex(Map<String, String> repositoryEndpoint, String placeholder) {
+        this.source = repositoryEndpoint;
+        if (repositoryEndpoint == null) {
+            return;
+        }
+        var order = 0;
+        for (var endpoint : repositoryEndpoint.entrySet()) {
+            var template = new Template(endpoint.getKey(), order++, split(endpoint.getValue(), placeholder));
+            templatesByRepository.put(endpoint.getKey(), template);
+            var node = root;
+            for (var c : template.literals()[0].toCharArray()) {
+                node = node.children.computeIfAbsent(c, key -> new Node());
+            }
+            node.templates.add(template);
+        }
+    }
+
+    boolean isIndexOf(Map<String, String> repositoryEndpoint) {
+        return source == repositoryEndpoint;
+    }
+
+    /**
+     * @param repositoryUniqueId
+     * @param uniqueId - the document uniqueId to fill in
+     * @return the download URL or null, if the repository is unknown
+     */
+    String urlFrom(String repositoryUniqueId, String uniqueId) {
+        var template = templatesByRepository.get(repositoryUniqueId);
+        return template != null ? String.join(uniqueId, template.literals()) : null;
+    }
+
+    /**
+     * @param url - download URL
+     * @return repositoryUniqueId of the first template that matches the URL, null if none matches
+     */
+    String repositoryFromUrl(String url) {
+        Template result = null;
+        var node = root;
+        for (int i = 0; node != null; i++) {
+            for (var template : node.templates) {
+                if ((result == null || template.order() < result.order()) && template.matches(url)) {
+                    result = template;
+                }
+            }
+            node = i < url.length() ? node.children.get(url.charAt(i)) : null;
+        }
+        return result != null ? result.repositoryUniqueId() : null;
+    }
+
+    private static String[] split(String template, String placeholder) {
+        var literals = new ArrayList<String>();
+        var start = 0;
+        for (var index = template.indexOf(placeholder); index >= 0; index = template.indexOf(placeholder, start)) {
+            literals.add(template.substring(start, index));
+            start = index + placeholder.length();
+        }
+        literals.add(template.substring(start));
+        return literals.toArray(String[]::new);
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private final List<Template> templates = new ArrayList<>(1);
+    }
+
+    /**
+     * @param literals - the template parts between the placeholders, the first one is the indexed prefix
+     */
+    private record Template(String repositoryUniqueId, int order, String[] literals) {
+        boolean matches(String url) {
+            if (literals.length == 1) {
+                return url.equals(literals[0]);
+            }
+            var suffix = literals[literals.length - 1];
+            var end = url.length() - suffix.length();
+            if (end < literals[0].length() || !url.endsWith(suffix)) {
+                return false;
+            }
+            var position = literals[0].length();
+            for (int i = 1; i < literals.length - 1; i++) {
+                var index = url.indexOf(literals[i], position);
+                if (index < 0 || index + literals[i].length() > end) {
+                    return false;
+                }
+                position = index + literals[i].length();
+            }
+            return true;
+        }
+    }
+}
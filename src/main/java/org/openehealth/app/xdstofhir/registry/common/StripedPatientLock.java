@@ -0,0 +1,69 @@
+package org.openehealth.app.xdstofhir.registry.common;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Serialize modifications of the registry per patient. A patient is mapped to one of a fixed number of lock
+ * stripes, so that operations on the same patient run one after another while operations on different patients
+ * (mostly) run in parallel.
+ *
+ * Operations that touch more than one patient acquire the stripes in ascending order to avoid deadlocks.
+ * The lock is local to this instance, it does not protect against modifications by other registry instances.
+ * The time spent waiting for the lock is exposed as timer "xds.patient.lock.wait".
+ */
+@Component
+public class StripedPatientLock {
+
+    private final ReentrantLock[] stripes;
+    private final Timer waitTimer;
+
+    public StripedPatientLock(@Value("${xds.lock.stripes:64}") int stripeCount, MeterRegistry meterRegistry) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("xds.lock.stripes must be positive: " + stripeCount);
+        }
+        stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        waitTimer = Timer.builder("xds.patient.lock.wait")
+                .description("Time waited for the per patient lock of register and remove operations")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param patientIds - logical ids of the FHIR Patients affected by the action
+     * @param action - the action to execute while holding the lock of all given patients
+     * @return the result of the action
+     */
+    public <T> T executeLocked(Collection<String> patientIds, Supplier<T> action) {
+        var stripeIndexes = patientIds.stream().filter(Objects::nonNull).mapToInt(this::stripeOf).distinct().sorted()
+                .toArray();
+        var start = System.nanoTime();
+        var acquired = 0;
+        try {
+            for (int stripeIndex : stripeIndexes) {
+                stripes[stripeIndex].lock();
+                acquired++;
+            }
+            waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return action.get();
+        } finally {
+            for (int i = acquired - 1; i >= 0; i--) {
+                stripes[stripeIndexes[i]].unlock();
+            }
+        }
+    }
+
+    private int stripeOf(String patientId) {
+        return Math.floorMod(patientId.hashCode(), stripes.length);
+    }
+}
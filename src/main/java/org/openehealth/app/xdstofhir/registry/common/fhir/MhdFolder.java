@@ -1,5 +1,6 @@
 package org.openehealth.app.xdstofhir.registry.common.fhir;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import ca.uhn.fhir.model.api.annotation.Child;
@@ -34,4 +35,15 @@ public class MhdFolder extends ListResource {
     @Getter @Setter
     private List<CodeableConcept> designationType;
 
+    @Override
+    public MhdFolder copy() {
+        var dst = new MhdFolder();
+        copyValues(dst);
+        if (designationType != null) {
+            dst.designationType = new ArrayList<>();
+            designationType.forEach(code -> dst.designationType.add(code.copy()));
+        }
+        return dst;
+    }
+
 }
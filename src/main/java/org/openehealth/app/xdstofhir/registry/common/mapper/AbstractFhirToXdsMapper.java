@@ -10,8 +10,6 @@ import org.openehealth.ipf.commons.ihe.xds.core.validate.OIDValidator;
 import org.openehealth.ipf.commons.map.BidiMappingService;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import lombok.Setter;
-
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
@@ -21,9 +19,14 @@ import static org.openehealth.app.xdstofhir.registry.common.MappingSupport.urnDe
 
 public abstract class AbstractFhirToXdsMapper {
 	
-	@Autowired
-	@Setter
 	protected BidiMappingService fhirMapping;
+	protected TranslationTables translations = new TranslationTables(null);
+
+	@Autowired
+	public void setFhirMapping(BidiMappingService fhirMapping) {
+		this.fhirMapping = fhirMapping;
+		this.translations = new TranslationTables(fhirMapping);
+	}
 	
     protected Identifiable obtainIndexPatientId(Reference patientRef) {
         var ids = new ArrayList<Identifier>();
@@ -52,7 +55,7 @@ public abstract class AbstractFhirToXdsMapper {
     }
 
     protected Code fromCode(Coding code) {
-        Object object = fhirMapping != null ? fhirMapping.get("fhir2XdsCodesystemMapping", code.getSystem()) : code.getSystem();
+        Object object = fhirMapping != null ? translations.get("fhir2XdsCodesystemMapping", code.getSystem()) : code.getSystem();
 		return new Code(code.getCode(), new LocalizedString(code.getDisplay()), urnDecodedScheme(object.toString()));
     }
 
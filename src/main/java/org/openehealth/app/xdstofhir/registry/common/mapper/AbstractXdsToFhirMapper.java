@@ -27,13 +27,16 @@ import org.openehealth.ipf.commons.ihe.xds.core.metadata.*;
 import org.openehealth.ipf.commons.map.BidiMappingService;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import lombok.Setter;
-
 public abstract class AbstractXdsToFhirMapper {
 	
-	@Autowired
-	@Setter
 	protected BidiMappingService fhirMapping;
+	protected TranslationTables translations = new TranslationTables(null);
+
+	@Autowired
+	public void setFhirMapping(BidiMappingService fhirMapping) {
+		this.fhirMapping = fhirMapping;
+		this.translations = new TranslationTables(fhirMapping);
+	}
 
     protected Reference patientReferenceFrom(XDSMetaClass xdsObject) {
         var patientReference = new Reference(new IdType(Patient.class.getSimpleName(), xdsObject.getPatientId().getId()));
@@ -74,7 +77,7 @@ public abstract class AbstractXdsToFhirMapper {
     }
 
     protected Coding map(final Code code) {
-        return new Coding(toUrnCoded(fhirMapping.get("xds2FhirCodesystemMapping", code.getSchemeName()).toString()), code.getCode(), code.getDisplayName().getValue());
+        return new Coding(toUrnCoded(translations.get("xds2FhirCodesystemMapping", code.getSchemeName()).toString()), code.getCode(), code.getDisplayName().getValue());
     }
 
     protected Reference fromAuthor(final Author author) {
@@ -101,7 +101,7 @@ public class FhirToXdsDocumentMapper extends AbstractFhirToXdsMapper
         if (sourcePatientInfo.getResource() instanceof Patient sourcePatientFhirResource) {
             PatientInfo patientInfo = new PatientInfo();
             if (sourcePatientFhirResource.getGender() != null) {
-                patientInfo.setGender((String) fhirMapping.get(HL7V2FHIR_PATIENT_GENDER,
+                patientInfo.setGender((String) translations.get(HL7V2FHIR_PATIENT_GENDER,
                         sourcePatientFhirResource.getGender().toString().toLowerCase()));
             }
             sourcePatientFhirResource.getName().stream().forEach(name -> patientInfo.getNames().add(mapName(name)));
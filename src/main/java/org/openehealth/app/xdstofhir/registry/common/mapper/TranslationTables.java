@@ -0,0 +1,71 @@
+package org.openehealth.app.xdstofhir.registry.common.mapper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openehealth.ipf.commons.map.BidiMappingService;
+
+/**
+ * Immutable hash tables of the translations defined by a {@link BidiMappingService}, e.g. the code system
+ * and gender mappings of the *.map files. The explicit entries of all mappings are frozen once when the
+ * mapping service is assigned, so that the mapping hot path is a plain map lookup.
+ *
+ * Keys without explicit entry are translated by the mapping service itself, which applies the ELSE
+ * fallback of the mapping. These results are memoized per mapping up to a fixed number of keys.
+ */
+final class TranslationTables {
+    static final int MAX_FALLBACK_ENTRIES = 1024;
+
+    private final BidiMappingService mappingService;
+    private final Map<Object, Map<Object, Object>> frozen;
+    private final Map<Object, Map<Object, Object>> fallback = new ConcurrentHashMap<>();
+
+    TranslationTables(BidiMappingService mappingService) {
+        this.mappingService = mappingService;
+        var tables = new HashMap<Object, Map<Object, Object>>();
+        if (mappingService != null) {
+            for (var mappingKey : mappingService.mappingKeys()) {
+                var table = new HashMap<Object, Object>();
+                for (var key : mappingService.keys(mappingKey)) {
+                    // ELSE markers are no translatable keys, the fallback is resolved by the mapping service
+                    if (key instanceof String) {
+                        var value = mappingService.get(mappingKey, key);
+                        if (value != null) {
+                            table.put(key, value);
+                        }
+                    }
+                }
+                tables.put(mappingKey, Map.copyOf(table));
+            }
+        }
+        this.frozen = Map.copyOf(tables);
+    }
+
+    /**
+     * @param mappingKey - name of the mapping, e.g. xds2FhirCodesystemMapping
+     * @param key
+     * @return translated key, same result as {@link BidiMappingService#get(Object, Object)}.
+     */
+    Object get(Object mappingKey, Object key) {
+        if (key == null) {
+            return mappingService.get(mappingKey, key);
+        }
+        var table = frozen.get(mappingKey);
+        if (table != null) {
+            var value = table.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        var memo = fallback.computeIfAbsent(mappingKey, k -> new ConcurrentHashMap<>());
+        var value = memo.get(key);
+        if (value == null) {
+            value = mappingService.get(mappingKey, key);
+            if (value != null && memo.size() < MAX_FALLBACK_ENTRIES) {
+                memo.putIfAbsent(key, value);
+            }
+        }
+        return value;
+    }
+}
@@ -109,7 +109,7 @@ public class XdsToFhirDocumentMapper extends AbstractXdsToFhirMapper
 
     private Patient fromSourcePatientInfo(PatientInfo sourcePatientInfo) {
         var fhirSourcePatient = new Patient();
-        fhirSourcePatient.setGender(AdministrativeGender.fromCode((String) fhirMapping
+        fhirSourcePatient.setGender(AdministrativeGender.fromCode((String) translations
                 .get(HL7V2FHIR_PATIENT_ADMINISTRATIVE_GENDER, sourcePatientInfo.getGender())));
         sourcePatientInfo.getNames().forEachRemaining(name -> fhirSourcePatient.addName(fromName(name)));
         if (sourcePatientInfo.getDateOfBirth() != null) {
@@ -2,6 +2,7 @@ package org.openehealth.app.xdstofhir.registry.patientfeed;
 
 import static org.openehealth.app.xdstofhir.registry.common.MappingSupport.OID_URN;
 
+import java.util.List;
 import java.util.function.Function;
 
 import ca.uhn.fhir.rest.api.CacheControlDirective;
@@ -13,6 +14,9 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Patient;
+import org.openehealth.app.xdstofhir.registry.common.PatientIdCache;
+import org.openehealth.app.xdstofhir.registry.common.PatientIdCache.PatientIdentifier;
+import org.openehealth.app.xdstofhir.registry.query.QueryResultCache;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -22,6 +26,8 @@ public class PatientRegistrationProcessor implements Iti8Service {
 
     private final IGenericClient client;
     private final Function<Terser, Patient> patientMapper;
+    private final PatientIdCache patientIdCache;
+    private final QueryResultCache queryResultCache;
 
     @Override
     @SneakyThrows
@@ -34,11 +40,18 @@ public class PatientRegistrationProcessor implements Iti8Service {
                         patientSystemId,patientId))
                 .cacheControl(new CacheControlDirective().setNoCache(true).setNoStore(true))
                 .returnBundle(Bundle.class).execute();
+        var patientIdentifier = new PatientIdentifier(patientSystemId, patientId);
         if (patientSearch.getEntry().isEmpty()) {
             var patientCreated = client.create().resource(patientMapper.apply(terser)).execute();
             log.info("Create FHIR patient {}", patientCreated.getId());
+            // the server may not return the id (e.g. no Location header), it is resolved on first use then
+            if (patientCreated.getId() != null && patientCreated.getId().hasIdPart()) {
+                patientIdCache.put(patientIdentifier, patientCreated.getId().getIdPart());
+            }
+            queryResultCache.invalidate(List.of(patientIdentifier));
         } else {
             log.info("FHIR patient {} already present", patientSearch.getEntryFirstRep().getResource().getId());
+            patientIdCache.put(patientIdentifier, patientSearch.getEntryFirstRep().getResource().getIdPart());
         }
 
         return patientFeed.generateACK();
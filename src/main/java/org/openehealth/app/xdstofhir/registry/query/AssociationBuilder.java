@@ -0,0 +1,136 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import static org.openehealth.app.xdstofhir.registry.query.StoredQueryMapper.entryUuidFrom;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+import lombok.experimental.UtilityClass;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.DomainResource;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.ListResource;
+import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
+import org.openehealth.app.xdstofhir.registry.common.fhir.MhdSubmissionSet;
+import org.openehealth.ipf.commons.core.URN;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Association;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.AssociationLabel;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.AssociationType;
+
+/**
+ * Build XDS associations out of the FHIR references between query results.
+ *
+ * The referenced resources are indexed once per call by their versionless, unqualified resource id
+ * (e.g. DocumentReference/123) resp. by their entryUuid, so that each reference is resolved by a lookup.
+ */
+@UtilityClass
+public class AssociationBuilder {
+
+    /**
+     * Create HasMember associations between the lists (SubmissionSet or Folder) and the referenced resources.
+     */
+    public static List<Association> createAssociationsFrom(List<? extends ListResource> lists,
+            List<? extends DomainResource> fhirResource) {
+        var xdsAssocations = new ArrayList<Association>();
+        var resourceIndex = indexBy(fhirResource, resource -> normalizedReference(resource.getId()));
+        for (var list : lists) {
+            for (var entry : list.getEntry()) {
+                if (!entry.getItem().hasReference()) {
+                    continue;
+                }
+                for (var doc : resourceIndex.getOrDefault(normalizedReference(entry.getItem().getReference()),
+                        List.of())) {
+                    var targetId = entryUuidFrom(doc);
+                    var sourceId = entryUuidFrom(list);
+                    if (targetId != null && sourceId != null) {
+                        var assocEntryUuid = entry.getId() != null ? entry.getId()
+                                : new URN(UUID.randomUUID()).toString();
+                        var submissionAssociation = new Association(AssociationType.HAS_MEMBER,
+                                assocEntryUuid, sourceId, targetId);
+                        submissionAssociation.setLabel(AssociationLabel.ORIGINAL);
+                        xdsAssocations.add(submissionAssociation);
+                    }
+                }
+            }
+        }
+        return xdsAssocations;
+    }
+
+    /**
+     * Create the document to document associations (e.g. RPLC, XFRM) between the given documents.
+     */
+    public static List<Association> createAssociationsBetween(List<DocumentReference> fhirDocuments) {
+        var xdsAssocations = new ArrayList<Association>();
+        var documentIndex = indexBy(fhirDocuments, doc -> normalizedReference(doc.getId()));
+        for (var doc : fhirDocuments) {
+            for (var related : doc.getRelatesTo()) {
+                if (!related.getTarget().hasReference()) {
+                    continue;
+                }
+                for (var doc2 : documentIndex.getOrDefault(normalizedReference(related.getTarget().getReference()),
+                        List.of())) {
+                    var assocEntryUuid = related.getId() != null ? related.getId()
+                            : new URN(UUID.randomUUID()).toString();
+                    var type = MappingSupport.DOC_DOC_XDS_ASSOCIATIONS.get(related.getCode());
+                    var submissionAssociation = new Association(type,
+                            assocEntryUuid, entryUuidFrom(doc), entryUuidFrom(doc2));
+                    xdsAssocations.add(submissionAssociation);
+                }
+            }
+        }
+        return xdsAssocations;
+    }
+
+    /**
+     * Create the HasMember associations from the SubmissionSets to the given Folder to Document associations.
+     */
+    public static List<Association> createAssociationsBetween(List<MhdSubmissionSet> fhirSubmissions,
+            List<Association> fdDocAssoc) {
+        var xdsAssocations = new ArrayList<Association>();
+        var associationIndex = indexBy(fdDocAssoc, Association::getEntryUuid);
+        for (var list : fhirSubmissions) {
+            for (var entry : list.getEntry()) {
+                for (var assoc : associationIndex.getOrDefault(entry.getItem().getIdentifier().getValue(),
+                        List.of())) {
+                    var targetId = assoc.getEntryUuid();
+                    var sourceId = entryUuidFrom(list);
+                    if (targetId != null && sourceId != null) {
+                        var assocEntryUuid = entry.getId() != null ? entry.getId()
+                                : new URN(UUID.randomUUID()).toString();
+                        var submissionAssociation = new Association(AssociationType.HAS_MEMBER,
+                                assocEntryUuid, sourceId, targetId);
+                        submissionAssociation.setLabel(AssociationLabel.ORIGINAL);
+                        xdsAssocations.add(submissionAssociation);
+                    }
+                }
+            }
+        }
+        return xdsAssocations;
+    }
+
+    /**
+     * @param reference - relative or absolute resource reference, optional with version
+     * @return the reference in the form ResourceType/id, null if not present
+     */
+    static String normalizedReference(String reference) {
+        if (reference == null || reference.isBlank()) {
+            return null;
+        }
+        return new IdType(reference).toUnqualifiedVersionless().getValue();
+    }
+
+    private static <T> Map<String, List<T>> indexBy(List<? extends T> elements, Function<T, String> key) {
+        var index = new HashMap<String, List<T>>();
+        for (var element : elements) {
+            var elementKey = key.apply(element);
+            if (elementKey != null) {
+                index.computeIfAbsent(elementKey, k -> new ArrayList<>(1)).add(element);
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,146 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import ca.uhn.fhir.rest.gclient.IQuery;
+import ca.uhn.fhir.rest.gclient.StringClientParam;
+import org.hl7.fhir.r4.model.Bundle;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Author;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Hl7v2Based;
+
+/**
+ * In-memory evaluation of the authorPerson criteria of a stored query. The SQL LIKE patterns ("%" any
+ * characters, "_" a single character) are compiled once per query. Patterns without wildcards and patterns
+ * with a leading and/or trailing "%" only are evaluated without a regular expression.
+ *
+ * Optionally the criteria are pushed down to the FHIR server as a prefilter on the custom search parameter
+ * "author-name" (see profiles/SearchParameter-Author-Name.json). The in-memory evaluation stays in place,
+ * since the search parameter can only express a part of the pattern.
+ */
+final class AuthorPersonMatcher {
+    static final StringClientParam AUTHOR_NAME = new StringClientParam("author-name");
+    private static final int FAMILY_NAME_COMPONENT = 1;
+    private static final int GIVEN_NAME_COMPONENT = 2;
+
+    private final List<String> authorPersons;
+    private final List<Predicate<String>> criteria;
+
+    private AuthorPersonMatcher(List<String> authorPersons) {
+        this.authorPersons = authorPersons;
+        this.criteria = authorPersons.stream().map(AuthorPersonMatcher::compile).toList();
+    }
+
+    /**
+     * @param authorPersons - the authorPerson criteria of the query, null if not restricted
+     * @return matcher for the criteria
+     */
+    static AuthorPersonMatcher of(List<String> authorPersons) {
+        return new AuthorPersonMatcher(authorPersons != null ? authorPersons : List.of());
+    }
+
+    /**
+     * @param authorsToMatch - the authors of a document or submission set
+     * @return true, if every authorPerson criteria matches to one of the authors
+     */
+    boolean matches(List<Author> authorsToMatch) {
+        if (criteria.isEmpty())
+            return true;
+        var renderedPersons = new ArrayList<String>(authorsToMatch.size());
+        for (var author : authorsToMatch) {
+            var rendered = Hl7v2Based.render(author.getAuthorPerson());
+            if (rendered != null)
+                renderedPersons.add(rendered);
+        }
+        for (var criterion : criteria) {
+            if (renderedPersons.stream().noneMatch(criterion))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add a "author-name" prefilter for each criteria, that starts with a literal family or given name.
+     *
+     * @param fhirQuery - the document or submission set search
+     */
+    void pushdown(IQuery<Bundle> fhirQuery) {
+        authorPersons.stream().map(AuthorPersonMatcher::nameSearchPrefix).flatMap(Optional::stream)
+                .forEach(prefix -> fhirQuery.where(AUTHOR_NAME.matches().value(prefix)));
+    }
+
+    /**
+     * The FHIR string search matches the beginning of the name parts (case and accent insensitive). Therefore
+     * only the literal beginning of the pattern can be used, where the position of the XCN components is known.
+     *
+     * @param authorPerson - the authorPerson criteria
+     * @return start of the family or given name, that all matching authors have
+     */
+    static Optional<String> nameSearchPrefix(String authorPerson) {
+        var literalEnd = indexOfWildcard(authorPerson);
+        var components = authorPerson.substring(0, literalEnd).split("\\^", -1);
+        for (var component : List.of(FAMILY_NAME_COMPONENT, GIVEN_NAME_COMPONENT)) {
+            if (component < components.length) {
+                var name = components[component];
+                // subcomponents and hl7v2 escaping are not part of the FHIR name
+                var end = indexOfAny(name, '&', '\\');
+                if (end > 0)
+                    return Optional.of(name.substring(0, end));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Predicate<String> compile(String authorPerson) {
+        var wildcardIndex = indexOfWildcard(authorPerson);
+        if (wildcardIndex == authorPerson.length())
+            return authorPerson::equals;
+        var leading = authorPerson.startsWith("%");
+        var trailing = authorPerson.endsWith("%");
+        var literal = authorPerson.substring(leading ? 1 : 0,
+                Math.max(leading ? 1 : 0, authorPerson.length() - (trailing ? 1 : 0)));
+        if (indexOfWildcard(literal) == literal.length()) {
+            if (leading && trailing)
+                return rendered -> rendered.contains(literal);
+            if (trailing)
+                return rendered -> rendered.startsWith(literal);
+            if (leading)
+                return rendered -> rendered.endsWith(literal);
+        }
+        var pattern = Pattern.compile(toRegex(authorPerson));
+        return rendered -> pattern.matcher(rendered).matches();
+    }
+
+    private static String toRegex(String authorPerson) {
+        var regex = new StringBuilder();
+        var literalStart = 0;
+        for (int i = 0; i < authorPerson.length(); i++) {
+            var c = authorPerson.charAt(i);
+            if (c == '%' || c == '_') {
+                if (i > literalStart)
+                    regex.append(Pattern.quote(authorPerson.substring(literalStart, i)));
+                regex.append(c == '%' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < authorPerson.length())
+            regex.append(Pattern.quote(authorPerson.substring(literalStart)));
+        return regex.toString();
+    }
+
+    private static int indexOfWildcard(String value) {
+        return indexOfAny(value, '%', '_');
+    }
+
+    private static int indexOfAny(String value, char first, char second) {
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c == first || c == second)
+                return i;
+        }
+        return value.length();
+    }
+}
@@ -0,0 +1,105 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import static org.openehealth.app.xdstofhir.registry.query.StoredQueryMapper.assignDefaultVersioning;
+
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.DomainResource;
+import org.hl7.fhir.r4.model.ListResource;
+import org.hl7.fhir.r4.model.Reference;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.XDSMetaClass;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded cache of XDS metadata objects mapped from FHIR resources, keyed by the resource version and
+ * the version of the included subject Patient. A new version of either resource leads to a new mapping.
+ *
+ * The cached XDS objects are shared between queries. They are completed (default versioning) before they get
+ * cached and must be treated as read-only afterwards, the query responses only add them to their result lists.
+ * Resources without a versionId are always mapped.
+ *
+ * The key does not cover the {@link org.openehealth.app.xdstofhir.registry.common.RegistryConfiguration}, e.g. the
+ * repositoryUniqueId of a document is resolved from the repository endpoints when the document is mapped first.
+ * The cache is therefore disabled by default and must only be enabled with a static repository configuration.
+ *
+ * Hit and miss counts are exposed as cache metrics with name "mappedMetadataCache".
+ */
+@Component
+public class MappedMetadataCache {
+
+    private final Cache<MappingKey, XDSMetaClass> cache;
+
+    public MappedMetadataCache(@Value("${xds.query.mapping-cache.max-size:0}") long maxSize,
+            MeterRegistry meterRegistry) {
+        if (maxSize > 0) {
+            cache = Caffeine.newBuilder().maximumSize(maxSize).recordStats().build();
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "mappedMetadataCache");
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * @param resource - the FHIR resource
+     * @param mapper - mapping of the resource to XDS, may return null for resources that can not be mapped
+     * @return the mapped XDS object with default versioning, shared with other callers
+     */
+    @SuppressWarnings("unchecked")
+    public <R extends DomainResource, X extends XDSMetaClass> X map(R resource, Function<R, X> mapper) {
+        var key = cache != null ? MappingKey.of(resource) : null;
+        if (key == null) {
+            return withDefaultVersioning(mapper.apply(resource));
+        }
+        return (X) cache.get(key, k -> withDefaultVersioning(mapper.apply(resource)));
+    }
+
+    private static <X extends XDSMetaClass> X withDefaultVersioning(X xdsObject) {
+        if (xdsObject != null) {
+            assignDefaultVersioning().accept(xdsObject);
+        }
+        return xdsObject;
+    }
+
+    /**
+     * @param type - the resource type, incl. profile specific classes like MhdFolder
+     * @param resourceVersion - logical id and version of the resource
+     * @param subjectVersion - logical id and version of the included subject, empty if not included
+     */
+    private record MappingKey(Class<?> type, String resourceVersion, String subjectVersion) {
+        static MappingKey of(DomainResource resource) {
+            var resourceVersion = versionedId(resource);
+            if (resourceVersion == null) {
+                return null;
+            }
+            Reference subject = null;
+            if (resource instanceof DocumentReference doc) {
+                subject = doc.getSubject();
+            } else if (resource instanceof ListResource list) {
+                subject = list.getSubject();
+            }
+            var subjectResource = subject != null ? subject.getResource() : null;
+            var subjectVersion = subjectResource != null ? versionedId(subjectResource) : "";
+            if (subjectVersion == null) {
+                return null;
+            }
+            return new MappingKey(resource.getClass(), resourceVersion, subjectVersion);
+        }
+
+        private static String versionedId(IBaseResource resource) {
+            var id = resource.getIdElement();
+            var versionId = resource.getMeta().getVersionId() != null ? resource.getMeta().getVersionId()
+                    : id.getVersionIdPart();
+            if (id.getIdPart() == null || versionId == null) {
+                return null;
+            }
+            return id.getIdPart() + "/_history/" + versionId;
+        }
+    }
+}
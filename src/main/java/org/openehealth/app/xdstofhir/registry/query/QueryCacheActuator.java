@@ -0,0 +1,20 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import java.util.Map;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+@Component
+@Endpoint(id="querycache")
+@RequiredArgsConstructor
+public class QueryCacheActuator {
+    private final QueryResultCache queryResultCache;
+
+    @ReadOperation
+    public Map<String, Object> getStatistics() {
+        return queryResultCache.statistics();
+    }
+}
@@ -0,0 +1,84 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.SerializationUtils;
+import org.openehealth.app.xdstofhir.registry.common.Futures;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.QueryRegistry;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.QueryResponse;
+import org.springframework.stereotype.Component;
+
+/**
+ * Single flight execution of identical stored queries. A query arriving while the same query (same type,
+ * parameters and return type) is executed, does not start another FHIR search but waits for the running one.
+ * Each waiting caller receives its own copy of the response, a query without waiting callers is not copied.
+ *
+ * Only queries of the same generation (see {@link QueryResultCache.GenerationalExecution}) are coalesced, so
+ * that a query never receives the response of an execution started before a modification that was already
+ * acknowledged.
+ *
+ * The number of coalesced queries is exposed as counter "xds.query.coalesced".
+ */
+@Component
+public class QueryCoalescer {
+
+    private final ConcurrentHashMap<CoalescingKey, InFlightQuery> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalescedQueries;
+
+    public QueryCoalescer(MeterRegistry meterRegistry) {
+        coalescedQueries = Counter.builder("xds.query.coalesced")
+                .description("Stored queries answered by an identical query executed at the same time")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param query - the stored query
+     * @param generation - generation of the registry content at the arrival of the query
+     * @param execution - execute the query, if no identical query is running
+     * @return the response of the query
+     */
+    public QueryResponse execute(QueryRegistry query, long generation,
+            Function<QueryRegistry, QueryResponse> execution) {
+        var key = new CoalescingKey(QueryKey.of(query), generation);
+        var leader = new InFlightQuery();
+        var running = inFlight.compute(key, (k, current) -> current == null ? leader : current.join());
+        if (running != leader) {
+            coalescedQueries.increment();
+            return SerializationUtils.clone(Futures.await(running.response));
+        }
+        final QueryResponse response;
+        try {
+            response = execution.apply(query);
+        } catch (Throwable e) {
+            // also errors must be passed on, otherwise the waiting callers would block forever
+            leader.response.completeExceptionally(e);
+            throw e;
+        } finally {
+            // joining happens within compute, so the number of waiters is final after the removal
+            inFlight.remove(key);
+        }
+        if (leader.waiters.get() > 0) {
+            // waiting callers copy from a private snapshot, the response itself is handed out to the caller
+            leader.response.complete(SerializationUtils.clone(response));
+        }
+        return response;
+    }
+
+    private record CoalescingKey(QueryKey query, long generation) {
+    }
+
+    private static final class InFlightQuery {
+        private final CompletableFuture<QueryResponse> response = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        private InFlightQuery join() {
+            waiters.incrementAndGet();
+            return this;
+        }
+    }
+}
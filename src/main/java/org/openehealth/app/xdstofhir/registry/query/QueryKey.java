@@ -0,0 +1,19 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import org.openehealth.ipf.commons.ihe.xds.core.requests.QueryRegistry;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.query.Query;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.query.QueryReturnType;
+
+/**
+ * Normalized identity of a stored query. The IPF query classes compare all query parameters.
+ *
+ * @param type - the stored query type
+ * @param query - the query parameters
+ * @param returnType - LeafClass or ObjectRef
+ */
+record QueryKey(Class<? extends Query> type, Query query, QueryReturnType returnType) {
+    static QueryKey of(QueryRegistry queryRegistry) {
+        return new QueryKey(queryRegistry.getQuery().getClass(), queryRegistry.getQuery(),
+                queryRegistry.getReturnType());
+    }
+}
@@ -0,0 +1,150 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.commons.lang3.SerializationUtils;
+import org.openehealth.app.xdstofhir.registry.common.PatientIdCache.PatientIdentifier;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.QueryRegistry;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.query.PatientIdBasedStoredQuery;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.QueryResponse;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.Status;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Optional bounded cache of successful responses of patient based stored queries (e.g. FindDocuments).
+ *
+ * Entries expire after a configurable time. Register, remove and patient feed transactions invalidate all
+ * entries of the affected patients. A response computed while an invalidation happened is not cached,
+ * so that a query racing with a write can not put outdated content into the cache.
+ *
+ * Hit and miss counts are exposed as cache metrics with name "queryResultCache", invalidated entries
+ * as counter "xds.query.cache.invalidations".
+ */
+@Component
+public class QueryResultCache {
+
+    private final boolean enabled;
+    private final Cache<CacheKey, QueryResponse> cache;
+    private final Counter invalidations;
+    private final AtomicLong generation = new AtomicLong();
+
+    public QueryResultCache(@Value("${xds.query.cache.enabled:false}") boolean enabled,
+            @Value("${xds.query.cache.max-size:1000}") long maxSize,
+            @Value("${xds.query.cache.ttl:1m}") Duration ttl, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        cache = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl).recordStats().build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "queryResultCache");
+        invalidations = Counter.builder("xds.query.cache.invalidations")
+                .description("Cached stored query responses removed due to a modification of the patient")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param query - the stored query
+     * @param execution - execute the query on a cache miss
+     * @return the response of the query, a copy in case it was served from the cache
+     */
+    public QueryResponse execute(QueryRegistry query, Function<QueryRegistry, QueryResponse> execution) {
+        return execute(query, (q, generation) -> execution.apply(q));
+    }
+
+    /**
+     * @param query - the stored query
+     * @param execution - execute the query on a cache miss. The response must not be older than the given
+     *            generation, e.g. an execution shared with other queries must have started with this generation.
+     * @return the response of the query, a copy in case it was served from the cache
+     */
+    public QueryResponse execute(QueryRegistry query, GenerationalExecution execution) {
+        if (!enabled || !(query.getQuery() instanceof PatientIdBasedStoredQuery patientQuery)
+                || patientQuery.getPatientId() == null) {
+            return execution.execute(query, generation.get());
+        }
+        var key = new CacheKey(PatientIdentifier.of(patientQuery.getPatientId()), QueryKey.of(query));
+        var cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return SerializationUtils.clone(cached);
+        }
+        var generationBefore = generation.get();
+        var response = execution.execute(query, generationBefore);
+        if (Status.SUCCESS.equals(response.getStatus()) && generation.get() == generationBefore) {
+            cache.put(key, SerializationUtils.clone(response));
+            // an invalidation may have scanned the cache before the put
+            if (generation.get() != generationBefore) {
+                cache.invalidate(key);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * @return false, if responses are never cached
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Remove all cached responses of the given patients and increment the generation of the registry content (also
+     * if caching is disabled). To be called after a modification of the patients was committed, so that queries
+     * started with the same generation do not miss a modification acknowledged before.
+     *
+     * @param patients - identifiers of the modified patients
+     */
+    public void invalidate(Collection<PatientIdentifier> patients) {
+        if (patients.isEmpty()) {
+            return;
+        }
+        generation.incrementAndGet();
+        if (!enabled) {
+            return;
+        }
+        var patientSet = Set.copyOf(patients);
+        var keys = cache.asMap().keySet().stream().filter(key -> patientSet.contains(key.patient())).toList();
+        cache.invalidateAll(keys);
+        invalidations.increment(keys.size());
+    }
+
+    /**
+     * @return cache statistics, as exposed by the querycache actuator endpoint
+     */
+    public Map<String, Object> statistics() {
+        var stats = cache.stats();
+        var result = new LinkedHashMap<String, Object>();
+        result.put("enabled", enabled);
+        result.put("size", cache.estimatedSize());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRatio", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("invalidationCount", (long) invalidations.count());
+        return result;
+    }
+
+    /**
+     * Execution of a stored query, that reflects all modifications up to a generation.
+     */
+    @FunctionalInterface
+    public interface GenerationalExecution {
+        /**
+         * @param query - the stored query
+         * @param generation - generation of the registry content the response has to reflect
+         * @return the response of the query
+         */
+        QueryResponse execute(QueryRegistry query, long generation);
+    }
+
+    private record CacheKey(PatientIdentifier patient, QueryKey query) {
+    }
+}
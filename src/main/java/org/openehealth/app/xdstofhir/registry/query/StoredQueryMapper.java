@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.function.Consumer;
 
 import ca.uhn.fhir.rest.gclient.DateClientParam;
@@ -19,11 +20,14 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.ListResource;
 import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.codesystems.DocumentReferenceStatus;
 import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
+import org.openehealth.app.xdstofhir.registry.common.PatientIdCache;
+import org.openehealth.app.xdstofhir.registry.common.PatientIdCache.PatientIdentifier;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.AvailabilityStatus;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.Code;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.ReferenceId;
@@ -100,7 +104,7 @@ public class StoredQueryMapper {
         return searchIdentifiers;
     }
 
-    public static ICriterion<?> buildIdentifierQuery(GetByIdQuery query, TokenClientParam param) {
+    public static List<String> urnIdentifierList(GetByIdQuery query) {
         var searchIdentifiers = new ArrayList<String>();
         if (query.getUniqueIds() != null) {
             searchIdentifiers.addAll(query.getUniqueIds());
@@ -108,18 +112,31 @@ public class StoredQueryMapper {
         if (query.getUuids() != null) {
             searchIdentifiers.addAll(query.getUuids());
         }
-        return param.exactly().systemAndValues(URI_URN,
-                searchIdentifiers.stream().map(MappingSupport::toUrnCoded).toList());
+        return searchIdentifiers.stream().map(MappingSupport::toUrnCoded).toList();
     }
 
+    public static ICriterion<?> buildIdentifierQuery(GetByIdQuery query, TokenClientParam param) {
+        return param.exactly().systemAndValues(URI_URN, urnIdentifierList(query));
+    }
 
-    public static void mapPatientIdToQuery(PatientIdBasedStoredQuery query, IQuery<Bundle> fhirQuery) {
-        var patientId = query.getPatientId();
 
-        var identifier = DocumentReference.PATIENT
-                .hasChainedProperty("Patient", Patient.IDENTIFIER.exactly().systemAndIdentifier(
-                        OID_URN + patientId.getAssigningAuthority().getUniversalId(), patientId.getId()));
-        fhirQuery.where(identifier);
+    /**
+     * Restrict the search to the patient of the query. If the logical id of the patient is known from the cache,
+     * the patient is referenced directly, otherwise a chained search on the patient identifier is used.
+     */
+    public static void mapPatientIdToQuery(PatientIdBasedStoredQuery query, IQuery<Bundle> fhirQuery,
+            PatientIdCache patientIdCache) {
+        var patientId = query.getPatientId();
+        var logicalId = patientIdCache != null ? patientIdCache.get(PatientIdentifier.of(patientId))
+                : Optional.<String>empty();
+        if (logicalId.isPresent()) {
+            fhirQuery.where(DocumentReference.PATIENT.hasId(new IdType(Patient.class.getSimpleName(), logicalId.get())));
+        } else {
+            var identifier = DocumentReference.PATIENT
+                    .hasChainedProperty("Patient", Patient.IDENTIFIER.exactly().systemAndIdentifier(
+                            OID_URN + patientId.getAssigningAuthority().getUniversalId(), patientId.getId()));
+            fhirQuery.where(identifier);
+        }
     }
 
     public static String asSearchToken(ReferenceId id) {
@@ -1,11 +1,14 @@
 package org.openehealth.app.xdstofhir.registry.query;
 
+import java.util.concurrent.ExecutorService;
 import java.util.function.Function;
 
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.hl7.fhir.r4.model.DocumentReference;
+import org.openehealth.app.xdstofhir.registry.common.IdentifierSearchTransport;
+import org.openehealth.app.xdstofhir.registry.common.PatientIdCache;
 import org.openehealth.app.xdstofhir.registry.common.fhir.MhdFolder;
 import org.openehealth.app.xdstofhir.registry.common.fhir.MhdSubmissionSet;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
@@ -23,13 +26,51 @@ public class StoredQueryProcessor implements Iti18Service {
     @Value("${xds.query.max.results:1000}")
     @Getter
     private int maxResultCount;
+    @Value("${xds.query.limit.pushdown:false}")
+    @Getter
+    private boolean maxResultPushdown;
+    @Value("${xds.query.limit.preflight:false}")
+    @Getter
+    private boolean maxResultPreflight;
+    @Value("${xds.query.prefetch.depth:0}")
+    @Getter
+    private int prefetchDepth;
+    @Value("${xds.query.author.pushdown:false}")
+    @Getter
+    private boolean authorPushdown;
+    @Value("${xds.query.mapping.batch-size:1}")
+    @Getter
+    private int mappingBatchSize;
+    @Value("${xds.query.coalescing.enabled:false}")
+    private boolean coalescingEnabled;
     private final IGenericClient client;
+    @Getter
+    private final ExecutorService fhirQueryExecutor;
+    @Getter
+    private final PatientIdCache patientIdCache;
+    @Getter
+    private final IdentifierSearchTransport identifierSearchTransport;
     private final Function<DocumentReference, DocumentEntry> documentMapper;
     private final Function<MhdSubmissionSet, SubmissionSet> submissionMapper;
     private final Function<MhdFolder, Folder> folderMapper;
+    private final QueryCoalescer queryCoalescer;
+    private final QueryResultCache queryResultCache;
+    private final MappedMetadataCache mappedMetadataCache;
 
     @Override
     public QueryResponse processQuery(QueryRegistry query) {
+        return queryResultCache.execute(query, this::executeCoalesced);
+    }
+
+    private QueryResponse executeCoalesced(QueryRegistry query, long generation) {
+        if (coalescingEnabled) {
+            // the cache stores the response for the generation it handed out, so the same generation is coalesced
+            return queryCoalescer.execute(query, generation, this::executeQuery);
+        }
+        return executeQuery(query);
+    }
+
+    private QueryResponse executeQuery(QueryRegistry query) {
         var visitor = new StoredQueryVistorImpl(client, this, query.getReturnType().equals(QueryReturnType.OBJECT_REF));
         query.getQuery().accept(visitor);
 
@@ -37,15 +78,15 @@ public class StoredQueryProcessor implements Iti18Service {
     }
 
     public DocumentEntry apply(DocumentReference t) {
-        return documentMapper.apply(t);
+        return mappedMetadataCache.map(t, documentMapper);
     }
 
     public SubmissionSet apply(MhdSubmissionSet t) {
-        return submissionMapper.apply(t);
+        return mappedMetadataCache.map(t, submissionMapper);
     }
 
     public Folder apply(MhdFolder t) {
-        return folderMapper.apply(t);
+        return mappedMetadataCache.map(t, folderMapper);
     }
 
 
@@ -2,7 +2,8 @@ package org.openehealth.app.xdstofhir.registry.query;
 
 import static java.util.Collections.singletonList;
 import static org.openehealth.app.xdstofhir.registry.common.MappingSupport.URI_URN;
-import static org.openehealth.app.xdstofhir.registry.query.StoredQueryMapper.assignDefaultVersioning;
+import static org.openehealth.app.xdstofhir.registry.query.AssociationBuilder.createAssociationsBetween;
+import static org.openehealth.app.xdstofhir.registry.query.AssociationBuilder.createAssociationsFrom;
 import static org.openehealth.app.xdstofhir.registry.query.StoredQueryMapper.buildIdentifierQuery;
 import static org.openehealth.app.xdstofhir.registry.query.StoredQueryMapper.entryUuidFrom;
 import static org.openehealth.app.xdstofhir.registry.query.StoredQueryMapper.map;
@@ -12,13 +13,17 @@ import static org.openehealth.app.xdstofhir.registry.query.StoredQueryMapper.urn
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 import java.util.stream.StreamSupport;
 
+import ca.uhn.fhir.rest.api.SummaryEnum;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.rest.gclient.IQuery;
 import ca.uhn.fhir.rest.gclient.TokenClientParam;
@@ -29,19 +34,20 @@ import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.DocumentReference;
 import org.hl7.fhir.r4.model.DomainResource;
 import org.hl7.fhir.r4.model.ListResource;
+import org.openehealth.app.xdstofhir.registry.common.ChunkedFhirResultIterator;
+import org.openehealth.app.xdstofhir.registry.common.Futures;
+import org.openehealth.app.xdstofhir.registry.common.IdentifierSearchTransport;
 import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
 import org.openehealth.app.xdstofhir.registry.common.PagingFhirResultIterator;
 import org.openehealth.app.xdstofhir.registry.common.fhir.MhdFolder;
 import org.openehealth.app.xdstofhir.registry.common.fhir.MhdSubmissionSet;
 import org.openehealth.ipf.commons.core.URN;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.Association;
-import org.openehealth.ipf.commons.ihe.xds.core.metadata.AssociationLabel;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.AssociationType;
-import org.openehealth.ipf.commons.ihe.xds.core.metadata.Author;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
-import org.openehealth.ipf.commons.ihe.xds.core.metadata.Hl7v2Based;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.ObjectReference;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.SubmissionSet;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.XDSMetaClass;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.query.FindDocumentsByReferenceIdQuery;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.query.FindDocumentsQuery;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.query.FindFoldersQuery;
@@ -76,6 +82,11 @@ public class StoredQueryVistorImpl extends AbstractStoredQueryVisitor {
      * https://github.com/hapifhir/hapi-fhir/issues/3761
      */
     private static final String HAS_LIST_ITEM_IDENTIFIER = "_has:List:item:identifier";
+    /*
+     * Elements required to build ObjectRef responses incl. associations
+     */
+    private static final String[] DOCUMENT_REFERENCE_ELEMENTS = {"identifier", "relatesTo"};
+    private static final String[] LIST_REFERENCE_ELEMENTS = {"identifier", "entry"};
 
 
     private final IGenericClient client;
@@ -88,24 +99,33 @@ public class StoredQueryVistorImpl extends AbstractStoredQueryVisitor {
     @Override
     public void visit(FindDocumentsQuery query) {
         IQuery<Bundle> documentFhirQuery = prepareQuery(query);
-        mapDocuments(buildResultForDocuments(documentFhirQuery), doc -> authorMatcher(query.getAuthorPersons(), doc.getAuthors()));
+        if (isEmpty(query.getAuthorPersons())) {
+            if (!exceedsMaxResultCount(List.of(documentFhirQuery))) {
+                mapDocuments(buildResultForDocuments(documentFhirQuery));
+            }
+        } else {
+            var authorMatcher = authorMatcher(query.getAuthorPersons(), documentFhirQuery);
+            mapDocuments(buildResultForDocuments(documentFhirQuery), doc -> authorMatcher.matches(doc.getAuthors()));
+        }
     }
 
     @Override
     public void visit(GetDocumentsQuery query) {
-        var documentFhirQuery = initDocumentQuery();
-        var identifier = buildIdentifierQuery(query, DocumentReference.IDENTIFIER);
-        documentFhirQuery.where(identifier);
-        mapDocuments(buildResultForDocuments(documentFhirQuery));
+        mapDocuments(buildResultByIdentifier(urnIdentifierList(query), identifiers -> initDocumentQuery()
+                .where(DocumentReference.IDENTIFIER.exactly().systemAndValues(URI_URN, identifiers)),
+                DocumentReference.class));
     }
 
 
     @Override
     public void visit(FindFoldersQuery query) {
         var folderFhirQuery = initFolderQuery();
-        mapPatientIdToQuery(query, folderFhirQuery);
+        mapPatientIdToQuery(query, folderFhirQuery, queryProcessor.getPatientIdCache());
         map(query.getLastUpdateTime(), ListResource.DATE, folderFhirQuery);
         mapStatus(query.getStatus(),ListResource.STATUS, folderFhirQuery);
+        if (exceedsMaxResultCount(List.of(folderFhirQuery))) {
+            return;
+        }
         mapFolders(buildResultForFolder(folderFhirQuery));
     }
 
@@ -115,21 +135,25 @@ public class StoredQueryVistorImpl extends AbstractStoredQueryVisitor {
         var searchIdentifiers = query.getUuids().stream().map(MappingSupport::toUrnCoded).toList();
         submissionSetfhirQuery.where(ListResource.ITEM. hasChainedProperty("DocumentReference",
                 new TokenClientParam("identifier").exactly().systemAndValues(URI_URN, searchIdentifiers)));
-        var mapSubmissionSets = mapSubmissionSets(buildResultForSubmissionSet(submissionSetfhirQuery));
-        submissionSetfhirQuery = initSubmissionSetQuery();
-        submissionSetfhirQuery.where(ListResource.ITEM. hasChainedProperty("List",
+        var docSubmissionSetResult = executeAsync(submissionSetfhirQuery);
+        var listSubmissionSetfhirQuery = initSubmissionSetQuery();
+        listSubmissionSetfhirQuery.where(ListResource.ITEM. hasChainedProperty("List",
                 new TokenClientParam("identifier").exactly().systemAndValues(URI_URN, searchIdentifiers)));
-        mapSubmissionSets.addAll(mapSubmissionSets(buildResultForSubmissionSet(submissionSetfhirQuery)));
+        var listSubmissionSetResult = executeAsync(listSubmissionSetfhirQuery);
 
         var documentFhirQuery = initDocumentQuery();
         documentFhirQuery.where(DocumentReference.IDENTIFIER.exactly().systemAndValues(URI_URN, searchIdentifiers));
+        var documentResult = executeAsync(documentFhirQuery);
         var folderFhirQuery = initFolderQuery();
         folderFhirQuery.where(DocumentReference.IDENTIFIER.exactly().systemAndValues(URI_URN, searchIdentifiers));
+        var folderResult = executeAsync(folderFhirQuery);
 
+        var mapSubmissionSets = mapSubmissionSets(buildResultForSubmissionSet(Futures.await(docSubmissionSetResult)));
+        mapSubmissionSets.addAll(mapSubmissionSets(buildResultForSubmissionSet(Futures.await(listSubmissionSetResult))));
         mapAssociations(createAssociationsFrom(mapSubmissionSets, StreamSupport
-                .stream(buildResultForDocuments(documentFhirQuery).spliterator(), false).toList()));
+                .stream(buildResultForDocuments(Futures.await(documentResult)).spliterator(), false).toList()));
         mapAssociations(createAssociationsFrom(mapSubmissionSets, StreamSupport
-                .stream(buildResultForFolder(folderFhirQuery).spliterator(), false).toList()));
+                .stream(buildResultForFolder(Futures.await(folderResult)).spliterator(), false).toList()));
     }
 
 
@@ -147,9 +171,13 @@ public class StoredQueryVistorImpl extends AbstractStoredQueryVisitor {
         documentFhirQuery.whereMap(reverseSearchCriteria);
         folderFhirQuery.whereMap(reverseSearchCriteria);
 
-        var fhirDocuments = mapDocuments(buildResultForDocuments(documentFhirQuery));
-        var fhirFolder = mapFolders(buildResultForFolder(folderFhirQuery));
-        var fhirSubmissions = mapSubmissionSets(buildResultForSubmissionSet(submissionSetfhirQuery));
+        var documentResult = executeAsync(documentFhirQuery);
+        var folderResult = executeAsync(folderFhirQuery);
+        var submissionSetResult = executeAsync(submissionSetfhirQuery);
+
+        var fhirDocuments = mapDocuments(buildResultForDocuments(Futures.await(documentResult)));
+        var fhirFolder = mapFolders(buildResultForFolder(Futures.await(folderResult)));
+        var fhirSubmissions = mapSubmissionSets(buildResultForSubmissionSet(Futures.await(submissionSetResult)));
         mapAssociations(createAssociationsFrom(fhirSubmissions, fhirDocuments));
         mapAssociations(createAssociationsFrom(fhirSubmissions, fhirFolder));
         var fdDocAssoc = createAssociationsFrom(fhirFolder, fhirDocuments);
@@ -214,17 +242,21 @@ public class StoredQueryVistorImpl extends AbstractStoredQueryVisitor {
         var documentFhirQuery = initDocumentQuery();
         var identifier = buildIdentifierQuery(query, DocumentReference.IDENTIFIER);
         documentFhirQuery.where(identifier);
-        var fhirDocuments = mapDocuments(buildResultForDocuments(documentFhirQuery));
+        var documentResult = executeAsync(documentFhirQuery);
 
         var folderFhirQuery = initFolderQuery();
         folderFhirQuery.where(ListResource.ITEM.hasChainedProperty("DocumentReference", identifier));
-        List<MhdFolder> folders = new ArrayList<>();
-        buildResultForFolder(folderFhirQuery).iterator().forEachRemaining(folders::add);
+        var folderResult = executeAsync(folderFhirQuery);
 
         var submissionSetfhirQuery = initSubmissionSetQuery();
         submissionSetfhirQuery.where(ListResource.ITEM.hasChainedProperty("DocumentReference", identifier));
+        var submissionSetResult = executeAsync(submissionSetfhirQuery);
+
+        var fhirDocuments = mapDocuments(buildResultForDocuments(Futures.await(documentResult)));
+        List<MhdFolder> folders = new ArrayList<>();
+        buildResultForFolder(Futures.await(folderResult)).iterator().forEachRemaining(folders::add);
         List<MhdSubmissionSet> submissionSets = new ArrayList<>();
-        buildResultForSubmissionSet(submissionSetfhirQuery).iterator().forEachRemaining(submissionSets::add);
+        buildResultForSubmissionSet(Futures.await(submissionSetResult)).iterator().forEachRemaining(submissionSets::add);
 
         mapAssociations(createAssociationsFrom(folders, fhirDocuments));
         mapAssociations(createAssociationsFrom(submissionSets, fhirDocuments));
@@ -235,23 +267,26 @@ public class StoredQueryVistorImpl extends AbstractStoredQueryVisitor {
     public void visit(GetAssociationsQuery query) {
         var xdsAssocations = new ArrayList<Association>();
 
-        var documentFhirQuery = initDocumentQuery();
+        var documentFhirQuery = initDocumentQuery(false);
         documentFhirQuery.include(DocumentReference.INCLUDE_RELATESTO);
         documentFhirQuery.revInclude(ListResource.INCLUDE_ITEM);
         documentFhirQuery.where(DocumentReference.IDENTIFIER.exactly().systemAndValues(URI_URN,
                 query.getUuids()));
+        withTransport(documentFhirQuery, query.getUuids().size());
         xdsAssocations.addAll(collectAssociationsOfDocument(documentFhirQuery));
 
-        var folderFhirQuery = initFolderQuery();
+        var folderFhirQuery = initFolderQuery(false);
         folderFhirQuery.include(ListResource.INCLUDE_ITEM);
         folderFhirQuery.where(ListResource.IDENTIFIER.exactly().systemAndValues(URI_URN,
                 query.getUuids()));
+        withTransport(folderFhirQuery, query.getUuids().size());
         xdsAssocations.addAll(collectAssociationsOfFolders(folderFhirQuery));
 
-        var submissionSetfhirQuery = initSubmissionSetQuery();
+        var submissionSetfhirQuery = initSubmissionSetQuery(false);
         submissionSetfhirQuery.include(ListResource.INCLUDE_ITEM);
         submissionSetfhirQuery.where(ListResource.IDENTIFIER.exactly().systemAndValues(URI_URN,
                 query.getUuids()));
+        withTransport(submissionSetfhirQuery, query.getUuids().size());
         xdsAssocations.addAll(collectAssociationsOfSubmissionSet(submissionSetfhirQuery));
 
         mapAssociations(xdsAssocations);
@@ -263,15 +298,21 @@ public class StoredQueryVistorImpl extends AbstractStoredQueryVisitor {
         var documentFhirQuery = initDocumentQuery();
         var submissionSetfhirQuery = initSubmissionSetQuery();
         var folderFhirQuery = initFolderQuery();
-        mapPatientIdToQuery(query, documentFhirQuery);
+        mapPatientIdToQuery(query, documentFhirQuery, queryProcessor.getPatientIdCache());
         mapStatus(query.getStatusDocuments(),DocumentReference.STATUS, documentFhirQuery);
-        mapPatientIdToQuery(query, submissionSetfhirQuery);
+        mapPatientIdToQuery(query, submissionSetfhirQuery, queryProcessor.getPatientIdCache());
         mapStatus(query.getStatusSubmissionSets(),ListResource.STATUS, submissionSetfhirQuery);
-        mapPatientIdToQuery(query, folderFhirQuery);
+        mapPatientIdToQuery(query, folderFhirQuery, queryProcessor.getPatientIdCache());
         mapStatus(query.getStatusFolders(),ListResource.STATUS, folderFhirQuery);
-        var fhirDocuments = mapDocuments(buildResultForDocuments(documentFhirQuery));
-        var fhirSubmissions = mapSubmissionSets(buildResultForSubmissionSet(submissionSetfhirQuery));
-        var fhirFolder = mapFolders(buildResultForFolder(folderFhirQuery));
+        if (exceedsMaxResultCount(List.of(documentFhirQuery, submissionSetfhirQuery, folderFhirQuery))) {
+            return;
+        }
+        var documentResult = executeAsync(documentFhirQuery);
+        var submissionSetResult = executeAsync(submissionSetfhirQuery);
+        var folderResult = executeAsync(folderFhirQuery);
+        var fhirDocuments = mapDocuments(buildResultForDocuments(Futures.await(documentResult)));
+        var fhirSubmissions = mapSubmissionSets(buildResultForSubmissionSet(Futures.await(submissionSetResult)));
+        var fhirFolder = mapFolders(buildResultForFolder(Futures.await(folderResult)));
         mapAssociations(createAssociationsFrom(fhirSubmissions, fhirDocuments));
         mapAssociations(createAssociationsFrom(fhirSubmissions, fhirFolder));
         var fdDocAssoc = createAssociationsFrom(fhirFolder, fhirDocuments);
@@ -282,14 +323,21 @@ public class StoredQueryVistorImpl extends AbstractStoredQueryVisitor {
 
     @Override
     public void visit(FindSubmissionSetsQuery query) {
-        var submissionSetfhirQuery = initSubmissionSetQuery();
-        mapPatientIdToQuery(query, submissionSetfhirQuery);
+        var submissionSetfhirQuery = initSubmissionSetQuery(isObjectRefResult && query.getAuthorPerson() == null);
+        mapPatientIdToQuery(query, submissionSetfhirQuery, queryProcessor.getPatientIdCache());
         map(query.getSubmissionTime(), ListResource.DATE, submissionSetfhirQuery);
         mapStatus(query.getStatus(),ListResource.STATUS, submissionSetfhirQuery);
         if (query.getSourceIds() != null && !query.getSourceIds().isEmpty())
             submissionSetfhirQuery.where(new TokenClientParam("sourceId").exactly().codes(query.getSourceIds()));
-        Predicate<SubmissionSet> authorMatch = query.getAuthorPerson() != null ? sub -> authorMatcher(singletonList(query.getAuthorPerson()), sub.getAuthors()) : sub -> true;
-        mapSubmissionSets(buildResultForSubmissionSet(submissionSetfhirQuery), authorMatch);
+        if (query.getAuthorPerson() == null) {
+            if (!exceedsMaxResultCount(List.of(submissionSetfhirQuery))) {
+                mapSubmissionSets(buildResultForSubmissionSet(submissionSetfhirQuery));
+            }
+        } else {
+            var authorMatcher = authorMatcher(singletonList(query.getAuthorPerson()), submissionSetfhirQuery);
+            mapSubmissionSets(buildResultForSubmissionSet(submissionSetfhirQuery),
+                    sub -> authorMatcher.matches(sub.getAuthors()));
+        }
     }
 
     @Override
@@ -305,26 +353,131 @@ public class StoredQueryVistorImpl extends AbstractStoredQueryVisitor {
                 documentFhirQuery.where(new TokenClientParam("related:identifier").exactly().codes(searchToken));
             }
         }
-        mapDocuments(buildResultForDocuments(documentFhirQuery), doc -> authorMatcher(query.getAuthorPersons(), doc.getAuthors()));
+        if (isEmpty(query.getAuthorPersons())) {
+            if (!exceedsMaxResultCount(List.of(documentFhirQuery))) {
+                mapDocuments(buildResultForDocuments(documentFhirQuery));
+            }
+        } else {
+            var authorMatcher = authorMatcher(query.getAuthorPersons(), documentFhirQuery);
+            mapDocuments(buildResultForDocuments(documentFhirQuery), doc -> authorMatcher.matches(doc.getAuthors()));
+        }
     }
 
 
     private Iterable<MhdFolder> buildResultForFolder(IQuery<Bundle> folderFhirQuery) {
-        return () -> new PagingFhirResultIterator<MhdFolder>(folderFhirQuery.execute(), MhdFolder.class, client);
+        return () -> new PagingFhirResultIterator<MhdFolder>(withResultLimit(folderFhirQuery).execute(),
+                MhdFolder.class, client, queryProcessor.getPrefetchDepth(), queryProcessor.getFhirQueryExecutor());
+    }
+
+    private Iterable<MhdFolder> buildResultForFolder(Bundle folderSearchResult) {
+        return () -> new PagingFhirResultIterator<MhdFolder>(folderSearchResult, MhdFolder.class, client,
+                queryProcessor.getPrefetchDepth(), queryProcessor.getFhirQueryExecutor());
     }
 
     private Iterable<DocumentReference> buildResultForDocuments(Bundle documentSearchResult) {
         return () -> new PagingFhirResultIterator<DocumentReference>(documentSearchResult,
-                DocumentReference.class, client);
+                DocumentReference.class, client, queryProcessor.getPrefetchDepth(),
+                queryProcessor.getFhirQueryExecutor());
     }
 
     private Iterable<DocumentReference> buildResultForDocuments(IQuery<Bundle> documentFhirQuery) {
-        return buildResultForDocuments(documentFhirQuery.execute());
+        return buildResultForDocuments(withResultLimit(documentFhirQuery).execute());
     }
 
     private Iterable<MhdSubmissionSet> buildResultForSubmissionSet(IQuery<Bundle> submissionSetfhirQuery) {
-        return () -> new PagingFhirResultIterator<MhdSubmissionSet>(submissionSetfhirQuery.execute(),
-                MhdSubmissionSet.class, client);
+        return buildResultForSubmissionSet(withResultLimit(submissionSetfhirQuery).execute());
+    }
+
+    private Iterable<MhdSubmissionSet> buildResultForSubmissionSet(Bundle submissionSetSearchResult) {
+        return () -> new PagingFhirResultIterator<MhdSubmissionSet>(submissionSetSearchResult,
+                MhdSubmissionSet.class, client, queryProcessor.getPrefetchDepth(),
+                queryProcessor.getFhirQueryExecutor());
+    }
+
+    /**
+     * Search by a list of identifiers. Depending on the number of identifiers, the search is sent as POST
+     * and split into concurrent searches, see {@link IdentifierSearchTransport}.
+     *
+     * @param identifiers - urn coded identifiers
+     * @param searchFactory - create the search for a chunk of identifiers
+     * @param resultTypeClass - resource type of the result
+     * @return the merged result
+     */
+    private <T extends DomainResource> Iterable<T> buildResultByIdentifier(List<String> identifiers,
+            Function<List<String>, IQuery<Bundle>> searchFactory, Class<T> resultTypeClass) {
+        var transport = queryProcessor.getIdentifierSearchTransport();
+        if (transport == null) {
+            return () -> new PagingFhirResultIterator<T>(withResultLimit(searchFactory.apply(identifiers)).execute(),
+                    resultTypeClass, client, queryProcessor.getPrefetchDepth(), queryProcessor.getFhirQueryExecutor());
+        }
+        return () -> transport.search(client, identifiers, chunk -> withResultLimit(searchFactory.apply(chunk)),
+                resultTypeClass);
+    }
+
+    private void withTransport(IQuery<Bundle> fhirQuery, int identifierCount) {
+        var transport = queryProcessor.getIdentifierSearchTransport();
+        if (transport != null) {
+            transport.withTransport(fhirQuery, identifierCount);
+        }
+    }
+
+    /**
+     * Start the search for the first result page on the query executor, so that independent searches of
+     * a stored query are executed concurrently. Without an executor the search runs synchronously.
+     *
+     * @param fhirQuery - the search to execute
+     * @return the pending first result page
+     */
+    private CompletableFuture<Bundle> executeAsync(IQuery<Bundle> fhirQuery) {
+        Executor executor = queryProcessor.getFhirQueryExecutor();
+        var limitedQuery = withResultLimit(fhirQuery);
+        return CompletableFuture.supplyAsync(limitedQuery::execute, executor != null ? executor : Runnable::run);
+    }
+
+    /**
+     * Limit the page size of the search to the remaining result budget, if enabled. The maximum result
+     * evaluation accepts one resource beyond the budget and needs another one to detect the overflow,
+     * so two more are requested to avoid loading a further page.
+     *
+     * @param fhirQuery - the search to limit
+     * @return the given search
+     */
+    private IQuery<Bundle> withResultLimit(IQuery<Bundle> fhirQuery) {
+        if (queryProcessor.isMaxResultPushdown()) {
+            fhirQuery.count(queryProcessor.getMaxResultCount() - currentResourceCount() + 2);
+        }
+        return fhirQuery;
+    }
+
+    /**
+     * Ask the FHIR server for the number of matching resources (_summary=count) before the actual
+     * search, if enabled. Criteria evaluated in memory (e.g. authorPerson) are not part of the FHIR
+     * search, so the preflight must not be used for queries with those criteria.
+     *
+     * ObjectRef responses are not limited by the maximum result count (see {@link #currentResourceCount()}),
+     * so the preflight is skipped for them as well.
+     *
+     * @param fhirQueries - the searches contributing to the result
+     * @return true, if the searches will exceed the maximum result count. The response is marked accordingly.
+     */
+    private boolean exceedsMaxResultCount(List<IQuery<Bundle>> fhirQueries) {
+        if (!queryProcessor.isMaxResultPreflight() || isObjectRefResult) {
+            return false;
+        }
+        int total = 0;
+        for (var fhirQuery : fhirQueries) {
+            var countResult = fhirQuery.summaryMode(SummaryEnum.COUNT).execute();
+            fhirQuery.summaryMode(null);
+            if (!countResult.hasTotal()) {
+                return false;
+            }
+            total += countResult.getTotal();
+        }
+        if (total > queryProcessor.getMaxResultCount()) {
+            tooManyResults();
+            return true;
+        }
+        return false;
     }
 
     private List<Association> collectAssociationsOfSubmissionSet(
@@ -388,8 +541,8 @@ public class StoredQueryVistorImpl extends AbstractStoredQueryVisitor {
     }
 
     private IQuery<Bundle> prepareQuery(FindDocumentsQuery query) {
-        var documentFhirQuery = initDocumentQuery();
-        mapPatientIdToQuery(query, documentFhirQuery);
+        var documentFhirQuery = initDocumentQuery(isObjectRefResult && isEmpty(query.getAuthorPersons()));
+        mapPatientIdToQuery(query, documentFhirQuery, queryProcessor.getPatientIdCache());
 
         map(query.getClassCodes(), DocumentReference.CATEGORY, documentFhirQuery);
         map(query.getTypeCodes(),DocumentReference.TYPE, documentFhirQuery);
@@ -407,115 +560,54 @@ public class StoredQueryVistorImpl extends AbstractStoredQueryVisitor {
 
 
     private IQuery<Bundle> initSubmissionSetQuery() {
-        return client.search().forResource(MhdSubmissionSet.class)
+        return initSubmissionSetQuery(isObjectRefResult);
+    }
+
+    private IQuery<Bundle> initSubmissionSetQuery(boolean identifierOnly) {
+        var submissionSetfhirQuery = client.search().forResource(MhdSubmissionSet.class)
                 .withProfile(MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE)
                 .where(ListResource.CODE.exactly()
                         .codings(MhdSubmissionSet.SUBMISSIONSET_CODEING.getCodingFirstRep()))
-                .include(ListResource.INCLUDE_SUBJECT)
                 .returnBundle(Bundle.class);
+        return identifierOnly ? submissionSetfhirQuery.elementsSubset(LIST_REFERENCE_ELEMENTS)
+                : submissionSetfhirQuery.include(ListResource.INCLUDE_SUBJECT);
     }
 
     private IQuery<Bundle> initFolderQuery() {
-        return client.search().forResource(MhdFolder.class)
+        return initFolderQuery(isObjectRefResult);
+    }
+
+    private IQuery<Bundle> initFolderQuery(boolean identifierOnly) {
+        var folderFhirQuery = client.search().forResource(MhdFolder.class)
                 .withProfile(MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE)
                 .where(ListResource.CODE.exactly()
                         .codings(MhdFolder.FOLDER_CODEING.getCodingFirstRep()))
-                .include(ListResource.INCLUDE_SUBJECT)
                 .returnBundle(Bundle.class);
+        return identifierOnly ? folderFhirQuery.elementsSubset(LIST_REFERENCE_ELEMENTS)
+                : folderFhirQuery.include(ListResource.INCLUDE_SUBJECT);
     }
 
     private IQuery<Bundle> initDocumentQuery() {
-        return client.search().forResource(DocumentReference.class)
-                .withProfile(MappingSupport.MHD_COMPREHENSIVE_PROFILE)
-                .include(DocumentReference.INCLUDE_SUBJECT)
-                .returnBundle(Bundle.class);
+        return initDocumentQuery(isObjectRefResult);
     }
 
-    private List<Association> createAssociationsBetween(List<DocumentReference> fhirDocuments) {
-        var xdsAssocations = new ArrayList<Association>();
-        for (var doc : fhirDocuments) {
-            for (var related : doc.getRelatesTo()) {
-                for (var doc2 : fhirDocuments) {
-                    if (related.getTarget().hasReference() && doc2.getId().contains(related.getTarget().getReference())) {
-                        var assocEntryUuid = related.getId() != null ? related.getId()
-                                : new URN(UUID.randomUUID()).toString();
-                        var type = MappingSupport.DOC_DOC_XDS_ASSOCIATIONS.get(related.getCode());
-                        var submissionAssociation = new Association(type,
-                                assocEntryUuid, entryUuidFrom(doc), entryUuidFrom(doc2));
-                        xdsAssocations.add(submissionAssociation);
-                    }
-                }
-            }
-        }
-        return xdsAssocations;
-    }
-
-    private List<Association> createAssociationsBetween(List<MhdSubmissionSet> fhirSubmissions,
-            List<Association> fdDocAssoc) {
-        var xdsAssocations = new ArrayList<Association>();
-        for (var list : fhirSubmissions) {
-            for (var entry : list.getEntry()) {
-                for (var assoc : fdDocAssoc) {
-                    if (assoc.getEntryUuid().equals(entry.getItem().getIdentifier().getValue())) {
-                        var targetId = assoc.getEntryUuid();
-                        var sourceId = entryUuidFrom(list);
-                        if (targetId != null && sourceId != null) {
-                            var assocEntryUuid = entry.getId() != null ? entry.getId()
-                                    : new URN(UUID.randomUUID()).toString();
-                            var submissionAssociation = new Association(AssociationType.HAS_MEMBER,
-                                    assocEntryUuid, sourceId, targetId);
-                            submissionAssociation.setLabel(AssociationLabel.ORIGINAL);
-                            xdsAssocations.add(submissionAssociation);
-                        }
-                    }
-                }
-            }
-        }
-        return xdsAssocations;
-    }
-
-    private List<Association> createAssociationsFrom(List<? extends ListResource> lists,
-            List<? extends DomainResource> fhirResource) {
-        var xdsAssocations = new ArrayList<Association>();
-        for (var list : lists) {
-            for (var entry : list.getEntry()) {
-                for (var doc : fhirResource) {
-                    if (entry.getItem().hasReference() &&
-                            doc.getId().contains(entry.getItem().getReference())) {
-                        var targetId = entryUuidFrom(doc);
-                        var sourceId = entryUuidFrom(list);
-                        if (targetId != null && sourceId != null) {
-                            var assocEntryUuid = entry.getId() != null ? entry.getId()
-                                    : new URN(UUID.randomUUID()).toString();
-                            var submissionAssociation = new Association(AssociationType.HAS_MEMBER,
-                                    assocEntryUuid, sourceId, targetId);
-                            submissionAssociation.setLabel(AssociationLabel.ORIGINAL);
-                            xdsAssocations.add(submissionAssociation);
-                        }
-                    }
-                }
-            }
-        }
-        return xdsAssocations;
+    /**
+     * @param identifierOnly - true, if only the elements required for an ObjectRef response shall be
+     *        requested (identifier and references), without the referenced patient.
+     */
+    private IQuery<Bundle> initDocumentQuery(boolean identifierOnly) {
+        var documentFhirQuery = client.search().forResource(DocumentReference.class)
+                .withProfile(MappingSupport.MHD_COMPREHENSIVE_PROFILE)
+                .returnBundle(Bundle.class);
+        return identifierOnly ? documentFhirQuery.elementsSubset(DOCUMENT_REFERENCE_ELEMENTS)
+                : documentFhirQuery.include(DocumentReference.INCLUDE_SUBJECT);
     }
 
     private List<MhdFolder>  mapFolders(Iterable<MhdFolder> fhirFolder) {
-        var processedFhirFolders = new ArrayList<MhdFolder>();
-        for (var folder : fhirFolder) {
-            if (evaluateMaxCount(response)) {
-                break;
-            }
-            var xdsFolder = queryProcessor.apply(folder);
-            if (xdsFolder != null) {
-                assignDefaultVersioning().accept(xdsFolder);
-                if (isObjectRefResult)
-                    response.getReferences().add(new ObjectReference(xdsFolder.getEntryUuid()));
-                else
-                    response.getFolders().add(xdsFolder);
-                processedFhirFolders.add(folder);
-            }
+        if (isObjectRefResult) {
+            return mapObjectReferences(fhirFolder);
         }
-        return processedFhirFolders;
+        return mapResources(fhirFolder, queryProcessor::apply, folder -> true, response.getFolders());
     }
 
     private void mapAssociations(List<Association> associations) {
@@ -527,82 +619,175 @@ public class StoredQueryVistorImpl extends AbstractStoredQueryVisitor {
     }
 
     private List<MhdSubmissionSet> mapSubmissionSets(Iterable<MhdSubmissionSet> fhirSubmissions) {
+        if (isObjectRefResult) {
+            return mapObjectReferences(fhirSubmissions);
+        }
         return mapSubmissionSets(fhirSubmissions, sub -> true);
     }
 
     private List<MhdSubmissionSet> mapSubmissionSets(Iterable<MhdSubmissionSet> fhirSubmissions, Predicate<SubmissionSet> xdsSubmissionSetCriteria) {
-        var processedFhirSubmissions = new ArrayList<MhdSubmissionSet>();
-        for (var submissionset : fhirSubmissions) {
-            if (evaluateMaxCount(response)) {
-                break;
-            }
-            var xdsSubmission = queryProcessor.apply(submissionset);
-            if (xdsSubmission != null && xdsSubmissionSetCriteria.test(xdsSubmission)) {
-                assignDefaultVersioning().accept(xdsSubmission);
-                if (isObjectRefResult)
-                    response.getReferences().add(new ObjectReference(xdsSubmission.getEntryUuid()));
-                else
-                    response.getSubmissionSets().add(xdsSubmission);
-                processedFhirSubmissions.add(submissionset);
-            }
-        }
-        return processedFhirSubmissions;
+        return mapResources(fhirSubmissions, queryProcessor::apply, xdsSubmissionSetCriteria,
+                response.getSubmissionSets());
     }
 
     private List<DocumentReference> mapDocuments(Iterable<DocumentReference> fhirDocuments) {
+        if (isObjectRefResult) {
+            return mapObjectReferences(fhirDocuments);
+        }
         return mapDocuments(fhirDocuments, (doc) -> true);
     }
 
-    private List<DocumentReference> mapDocuments(Iterable<DocumentReference> fhirDocuments, Predicate<DocumentEntry> xdsDocumentCriteria) {
-        var processedFhirDocs = new ArrayList<DocumentReference>();
-        for (var document : fhirDocuments) {
-            if (evaluateMaxCount(response)) {
-                break;
+    /**
+     * ObjectRef responses without in-memory criteria only require the entryUuid, so the XDS mapping is skipped.
+     */
+    private <T extends DomainResource> List<T> mapObjectReferences(Iterable<T> fhirResources) {
+        var processedFhirResources = new ArrayList<T>();
+        var resourceIterator = fhirResources.iterator();
+        try {
+            while (resourceIterator.hasNext()) {
+                if (evaluateMaxCount(response)) {
+                    break;
+                }
+                var resource = resourceIterator.next();
+                var entryUuid = entryUuidFrom(resource);
+                if (entryUuid != null) {
+                    response.getReferences().add(new ObjectReference(entryUuid));
+                    processedFhirResources.add(resource);
+                }
             }
-            var xdsDoc = queryProcessor.apply(document);
-            if (xdsDoc != null && xdsDocumentCriteria.test(xdsDoc)) {
-                assignDefaultVersioning().accept(xdsDoc);
-                if (isObjectRefResult)
-                    response.getReferences().add(new ObjectReference(xdsDoc.getEntryUuid()));
-                else
-                    response.getDocumentEntries().add(xdsDoc);
-                processedFhirDocs.add(document);
+        } finally {
+            close(resourceIterator);
+        }
+        return processedFhirResources;
+    }
+
+    private List<DocumentReference> mapDocuments(Iterable<DocumentReference> fhirDocuments, Predicate<DocumentEntry> xdsDocumentCriteria) {
+        return mapResources(fhirDocuments, queryProcessor::apply, xdsDocumentCriteria, response.getDocumentEntries());
+    }
+
+    /**
+     * Map the FHIR resources to XDS and add those matching the criteria to the response, until the maximum
+     * result count is exceeded.
+     *
+     * With xds.query.mapping.batch-size configured, the resources are taken in batches that are mapped
+     * concurrently. The mapped objects are evaluated in the order of the search result.
+     *
+     * @param fhirResources - the search result
+     * @param mapper - mapping of a resource to XDS, null if it can not be mapped
+     * @param xdsCriteria - in-memory criteria of the query
+     * @param xdsResult - the result list of the response
+     * @return the FHIR resources that were added to the response
+     */
+    private <R extends DomainResource, X extends XDSMetaClass> List<R> mapResources(Iterable<R> fhirResources,
+            Function<R, X> mapper, Predicate<X> xdsCriteria, List<X> xdsResult) {
+        var processedFhirResources = new ArrayList<R>();
+        var resourceIterator = fhirResources.iterator();
+        try {
+            while (resourceIterator.hasNext()) {
+                if (evaluateMaxCount(response)) {
+                    break;
+                }
+                // a batch never exceeds the remaining budget, so the maximum count can not be exceeded within it
+                var batch = nextBatch(resourceIterator);
+                var xdsObjects = mapBatch(batch, mapper);
+                for (int i = 0; i < batch.size(); i++) {
+                    var xdsObject = xdsObjects.get(i);
+                    if (xdsObject != null && xdsCriteria.test(xdsObject)) {
+                        if (isObjectRefResult)
+                            response.getReferences().add(new ObjectReference(xdsObject.getEntryUuid()));
+                        else
+                            xdsResult.add(xdsObject);
+                        processedFhirResources.add(batch.get(i));
+                    }
+                }
             }
+        } finally {
+            close(resourceIterator);
+        }
+        return processedFhirResources;
+    }
+
+    /**
+     * The next resources to map. The batch is limited to the resources, that are accepted before the maximum
+     * result evaluation stops the iteration, so no more resources are fetched than with a serial mapping.
+     */
+    private <R extends DomainResource> List<R> nextBatch(Iterator<R> resourceIterator) {
+        var batchSize = queryProcessor.getFhirQueryExecutor() != null
+                ? Math.min(queryProcessor.getMappingBatchSize(),
+                        queryProcessor.getMaxResultCount() + 1 - currentResourceCount())
+                : 1;
+        var batch = new ArrayList<R>();
+        do {
+            batch.add(resourceIterator.next());
+        } while (batch.size() < batchSize && resourceIterator.hasNext());
+        return batch;
+    }
+
+    private <R extends DomainResource, X extends XDSMetaClass> List<X> mapBatch(List<R> batch,
+            Function<R, X> mapper) {
+        if (batch.size() == 1) {
+            return Collections.singletonList(mapper.apply(batch.get(0)));
+        }
+        var executor = queryProcessor.getFhirQueryExecutor();
+        var pendingMappings = batch.stream()
+                .map(resource -> CompletableFuture.supplyAsync(() -> mapper.apply(resource), executor))
+                .toList();
+        return pendingMappings.stream().map(Futures::await).toList();
+    }
+
+    /**
+     * Cancel background page requests, if iteration stopped before the last page was consumed.
+     */
+    private static void close(Iterator<?> resultIterator) {
+        if (resultIterator instanceof PagingFhirResultIterator<?> pagingIterator) {
+            pagingIterator.close();
+        } else if (resultIterator instanceof ChunkedFhirResultIterator<?> chunkedIterator) {
+            chunkedIterator.close();
         }
-        return processedFhirDocs;
     }
 
 
     private boolean evaluateMaxCount(QueryResponse response) {
-        int currentResourceCount = response.getDocumentEntries().size() + response.getSubmissionSets().size() + response.getFolders().size();
-        if (currentResourceCount > queryProcessor.getMaxResultCount()) {
-            response.setStatus(Status.PARTIAL_SUCCESS);
-            response.setErrors(Collections.singletonList(new ErrorInfo(ErrorCode.TOO_MANY_RESULTS,
-                    "Result exceed maximum of " + queryProcessor.getMaxResultCount(), Severity.WARNING, null, null)));
+        if (currentResourceCount() > queryProcessor.getMaxResultCount()) {
+            tooManyResults();
             return true;
         }
         return false;
     }
 
+    private static boolean isEmpty(List<String> authorPersons) {
+        return authorPersons == null || authorPersons.isEmpty();
+    }
+
+    /**
+     * @return number of LeafClass objects in the response. Object references are not counted.
+     */
+    private int currentResourceCount() {
+        return response.getDocumentEntries().size() + response.getSubmissionSets().size()
+                + response.getFolders().size();
+    }
+
+    private void tooManyResults() {
+        response.setStatus(Status.PARTIAL_SUCCESS);
+        response.setErrors(Collections.singletonList(new ErrorInfo(ErrorCode.TOO_MANY_RESULTS,
+                "Result exceed maximum of " + queryProcessor.getMaxResultCount(), Severity.WARNING, null, null)));
+    }
+
 
     /**
      * Provide a in-memory evaluation if a given authorPerson restrictions matches to a given Author.
+     * If enabled, the restrictions are also added as prefilter to the FHIR search.
      *
      * @param authorPersons - the person criteria from the incoming XDS query
-     * @param authorsToMatch - the authors that should match.
-     * @return true, if the authorPersons matches to the author's.
+     * @param fhirQuery - the search for the resources with authors
+     * @return matcher for the authors of the mapped resources.
      */
-    private boolean authorMatcher(List<String> authorPersons, List<Author> authorsToMatch) {
-        if (authorPersons == null)
-            return true;
-        return authorPersons.stream().allMatch(authorNameCriteria -> {
-            var regexQuotedQuery = Pattern.quote(authorNameCriteria)
-                    .replace("_", "\\E.\\Q") //Map SQL single "_" to a sincle character match in regex "."
-                    .replace("%", "\\E.*\\Q") // Map SQL wildcard "%" to a wildcard match in regex ".**"
-                    .replace("\\Q\\Q", "\\Q") // Avoid duplicate quoting
-                    .replace("\\E\\E", "\\E");  // Avoid duplicate quoting
-            return authorsToMatch.stream().anyMatch(a -> Hl7v2Based.render(a.getAuthorPerson()).matches(regexQuotedQuery));
-        });
+    private AuthorPersonMatcher authorMatcher(List<String> authorPersons, IQuery<Bundle> fhirQuery) {
+        var authorMatcher = AuthorPersonMatcher.of(authorPersons);
+        if (queryProcessor.isAuthorPushdown()) {
+            authorMatcher.pushdown(fhirQuery);
+        }
+        return authorMatcher;
     }
 
 
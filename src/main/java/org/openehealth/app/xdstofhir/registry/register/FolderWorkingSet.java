@@ -0,0 +1,45 @@
+package org.openehealth.app.xdstofhir.registry.register;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openehealth.app.xdstofhir.registry.common.fhir.MhdFolder;
+
+/**
+ * Existing folders modified by a single registration. Each folder is fetched once and all changes are applied
+ * to the same instance, so that the transaction contains one update per folder.
+ */
+class FolderWorkingSet {
+    private final RegistrySnapshot snapshot;
+    private final Map<String, MhdFolder> foldersById = new LinkedHashMap<>();
+    private final Map<String, MhdFolder> foldersByEntryUuid = new HashMap<>();
+
+    FolderWorkingSet(RegistrySnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @param entryUuid
+     * @return the existing folder with the given entryUUID
+     */
+    MhdFolder lookupExistingFolder(String entryUuid) {
+        return foldersByEntryUuid.computeIfAbsent(entryUuid, uuid -> add(snapshot.lookupExistingFolder(uuid)));
+    }
+
+    /**
+     * @param folder - a folder fetched from the FHIR server
+     * @return the instance of the working set representing the same folder
+     */
+    MhdFolder add(MhdFolder folder) {
+        return foldersById.computeIfAbsent(folder.getIdElement().toUnqualifiedVersionless().getValue(), id -> folder);
+    }
+
+    /**
+     * @return the folders to update.
+     */
+    Collection<MhdFolder> folders() {
+        return foldersById.values();
+    }
+}
@@ -2,15 +2,15 @@ package org.openehealth.app.xdstofhir.registry.register;
 
 import static java.util.Collections.emptyList;
 import static org.openehealth.app.xdstofhir.registry.common.MappingSupport.DOC_DOC_FHIR_ASSOCIATIONS;
-import static org.openehealth.app.xdstofhir.registry.common.MappingSupport.OID_URN;
 import static org.openehealth.app.xdstofhir.registry.common.MappingSupport.URI_URN;
 import static org.openehealth.app.xdstofhir.registry.common.MappingSupport.UUID_URN;
 import static org.openehealth.ipf.commons.ihe.xds.core.validate.ValidatorAssertions.metaDataAssert;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -20,7 +20,10 @@ import java.util.stream.Collectors;
 
 import ca.uhn.fhir.rest.api.CacheControlDirective;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceVersionConflictException;
 import ca.uhn.fhir.util.BundleBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.Bundle;
@@ -28,6 +31,7 @@ import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.r4.model.CanonicalType;
 import org.hl7.fhir.r4.model.DocumentReference;
 import org.hl7.fhir.r4.model.DocumentReference.DocumentReferenceRelatesToComponent;
+import org.hl7.fhir.r4.model.DomainResource;
 import org.hl7.fhir.r4.model.Enumerations.DocumentReferenceStatus;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Identifier;
@@ -36,10 +40,15 @@ import org.hl7.fhir.r4.model.ListResource;
 import org.hl7.fhir.r4.model.ListResource.ListEntryComponent;
 import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.Reference;
+import org.openehealth.app.xdstofhir.registry.common.IdentifierSearchTransport;
 import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
+import org.openehealth.app.xdstofhir.registry.common.PatientIdCache;
+import org.openehealth.app.xdstofhir.registry.common.PatientIdCache.PatientIdentifier;
 import org.openehealth.app.xdstofhir.registry.common.RegistryConfiguration;
+import org.openehealth.app.xdstofhir.registry.common.StripedPatientLock;
 import org.openehealth.app.xdstofhir.registry.common.fhir.MhdFolder;
 import org.openehealth.app.xdstofhir.registry.common.fhir.MhdSubmissionSet;
+import org.openehealth.app.xdstofhir.registry.query.QueryResultCache;
 import org.openehealth.ipf.commons.core.URN;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.Association;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.AssociationType;
@@ -56,6 +65,7 @@ import org.openehealth.ipf.commons.ihe.xds.core.responses.Severity;
 import org.openehealth.ipf.commons.ihe.xds.core.responses.Status;
 import org.openehealth.ipf.commons.ihe.xds.core.validate.ValidationMessage;
 import org.openehealth.ipf.commons.ihe.xds.core.validate.XDSMetaDataException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -67,24 +77,102 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
     private final BiFunction<SubmissionSet, List<ListEntryComponent>, MhdSubmissionSet> submissionSetMapper;
     private final BiFunction<Folder, List<ListEntryComponent>, MhdFolder> folderMapper;
     private final RegistryConfiguration registryConfig;
+    private final PatientIdCache patientIdCache;
+    private final MeterRegistry meterRegistry;
+    private final StripedPatientLock patientLock;
+    private final IdentifierSearchTransport identifierSearchTransport;
+    private final QueryResultCache queryResultCache;
+    @Value("${xds.register.update-retries:3}")
+    private int updateRetries;
 
 
     @Override
     public Response processRegister(RegisterDocumentSet register) {
         validateKnownRepository(register);
-        register.getDocumentEntries().forEach(this::validateResubmission);
-        register.getDocumentEntries().forEach(doc -> assignRegistryValues(doc, register.getAssociations()));
+        // patient identifiers as used by stored queries, before they get replaced by the logical id
+        var patientIdentifiers = new HashSet<PatientIdentifier>();
+        patientIdentifiers.add(PatientIdentifier.of(register.getSubmissionSet().getPatientId()));
+        register.getDocumentEntries().forEach(doc -> patientIdentifiers.add(PatientIdentifier.of(doc.getPatientId())));
+        register.getFolders().forEach(folder -> patientIdentifiers.add(PatientIdentifier.of(folder.getPatientId())));
         register.getDocumentEntries().forEach(this::assignPatientId);
-        register.getFolders().forEach(folder -> assignRegistryValues(folder, register.getAssociations()));
         register.getFolders().forEach(this::assignPatientId);
         assignPatientId(register.getSubmissionSet());
-        assignRegistryValues(register.getSubmissionSet(), register.getAssociations());
-        assignRegistryValues(register.getAssociations());
+        var patientIds = new HashSet<String>();
+        patientIds.add(register.getSubmissionSet().getPatientId().getId());
+        register.getDocumentEntries().forEach(doc -> patientIds.add(doc.getPatientId().getId()));
+        register.getFolders().forEach(folder -> patientIds.add(folder.getPatientId().getId()));
+
+        // lookup of existing objects and the transaction must not interleave with other modifications of the patient
+        patientLock.executeLocked(patientIds, () -> {
+            var snapshot = loadSnapshot(register);
+            register.getDocumentEntries().forEach(doc -> validateResubmission(doc, snapshot));
+            var symbolicIds = new SymbolicIdResolver();
+            register.getDocumentEntries().forEach(doc -> assignRegistryValues(doc, symbolicIds));
+            register.getFolders().forEach(folder -> assignRegistryValues(folder, symbolicIds));
+            assignRegistryValues(register.getSubmissionSet(), symbolicIds);
+            register.getAssociations().forEach(symbolicIds::assignEntryUuid);
+            symbolicIds.resolveReferences(register.getAssociations());
+
+            executeWithRetry(register, snapshot);
+            queryResultCache.invalidate(patientIdentifiers);
+            return null;
+        });
+
+        var response = new Response(Status.SUCCESS);
+
+        addWarningForExtraMetadataIfPresent(register, response);
+
+        return response;
+    }
+
+    /**
+     * Execute the transaction of the submission. Updates of existing resources are conditional on the version
+     * that was read. If another transaction modified one of these resources in the meantime (HTTP 409 / 412),
+     * the existing objects are read again and the transaction gets rebuilt, up to xds.register.update-retries times.
+     *
+     * @param register
+     * @param snapshot - existing objects of the first attempt
+     */
+    private void executeWithRetry(RegisterDocumentSet register, RegistrySnapshot snapshot) {
+        var attempt = 0;
+        var currentSnapshot = snapshot;
+        while (true) {
+            try {
+                client.transaction().withBundle(createTransaction(register, currentSnapshot)).execute();
+                return;
+            } catch (ResourceVersionConflictException | PreconditionFailedException conflict) {
+                if (attempt++ >= updateRetries) {
+                    meterRegistry.counter("xds.register.update.conflicts", "outcome", "failed").increment();
+                    throw conflict;
+                }
+                meterRegistry.counter("xds.register.update.conflicts", "outcome", "retried").increment();
+                log.debug("Concurrent modification of an existing resource, retry {} of {}", attempt,
+                        updateRetries);
+                currentSnapshot = reloadSnapshot(register);
+            }
+        }
+    }
+
+    /**
+     * Read the existing objects again after a conflicting modification and repeat the resubmission checks,
+     * since the conflicting transaction may have registered the same document.
+     *
+     * @param register
+     * @return snapshot of the current registry state
+     */
+    private RegistrySnapshot reloadSnapshot(RegisterDocumentSet register) {
+        var snapshot = loadSnapshot(register);
+        register.getDocumentEntries().forEach(doc -> validateResubmission(doc, snapshot));
+        return snapshot;
+    }
+
+    private Bundle createTransaction(RegisterDocumentSet register, RegistrySnapshot snapshot) {
         var builder = new BundleBuilder(client.getFhirContext());
-        evaluateDocumentReplacement(register, builder);
+        var folderUpdates = new FolderWorkingSet(snapshot);
+        evaluateDocumentReplacement(register, builder, snapshot, folderUpdates);
         builder.setMetaField("profile", new CanonicalType(MappingSupport.MHD_COMPREHENSIVE_PROVIDE_PROFILE));
 
-        var docReferences = createDocToDocReferences(register.getAssociations());
+        var docReferences = createDocToDocReferences(register.getAssociations(), snapshot);
 
         register.getDocumentEntries().forEach(doc -> builder.addTransactionCreateEntry(documentMapper.apply(doc, docReferences)));
 
@@ -98,7 +186,8 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
 
         var folderUuids = register.getFolders().stream().map(XDSMetaClass::getEntryUuid).toList();
         var externalFolderUuid = folderAssociations.stream().map(Association::getSourceUuid).filter(folderId -> !folderUuids.contains(folderId)).toList();
-        createUpdateOfExistingFolders(externalFolderUuid, folderAssociations, documentMap).forEach(builder::addTransactionUpdateEntry);
+        createUpdateOfExistingFolders(externalFolderUuid, folderAssociations, documentMap, snapshot, folderUpdates);
+        folderUpdates.folders().forEach(folder -> addVersionedUpdateEntry(builder, folder));
 
         var folderReferences = createReferences(folderAssociations, documentMap, folderUuids);
         register.getFolders().forEach(folder -> builder.addTransactionCreateEntry(folderMapper.apply(folder, folderReferences)));
@@ -112,15 +201,24 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
         submissionReferences.addAll(createReferences(register.getAssociations(),
                 Collections.singletonList(register.getSubmissionSet().getEntryUuid())));
         builder.addTransactionCreateEntry(submissionSetMapper.apply(register.getSubmissionSet(), submissionReferences));
+        return (Bundle) builder.getBundle();
+    }
 
-        // Execute the transaction
-        client.transaction().withBundle(builder.getBundle()).execute();
-
-        var response = new Response(Status.SUCCESS);
-
-        addWarningForExtraMetadataIfPresent(register, response);
-
-        return response;
+    /**
+     * Add an update of an existing resource to the transaction, that only succeeds if the resource is still on
+     * the version that was read (If-Match).
+     *
+     * @param builder
+     * @param resource
+     */
+    private static void addVersionedUpdateEntry(BundleBuilder builder, DomainResource resource) {
+        builder.addTransactionUpdateEntry(resource);
+        var versionId = resource.getMeta().hasVersionId() ? resource.getMeta().getVersionId()
+                : resource.getIdElement().getVersionIdPart();
+        if (versionId != null) {
+            var entries = ((Bundle) builder.getBundle()).getEntry();
+            entries.get(entries.size() - 1).getRequest().setIfMatch("W/\"" + versionId + "\"");
+        }
     }
 
     /**
@@ -138,20 +236,55 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
         }
     }
 
+    /**
+     * Fetch the existing registry objects the submission may refer to: documents with the same entryUUID or
+     * uniqueId as a submitted document, and documents resp. folders referenced by associations.
+     *
+     * @param register
+     * @return snapshot to serve the lookups of the submission.
+     */
+    private RegistrySnapshot loadSnapshot(RegisterDocumentSet register) {
+        var submittedUuids = new HashSet<String>();
+        register.getDocumentEntries().forEach(doc -> submittedUuids.add(doc.getEntryUuid()));
+        register.getFolders().forEach(folder -> submittedUuids.add(folder.getEntryUuid()));
+        submittedUuids.add(register.getSubmissionSet().getEntryUuid());
+        register.getAssociations().forEach(assoc -> submittedUuids.add(assoc.getEntryUuid()));
+
+        var documentIds = new LinkedHashSet<String>();
+        for (var doc : register.getDocumentEntries()) {
+            if (doc.getEntryUuid().startsWith(UUID_URN)) {
+                documentIds.add(doc.getEntryUuid());
+            }
+            documentIds.add(MappingSupport.toUrnCoded(doc.getUniqueId()));
+        }
+        var folderIds = new LinkedHashSet<String>();
+        for (var assoc : register.getAssociations()) {
+            if (!submittedUuids.contains(assoc.getTargetUuid())) {
+                documentIds.add(assoc.getTargetUuid());
+            }
+            if (!submittedUuids.contains(assoc.getSourceUuid())) {
+                folderIds.add(assoc.getSourceUuid());
+            }
+        }
+        return RegistrySnapshot.load(client, identifierSearchTransport, documentIds, folderIds);
+    }
+
     /**
      * Validate the resubmission preconditions:
      * - entryUUID shall not be used before (in case client use a UUID based id)
      * - same uniqueid is only allowed if hash and size is the same as the existing document.
      *
      * @param doc
+     * @param snapshot
      */
-    private void validateResubmission(DocumentEntry doc) {
+    private void validateResubmission(DocumentEntry doc, RegistrySnapshot snapshot) {
         DocumentReference existingDoc;
         try {
             if (doc.getEntryUuid().startsWith(UUID_URN)) {
-                existingDoc = lookupExistingDocument(doc.getEntryUuid(), MappingSupport.toUrnCoded(doc.getUniqueId()));
+                existingDoc = snapshot.lookupExistingDocument(doc.getEntryUuid(),
+                        MappingSupport.toUrnCoded(doc.getUniqueId()));
             } else {
-                existingDoc = lookupExistingDocument(MappingSupport.toUrnCoded(doc.getUniqueId()));
+                existingDoc = snapshot.lookupExistingDocument(MappingSupport.toUrnCoded(doc.getUniqueId()));
             }
         } catch (XDSMetaDataException notPresent) {
             return;
@@ -171,13 +304,15 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
      * @param externalFolderUuid
      * @param folderAssociations
      * @param documentMap
-     * @return a list of folder objects that need to be updated.
+     * @param snapshot
+     * @param folderUpdates - folders to be updated, the links get added to these folders.
      */
-    private List<MhdFolder> createUpdateOfExistingFolders(List<String> externalFolderUuid,
-            List<Association> folderAssociations, Map<String, DocumentEntry> documentMap) {
-        return folderAssociations.stream().filter(assoc -> externalFolderUuid.contains(assoc.getSourceUuid()))
-                .map(assoc -> {
-                    var folder = lookupExistingFolder(assoc.getSourceUuid());
+    private void createUpdateOfExistingFolders(List<String> externalFolderUuid,
+            List<Association> folderAssociations, Map<String, DocumentEntry> documentMap, RegistrySnapshot snapshot,
+            FolderWorkingSet folderUpdates) {
+        folderAssociations.stream().filter(assoc -> externalFolderUuid.contains(assoc.getSourceUuid()))
+                .forEach(assoc -> {
+                    var folder = folderUpdates.lookupExistingFolder(assoc.getSourceUuid());
                     folder.setDate(new Date());
                     var documentEntry = documentMap.get(assoc.getTargetUuid());
                     if (documentEntry != null) {
@@ -187,7 +322,7 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
                                 ValidationMessage.FOLDER_PATIENT_ID_WRONG);
                         folder.addEntry(createReference(assoc, DocumentReference.class.getSimpleName()));
                     } else {
-                        var existingDoc = lookupExistingDocument(assoc.getTargetUuid());
+                        var existingDoc = snapshot.lookupExistingDocument(assoc.getTargetUuid());
                         metaDataAssert(
                                 folder.getSubject().getIdentifier().getValue()
                                         .equals(existingDoc.getSubject().getIdentifier().getValue()),
@@ -197,31 +332,15 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
                         folder.addEntry(ref);
                         folder.setDate(new Date());
                     }
-                    return folder;
-                }).toList();
-    }
-
-    /**
-     * lookup an existing folder in the FHIR server. In case this folder do not exists, throw a XDS metadata exception to
-     * reject the transaction.
-     *
-     * @param entryUuid
-     * @return The folder associated with the given uuid.
-     */
-    private MhdFolder lookupExistingFolder(String entryUuid) {
-        var result = client.search().forResource(MhdFolder.class).count(1)
-                .where(ListResource.IDENTIFIER.exactly().systemAndValues(URI_URN, entryUuid))
-                .returnBundle(Bundle.class).execute();
-        metaDataAssert(!result.getEntry().isEmpty(), ValidationMessage.UNRESOLVED_REFERENCE, entryUuid);
-        return (MhdFolder)result.getEntryFirstRep().getResource();
+                });
     }
 
-
-    private List<DocumentReferenceRelatesToComponent> createDocToDocReferences(List<Association> associations) {
+    private List<DocumentReferenceRelatesToComponent> createDocToDocReferences(List<Association> associations,
+            RegistrySnapshot snapshot) {
         return associations.stream()
                 .filter(assoc -> DOC_DOC_FHIR_ASSOCIATIONS.containsKey(assoc.getAssociationType()))
                 .map(assoc -> {
-                    var result = lookupExistingDocument(assoc.getTargetUuid());
+                    var result = snapshot.lookupExistingDocument(assoc.getTargetUuid());
                     metaDataAssert(result.getStatus().equals(DocumentReferenceStatus.CURRENT),
                             ValidationMessage.UNRESOLVED_REFERENCE, assoc.getTargetUuid());
                     var ref = new DocumentReferenceRelatesToComponent();
@@ -234,7 +353,8 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
     }
 
 
-    private void evaluateDocumentReplacement(RegisterDocumentSet register, BundleBuilder builder) {
+    private void evaluateDocumentReplacement(RegisterDocumentSet register, BundleBuilder builder,
+            RegistrySnapshot snapshot, FolderWorkingSet folderUpdates) {
         register.getAssociations().stream().filter(assoc -> assoc.getAssociationType() == AssociationType.REPLACE)
                 .forEach(assoc -> {
                     var replacingDoc = register.getDocumentEntries().stream()
@@ -243,9 +363,9 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
                             .orElseThrow(() -> new XDSMetaDataException(ValidationMessage.UNRESOLVED_REFERENCE,
                                     assoc.getSourceUuid()));
                     var replacePreviousDocument = replacePreviousDocument(assoc.getTargetUuid(),
-                            replacingDoc);
-                    replaceFolderAssocations(replacePreviousDocument, replacingDoc).forEach(builder::addTransactionUpdateEntry);
-                    builder.addTransactionUpdateEntry(replacePreviousDocument);
+                            replacingDoc, snapshot);
+                    replaceFolderAssocations(replacePreviousDocument, replacingDoc, folderUpdates);
+                    addVersionedUpdateEntry(builder, replacePreviousDocument);
                 });
     }
 
@@ -254,22 +374,24 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
      *
      * @param replacePreviousDocument
      * @param replacingDoc
-     * @return Folders to update.
+     * @param folderUpdates - folders to be updated, the links get added to these folders.
      */
-    private List<MhdFolder> replaceFolderAssocations(DocumentReference replacePreviousDocument,
-            DocumentReference replacingDoc) {
+    private void replaceFolderAssocations(DocumentReference replacePreviousDocument,
+            DocumentReference replacingDoc, FolderWorkingSet folderUpdates) {
         var folderResult = client.search().forResource(MhdFolder.class)
                 .withProfile(MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE)
                 .where(ListResource.CODE.exactly().codings(MhdFolder.FOLDER_CODEING.getCodingFirstRep()))
-                .where(ListResource.ITEM.hasId(replacePreviousDocument.getId())).returnBundle(Bundle.class).execute();
-        return folderResult.getEntry().stream().map(BundleEntryComponent::getResource).map(MhdFolder.class::cast)
-                .map(folder -> {
+                .where(ListResource.ITEM.hasId(replacePreviousDocument.getId()))
+                .cacheControl(new CacheControlDirective().setNoCache(true).setNoStore(true))
+                .returnBundle(Bundle.class).execute();
+        folderResult.getEntry().stream().map(BundleEntryComponent::getResource).map(MhdFolder.class::cast)
+                .map(folderUpdates::add)
+                .forEach(folder -> {
                     var ref = new ListEntryComponent(new Reference(replacingDoc));
                     ref.setId(new URN(UUID.randomUUID()).toString());
                     folder.setDate(new Date());
                     folder.addEntry(ref);
-                    return folder;
-                }).toList();
+                });
     }
 
     /**
@@ -337,10 +459,12 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
      *
      * @param entryUuid
      * @param replacingDocument
+     * @param snapshot
      * @return Replaced document with status set to superseded
      */
-    private DocumentReference replacePreviousDocument(String entryUuid, DocumentReference replacingDocument) {
-        var replacedDocument = lookupExistingDocument(entryUuid);
+    private DocumentReference replacePreviousDocument(String entryUuid, DocumentReference replacingDocument,
+            RegistrySnapshot snapshot) {
+        var replacedDocument = snapshot.lookupExistingDocument(entryUuid);
         metaDataAssert(replacedDocument.getStatus() == DocumentReferenceStatus.CURRENT,
                 ValidationMessage.DEPRECATED_OBJ_CANNOT_BE_TRANSFORMED);
         if (!replacedDocument.getSubject().getReference().endsWith(replacingDocument.getSubject().getReference())) {
@@ -353,15 +477,6 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
     }
 
 
-    private DocumentReference lookupExistingDocument(String... ids) {
-        var result = client.search().forResource(DocumentReference.class).count(1)
-                .where(DocumentReference.IDENTIFIER.exactly().systemAndValues(URI_URN, ids))
-                .cacheControl(new CacheControlDirective().setNoCache(true).setNoStore(true))
-                .returnBundle(Bundle.class).execute();
-        metaDataAssert(!result.getEntry().isEmpty(), ValidationMessage.UNRESOLVED_REFERENCE, Arrays.toString(ids));
-        return (DocumentReference)result.getEntryFirstRep().getResource();
-    }
-
     private void validateKnownRepository(RegisterDocumentSet register) {
         register.getDocumentEntries()
                 .forEach(doc -> metaDataAssert(
@@ -373,55 +488,35 @@ public class RegisterDocumentsProcessor implements Iti42Service, Iti61Service {
      * Set entryUUID and availability Status.
      *
      * @param xdsObject
-     * @param associations
+     * @param symbolicIds
      */
-    private void assignRegistryValues(XDSMetaClass xdsObject, List<Association> associations) {
-        if (!xdsObject.getEntryUuid().startsWith(MappingSupport.UUID_URN)) {
-            var previousIdentifier = xdsObject.getEntryUuid();
-            xdsObject.assignEntryUuid();
-            associations.stream().forEach(assoc -> {
-                assoc.setSourceUuid(assoc.getSourceUuid().replace(previousIdentifier, xdsObject.getEntryUuid()));
-                assoc.setTargetUuid(assoc.getTargetUuid().replace(previousIdentifier, xdsObject.getEntryUuid()));
-            });
-        }
+    private void assignRegistryValues(XDSMetaClass xdsObject, SymbolicIdResolver symbolicIds) {
+        symbolicIds.assignEntryUuid(xdsObject);
         xdsObject.setAvailabilityStatus(AvailabilityStatus.APPROVED);
     }
 
     /**
-     * Assign generated entryUuid for Associations.
+     * Assign the ID of the fhir patient resource to the xds object.
      *
-     * @param associations
+     * @param xdsObject
      */
-    private void assignRegistryValues(List<Association> associations) {
-        for (var assoc : associations) {
-        	if (assoc.getEntryUuid() == null) {
-        		assoc.assignEntryUuid();
-        	}
-            if (!assoc.getEntryUuid().startsWith(MappingSupport.UUID_URN)) {
-            	var previousIdentifier = assoc.getEntryUuid();
-            	assoc.assignEntryUuid();
-                associations.stream().forEach(as -> {
-                    as.setSourceUuid(as.getSourceUuid().replace(previousIdentifier, assoc.getEntryUuid()));
-                    as.setTargetUuid(as.getTargetUuid().replace(previousIdentifier, assoc.getEntryUuid()));
-                });
-            }
-        }
+    private void assignPatientId(XDSMetaClass xdsObject) {
+        var logicalId = patientIdCache.resolve(PatientIdentifier.of(xdsObject.getPatientId()), this::lookupPatientId);
+        metaDataAssert(logicalId != null, ValidationMessage.UNKNOWN_PATIENT_ID);
+        xdsObject.getPatientId().setId(logicalId);
     }
 
     /**
-     * Assign the ID of the fhir patient resource to the xds object.
-     *
-     * @param xdsObject
+     * @param patientIdentifier
+     * @return logical id of the FHIR patient resource, null if not present
      */
-    private void assignPatientId(XDSMetaClass xdsObject) {
+    private String lookupPatientId(PatientIdentifier patientIdentifier) {
         var result = client.search().forResource(Patient.class).count(1)
-                .where(Patient.IDENTIFIER.exactly().systemAndIdentifier(
-                        OID_URN + xdsObject.getPatientId().getAssigningAuthority().getUniversalId(),
-                        xdsObject.getPatientId().getId()))
+                .where(Patient.IDENTIFIER.exactly().systemAndIdentifier(patientIdentifier.system(),
+                        patientIdentifier.value()))
                 .returnBundle(Bundle.class).cacheControl(new CacheControlDirective().setNoCache(true).setNoStore(true))
                 .execute();
-        metaDataAssert(!result.getEntry().isEmpty(), ValidationMessage.UNKNOWN_PATIENT_ID);
-        xdsObject.getPatientId().setId(result.getEntryFirstRep().getResource().getIdPart());
+        return result.getEntry().isEmpty() ? null : result.getEntryFirstRep().getResource().getIdPart();
     }
 
 }
@@ -0,0 +1,125 @@
+package org.openehealth.app.xdstofhir.registry.register;
+
+import static org.openehealth.app.xdstofhir.registry.common.MappingSupport.URI_URN;
+import static org.openehealth.ipf.commons.ihe.xds.core.validate.ValidatorAssertions.metaDataAssert;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import ca.uhn.fhir.rest.api.CacheControlDirective;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.DomainResource;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.ListResource;
+import org.openehealth.app.xdstofhir.registry.common.IdentifierSearchTransport;
+import org.openehealth.app.xdstofhir.registry.common.fhir.MhdFolder;
+import org.openehealth.ipf.commons.ihe.xds.core.validate.ValidationMessage;
+
+/**
+ * Existing registry objects referenced by a submission. All identifiers known upfront are resolved with one
+ * multi-value identifier search per resource type, the validation steps of the submission are served from
+ * this snapshot afterwards.
+ *
+ * Identifiers that were not part of the prefetch are looked up on the FHIR server. Each lookup returns
+ * a copy, so that modifications of a resource do not leak into other lookups.
+ */
+class RegistrySnapshot {
+    private static final CacheControlDirective NO_CACHE = new CacheControlDirective().setNoCache(true)
+            .setNoStore(true);
+
+    private final IGenericClient client;
+    private final Set<String> prefetchedDocumentIds;
+    private final Set<String> prefetchedFolderIds;
+    private final Map<String, DocumentReference> documents = new HashMap<>();
+    private final Map<String, MhdFolder> folders = new HashMap<>();
+
+    private RegistrySnapshot(IGenericClient client, Set<String> documentIds, Set<String> folderIds) {
+        this.client = client;
+        this.prefetchedDocumentIds = documentIds;
+        this.prefetchedFolderIds = folderIds;
+    }
+
+    /**
+     * @param client
+     * @param transport - transport of the identifier searches
+     * @param documentIds - urn coded identifier of documents (entryUUID or uniqueId)
+     * @param folderIds - urn coded identifier of folders
+     * @return snapshot of the registry objects with the given identifier.
+     */
+    static RegistrySnapshot load(IGenericClient client, IdentifierSearchTransport transport,
+            Collection<String> documentIds, Collection<String> folderIds) {
+        var snapshot = new RegistrySnapshot(client, Set.copyOf(documentIds), Set.copyOf(folderIds));
+        if (!documentIds.isEmpty()) {
+            transport.search(client, documentIds, ids -> client.search().forResource(DocumentReference.class)
+                    .where(DocumentReference.IDENTIFIER.exactly().systemAndValues(URI_URN, ids))
+                    .cacheControl(NO_CACHE)
+                    .returnBundle(Bundle.class), DocumentReference.class)
+                    .forEachRemaining(doc -> index(snapshot.documents, doc,
+                            Stream.concat(Stream.of(doc.getMasterIdentifier()), doc.getIdentifier().stream())));
+        }
+        if (!folderIds.isEmpty()) {
+            transport.search(client, folderIds, ids -> client.search().forResource(MhdFolder.class)
+                    .where(ListResource.IDENTIFIER.exactly().systemAndValues(URI_URN, ids))
+                    .cacheControl(NO_CACHE)
+                    .returnBundle(Bundle.class), MhdFolder.class)
+                    .forEachRemaining(folder -> index(snapshot.folders, folder, folder.getIdentifier().stream()));
+        }
+        return snapshot;
+    }
+
+    private static <T extends DomainResource> void index(Map<String, T> index, T resource,
+            Stream<Identifier> identifiers) {
+        identifiers.filter(id -> URI_URN.equals(id.getSystem()) && id.hasValue())
+                .forEach(id -> index.putIfAbsent(id.getValue(), resource));
+    }
+
+    /**
+     * Lookup an existing document. In case the document do not exists, throw a XDS metadata exception to
+     * reject the transaction.
+     *
+     * @param ids - urn coded identifier, the first present is returned.
+     * @return copy of the existing document
+     */
+    DocumentReference lookupExistingDocument(String... ids) {
+        DocumentReference result;
+        if (prefetchedDocumentIds.containsAll(Arrays.asList(ids))) {
+            result = Arrays.stream(ids).map(documents::get).filter(doc -> doc != null).findFirst().orElse(null);
+        } else {
+            var searchResult = client.search().forResource(DocumentReference.class).count(1)
+                    .where(DocumentReference.IDENTIFIER.exactly().systemAndValues(URI_URN, ids))
+                    .cacheControl(NO_CACHE)
+                    .returnBundle(Bundle.class).execute();
+            result = searchResult.getEntry().isEmpty() ? null
+                    : (DocumentReference) searchResult.getEntryFirstRep().getResource();
+        }
+        metaDataAssert(result != null, ValidationMessage.UNRESOLVED_REFERENCE, Arrays.toString(ids));
+        return result.copy();
+    }
+
+    /**
+     * Lookup an existing folder. In case this folder do not exists, throw a XDS metadata exception to
+     * reject the transaction.
+     *
+     * @param entryUuid
+     * @return copy of the folder associated with the given uuid.
+     */
+    MhdFolder lookupExistingFolder(String entryUuid) {
+        MhdFolder result;
+        if (prefetchedFolderIds.contains(entryUuid)) {
+            result = folders.get(entryUuid);
+        } else {
+            var searchResult = client.search().forResource(MhdFolder.class).count(1)
+                    .where(ListResource.IDENTIFIER.exactly().systemAndValues(URI_URN, entryUuid))
+                    .returnBundle(Bundle.class).execute();
+            result = searchResult.getEntry().isEmpty() ? null : (MhdFolder) searchResult.getEntryFirstRep().getResource();
+        }
+        metaDataAssert(result != null, ValidationMessage.UNRESOLVED_REFERENCE, entryUuid);
+        return result.copy();
+    }
+}
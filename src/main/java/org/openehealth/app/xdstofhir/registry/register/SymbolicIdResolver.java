@@ -0,0 +1,63 @@
+package org.openehealth.app.xdstofhir.registry.register;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Association;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.XDSMetaClass;
+
+/**
+ * Replace symbolic ids of a submission (e.g. "Document01") with generated entryUUIDs.
+ *
+ * The assigned UUIDs are recorded in a resolution table, the associations are rewritten afterwards in one pass
+ * by exact match of their source and target id.
+ */
+class SymbolicIdResolver {
+    private final Map<String, String> assignedUuids = new HashMap<>();
+
+    /**
+     * Assign an entryUUID, if the object has a symbolic id.
+     *
+     * @param xdsObject
+     */
+    void assignEntryUuid(XDSMetaClass xdsObject) {
+        if (!xdsObject.getEntryUuid().startsWith(MappingSupport.UUID_URN)) {
+            var previousIdentifier = xdsObject.getEntryUuid();
+            xdsObject.assignEntryUuid();
+            assignedUuids.put(previousIdentifier, xdsObject.getEntryUuid());
+        }
+    }
+
+    /**
+     * Assign an entryUUID, if the association has no or a symbolic id.
+     *
+     * @param assoc
+     */
+    void assignEntryUuid(Association assoc) {
+        if (assoc.getEntryUuid() == null) {
+            assoc.assignEntryUuid();
+        } else if (!assoc.getEntryUuid().startsWith(MappingSupport.UUID_URN)) {
+            var previousIdentifier = assoc.getEntryUuid();
+            assoc.assignEntryUuid();
+            assignedUuids.put(previousIdentifier, assoc.getEntryUuid());
+        }
+    }
+
+    /**
+     * Rewrite source and target of the associations to the assigned entryUUIDs.
+     *
+     * @param associations
+     */
+    void resolveReferences(List<Association> associations) {
+        for (var assoc : associations) {
+            assoc.setSourceUuid(resolve(assoc.getSourceUuid()));
+            assoc.setTargetUuid(resolve(assoc.getTargetUuid()));
+        }
+    }
+
+    String resolve(String id) {
+        return assignedUuids.getOrDefault(id, id);
+    }
+}
@@ -0,0 +1,204 @@
+package org.openehealth.app.xdstofhir.registry.remove;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.uhn.fhir.util.BundleBuilder;
+import org.hl7.fhir.instance.model.api.IAnyResource;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseElement;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.DocumentReference.DocumentRelationshipType;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.ListResource;
+import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
+import org.openehealth.app.xdstofhir.registry.query.StoredQueryMapper;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.ErrorCode;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.ErrorInfo;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.Severity;
+
+/**
+ * Bookkeeping of a single remove metadata request. Collects the delete and update entries of the transaction
+ * and the errors of the request.
+ *
+ * The requested entryUUIDs are kept in hash sets, relations between documents are indexed by the id of the
+ * target document, so that the effort grows linear with the number of references to remove.
+ */
+class MetadataRemoval {
+    private final Set<String> requestedUuids;
+    private final Set<String> pendingUuids;
+    private final BundleBuilder builder;
+    private final List<ErrorInfo> errorInfo = new ArrayList<>();
+    private final Set<String> affectedPatientIds = new HashSet<>();
+
+    /**
+     * @param uuids - entryUUIDs of the objects and associations to remove
+     * @param builder - transaction to add the update and delete entries
+     */
+    MetadataRemoval(Collection<String> uuids, BundleBuilder builder) {
+        this.requestedUuids = new HashSet<>(uuids);
+        this.pendingUuids = new LinkedHashSet<>(uuids);
+        this.builder = builder;
+    }
+
+    /**
+     * @return entryUUIDs that are not yet resolved to a registry object or association.
+     */
+    List<String> pendingUuids() {
+        return List.copyOf(pendingUuids);
+    }
+
+    /**
+     * Remove the documents and relations between documents.
+     *
+     * @param documents - the documents as found for the request, including related documents
+     */
+    void processDocuments(List<DocumentReference> documents) {
+        var incomingRelations = indexIncomingRelations(documents);
+        documents.forEach(doc -> {
+            processAssociations(doc, doc.getRelatesTo());
+            if (addToDeleteTransaction(doc)) {
+                validateNoReferencesExists(doc, incomingRelations);
+            }
+        });
+    }
+
+    /**
+     * Remove the folders, submission sets and their membership associations.
+     *
+     * @param lists - folders and submission sets as found for the request
+     */
+    void processLists(Collection<ListResource> lists) {
+        lists.forEach(ref -> processAssociations(ref, ref.getEntry()));
+
+        lists.forEach(ref -> {
+            boolean toDeleteTransaction = addToDeleteTransaction(ref);
+            if (toDeleteTransaction && !ref.getEntry().isEmpty()) {
+                errorInfo.add(new ErrorInfo(ErrorCode.REFERENCE_EXISTS_EXCEPTION, "Some references still exists to " + ref.getId(),
+                        Severity.ERROR, null, null));
+            } else if (!toDeleteTransaction && ref.getEntry().isEmpty()
+                    && ref.getMeta().hasProfile(MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE)) {
+                errorInfo.add(new ErrorInfo(ErrorCode.UNREFERENCED_OBJECT_EXCEPTION,
+                        "SubmissionSet without references not permitted " + ref.getId(), Severity.ERROR, null, null));
+            }
+        });
+    }
+
+    /**
+     * @return logical ids of the patients of all resources updated or deleted by the transaction.
+     */
+    Set<String> affectedPatientIds() {
+        return Set.copyOf(affectedPatientIds);
+    }
+
+    /**
+     * @return the transaction with the update and delete entries
+     */
+    IBaseBundle transaction() {
+        return builder.getBundle();
+    }
+
+    /**
+     * @return errors of the request, including the entryUUIDs that could not be resolved.
+     */
+    List<ErrorInfo> errors() {
+        var errors = new ArrayList<ErrorInfo>(errorInfo);
+        if (!pendingUuids.isEmpty()) {
+            errors.add(new ErrorInfo(ErrorCode.UNRESOLVED_REFERENCE_EXCEPTION,
+                    "Some references can not be resolved " + String.join(",", pendingUuids), Severity.ERROR, null, null));
+        }
+        return errors;
+    }
+
+    /**
+     * Index the relations of the documents that remain in the registry by the id of the target document.
+     *
+     * @param documents
+     * @return relations to a document by its id
+     */
+    private Map<String, List<IncomingRelation>> indexIncomingRelations(List<DocumentReference> documents) {
+        var incomingRelations = new HashMap<String, List<IncomingRelation>>();
+        for (var source : documents) {
+            if (requestedUuids.contains(StoredQueryMapper.entryUuidFrom(source))) {
+                continue;
+            }
+            for (var relation : source.getRelatesTo()) {
+                if (!requestedUuids.contains(relation.getId()) && relation.getTarget() != null
+                        && relation.getTarget().getResource() instanceof DocumentReference target) {
+                    incomingRelations.computeIfAbsent(target.getId(), id -> new ArrayList<>())
+                            .add(new IncomingRelation(source, target));
+                }
+            }
+        }
+        return incomingRelations;
+    }
+
+    private void validateNoReferencesExists(DocumentReference doc,
+            Map<String, List<IncomingRelation>> incomingRelations) {
+        doc.getRelatesTo().stream().filter(docRel -> DocumentRelationshipType.REPLACES.equals(docRel.getCode())).forEach(relDoc -> {
+            var entryUuid = StoredQueryMapper.entryUuidFrom(relDoc.getTarget().getResource());
+            if (!requestedUuids.contains(entryUuid)){
+                errorInfo.add(new ErrorInfo(ErrorCode.REFERENCE_EXISTS_EXCEPTION, "Some references still exists to " + entryUuid,
+                        Severity.ERROR, null, null));
+            }
+        });
+        incomingRelations.getOrDefault(doc.getId(), List.of()).stream()
+                .filter(relation -> relation.source() != doc)
+                .map(IncomingRelation::target)
+                .filter(docRef -> docRef.equalsDeep(doc))
+                .findAny().ifPresent(res -> errorInfo.add(new ErrorInfo(ErrorCode.REFERENCE_EXISTS_EXCEPTION, "Some references still exists to " + res.getId(),
+                        Severity.ERROR, null, null)));
+    }
+
+    /**
+     * Remove metadata will also remove associations between registry entries. This method will ensure that these
+     * entries are correctly removed.
+     *
+     * @param resource
+     * @param associatedObjects
+     */
+    private void processAssociations(IAnyResource resource, List<? extends IBaseElement> associatedObjects) {
+        var entryUuid = StoredQueryMapper.entryUuidFrom(resource);
+        var deletedElements = Collections.<IBaseElement>newSetFromMap(new IdentityHashMap<>());
+        var updateRequired = false;
+        for (var rel : associatedObjects) {
+            if (rel != null && pendingUuids.remove(rel.getId())) {
+                deletedElements.add(rel);
+                updateRequired |= !pendingUuids.contains(entryUuid);
+            }
+        }
+        if (updateRequired) {
+            builder.addTransactionUpdateEntry(resource);
+            addAffectedPatient(resource);
+        }
+        associatedObjects.removeIf(deletedElements::contains);
+    }
+
+    private boolean addToDeleteTransaction(IAnyResource resource) {
+        if (pendingUuids.remove(StoredQueryMapper.entryUuidFrom(resource))) {
+            builder.addTransactionDeleteEntry(resource);
+            addAffectedPatient(resource);
+            return true;
+        }
+        return false;
+    }
+
+    private void addAffectedPatient(IAnyResource resource) {
+        var subject = resource instanceof DocumentReference doc ? doc.getSubject()
+                : resource instanceof ListResource list ? list.getSubject() : null;
+        if (subject != null && subject.hasReference()) {
+            affectedPatientIds.add(new IdType(subject.getReference()).getIdPart());
+        }
+    }
+
+    private record IncomingRelation(DocumentReference source, DocumentReference target) {
+    }
+}
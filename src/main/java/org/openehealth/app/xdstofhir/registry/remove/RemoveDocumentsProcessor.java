@@ -5,8 +5,9 @@ import static org.openehealth.app.xdstofhir.registry.common.MappingSupport.URI_U
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 
@@ -15,22 +16,20 @@ import ca.uhn.fhir.util.BundleBuilder;
 import ca.uhn.fhir.util.BundleUtil;
 import lombok.RequiredArgsConstructor;
 import org.hl7.fhir.instance.model.api.IAnyResource;
-import org.hl7.fhir.instance.model.api.IBaseElement;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.DocumentReference;
-import org.hl7.fhir.r4.model.DocumentReference.DocumentReferenceRelatesToComponent;
-import org.hl7.fhir.r4.model.DocumentReference.DocumentRelationshipType;
+import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.ListResource;
+import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.Reference;
+import org.openehealth.app.xdstofhir.registry.common.IdentifierSearchTransport;
 import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
-import org.openehealth.app.xdstofhir.registry.common.PagingFhirResultIterator;
-import org.openehealth.app.xdstofhir.registry.query.StoredQueryMapper;
+import org.openehealth.app.xdstofhir.registry.common.PatientIdCache.PatientIdentifier;
+import org.openehealth.app.xdstofhir.registry.common.StripedPatientLock;
+import org.openehealth.app.xdstofhir.registry.query.QueryResultCache;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.ObjectReference;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.RemoveMetadata;
-import org.openehealth.ipf.commons.ihe.xds.core.responses.ErrorCode;
-import org.openehealth.ipf.commons.ihe.xds.core.responses.ErrorInfo;
 import org.openehealth.ipf.commons.ihe.xds.core.responses.Response;
-import org.openehealth.ipf.commons.ihe.xds.core.responses.Severity;
 import org.openehealth.ipf.commons.ihe.xds.core.responses.Status;
 import org.springframework.stereotype.Component;
 
@@ -38,22 +37,100 @@ import org.springframework.stereotype.Component;
 @RequiredArgsConstructor
 public class RemoveDocumentsProcessor implements Iti62Service {
     private final IGenericClient client;
+    private final StripedPatientLock patientLock;
+    private final IdentifierSearchTransport identifierSearchTransport;
+    private final QueryResultCache queryResultCache;
 
     @Override
     public Response remove(RemoveMetadata metadataToRemove) {
-        var errorInfo = new ArrayList<ErrorInfo>();
-        var uuidsToDelete = new ArrayList<String>(metadataToRemove.getReferences().stream().map(ObjectReference::getId).toList());
-        var unmodifiedUuidsToDelete = new ArrayList<String>(uuidsToDelete);
-        var builder = new BundleBuilder(client.getFhirContext());
+        var uuids = metadataToRemove.getReferences().stream().map(ObjectReference::getId).toList();
+        var patientIds = lookupPatients(uuids);
+        Response response;
+        do {
+            var lockedPatientIds = new HashSet<>(patientIds);
+            response = patientLock.executeLocked(lockedPatientIds, () -> {
+                var removal = prepareRemoval(uuids);
+                if (!lockedPatientIds.containsAll(removal.affectedPatientIds())) {
+                    // the lookup missed a patient of the modified resources, retry holding the lock of all patients
+                    patientIds.addAll(removal.affectedPatientIds());
+                    return null;
+                }
+                var result = executeRemoval(removal);
+                if (Status.SUCCESS.equals(result.getStatus())) {
+                    queryResultCache.invalidate(patientIdentifiers(removal.affectedPatientIds()));
+                }
+                return result;
+            });
+        } while (response == null);
+        return response;
+    }
+
+    /**
+     * Resolve the patients of the objects to remove and of the folders and submission sets referencing them, which
+     * covers the removal of associations as well. The lookup happens without lock, so the patients of the resources
+     * actually modified are verified once they are loaded within the lock.
+     *
+     * @param uuids - entryUUIDs of the objects and associations to remove
+     * @return logical ids of the affected FHIR Patients
+     */
+    private Set<String> lookupPatients(List<String> uuids) {
+        var patientIds = new HashSet<String>();
+        identifierSearchTransport.search(client, uuids, ids -> client.search().forResource(DocumentReference.class)
+                .where(DocumentReference.IDENTIFIER.exactly().systemAndValues(URI_URN, ids))
+                .returnBundle(Bundle.class), DocumentReference.class)
+                .forEachRemaining(doc -> addSubject(patientIds, doc.getSubject()));
+        identifierSearchTransport.search(client, uuids, ids -> client.search().forResource(ListResource.class)
+                .where(ListResource.IDENTIFIER.exactly().systemAndValues(URI_URN, ids))
+                .returnBundle(Bundle.class), ListResource.class)
+                .forEachRemaining(list -> addSubject(patientIds, list.getSubject()));
+        identifierSearchTransport.search(client, uuids, ids -> client.search().forResource(ListResource.class)
+                .whereMap(Collections.singletonMap("item:identifier", Collections.singletonList(itemIdentifiers(ids))))
+                .returnBundle(Bundle.class), ListResource.class)
+                .forEachRemaining(list -> addSubject(patientIds, list.getSubject()));
+        return patientIds;
+    }
+
+    private static void addSubject(Set<String> patientIds, Reference subject) {
+        if (subject.hasReference()) {
+            patientIds.add(new IdType(subject.getReference()).getIdPart());
+        }
+    }
 
-        var docBundleResult = client.search().forResource(DocumentReference.class)
+    /**
+     * @param logicalIds - logical ids of the modified FHIR Patients
+     * @return identifiers of the patients, used for the invalidation of cached query results
+     */
+    private List<PatientIdentifier> patientIdentifiers(Set<String> logicalIds) {
+        var identifiers = new ArrayList<PatientIdentifier>();
+        if (!queryResultCache.isEnabled() || logicalIds.isEmpty()) {
+            return identifiers;
+        }
+        identifierSearchTransport.search(client, logicalIds, ids -> client.search().forResource(Patient.class)
+                .where(Patient.RES_ID.exactly().codes(ids))
+                .returnBundle(Bundle.class), Patient.class)
+                .forEachRemaining(patient -> patient.getIdentifier().stream().filter(id -> id.hasSystem() && id.hasValue())
+                        .forEach(id -> identifiers.add(new PatientIdentifier(id.getSystem(), id.getValue()))));
+        return identifiers;
+    }
+
+    /**
+     * Load the objects to remove and the folders and submission sets referencing them, and build the transaction.
+     *
+     * @param uuidsToDelete - entryUUIDs of the objects and associations to remove
+     * @return the pending removal
+     */
+    private MetadataRemoval prepareRemoval(List<String> uuidsToDelete) {
+        var removal = new MetadataRemoval(uuidsToDelete, new BundleBuilder(client.getFhirContext()));
+
+        var docSearch = client.search().forResource(DocumentReference.class)
                 .withProfile(MappingSupport.MHD_COMPREHENSIVE_PROFILE)
                 .include(DocumentReference.INCLUDE_RELATED)
                 .revInclude(ListResource.INCLUDE_ITEM)
                 .revInclude(DocumentReference.INCLUDE_RELATESTO)
                 .where(DocumentReference.IDENTIFIER.exactly().systemAndValues(URI_URN,uuidsToDelete))
-                .returnBundle(Bundle.class)
-                .execute();
+                .returnBundle(Bundle.class);
+        // the whole bundle incl. the included resources is processed, so the search can not be split
+        var docBundleResult = identifierSearchTransport.withTransport(docSearch, uuidsToDelete.size()).execute();
 
         // collect all List Resources (SubmissionSet, Folder) without duplicates (hapi domain objects do not implement equal / hashcode)
         var uniqueResults = new TreeSet<ListResource>((a, b) -> Comparator.comparing(IAnyResource::getId).compare(a,  b));
@@ -61,41 +138,22 @@ public class RemoveDocumentsProcessor implements Iti62Service {
         var docResult = BundleUtil.toListOfResourcesOfType(client.getFhirContext(), docBundleResult, DocumentReference.class);
         uniqueResults.addAll(BundleUtil.toListOfResourcesOfType(client.getFhirContext(), docBundleResult, ListResource.class));
 
-        docResult.forEach(doc -> {
-            processAssociations(doc, doc.getRelatesTo(), uuidsToDelete, builder);
-            if (addToDeleteTransaction(doc, uuidsToDelete, builder)) {
-                validateNoReferencesExists(doc, docResult, unmodifiedUuidsToDelete, errorInfo);
-            }
-        });
-
-        uniqueResults.addAll(fetchFolderAndSubmissionSets(uuidsToDelete));
-
-        uniqueResults.forEach(ref ->
-            processAssociations(ref, ref.getEntry(), uuidsToDelete, builder)
-        );
-
-        uniqueResults.forEach(ref -> {
-            boolean toDeleteTransaction = addToDeleteTransaction(ref, uuidsToDelete, builder);
-            if (toDeleteTransaction && !ref.getEntry().isEmpty()) {
-                errorInfo.add(new ErrorInfo(ErrorCode.REFERENCE_EXISTS_EXCEPTION, "Some references still exists to " + ref.getId(),
-                        Severity.ERROR, null, null));
-            } else if (!toDeleteTransaction && ref.getEntry().isEmpty()
-                    && ref.getMeta().hasProfile(MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE)) {
-                errorInfo.add(new ErrorInfo(ErrorCode.UNREFERENCED_OBJECT_EXCEPTION,
-                        "SubmissionSet without references not permitted " + ref.getId(), Severity.ERROR, null, null));
-            }
-        });
-
-        if (!uuidsToDelete.isEmpty()) {
-            errorInfo.add(new ErrorInfo(ErrorCode.UNRESOLVED_REFERENCE_EXCEPTION,
-                    "Some references can not be resolved " + String.join(",", uuidsToDelete), Severity.ERROR, null, null));
-        }
+        removal.processDocuments(docResult);
+
+        uniqueResults.addAll(fetchFolderAndSubmissionSets(removal.pendingUuids()));
+
+        removal.processLists(uniqueResults);
+        return removal;
+    }
+
+    private Response executeRemoval(MetadataRemoval removal) {
+        var errorInfo = removal.errors();
         final Response response;
         if (!errorInfo.isEmpty()) {
             response = new Response(Status.FAILURE);
             response.setErrors(errorInfo);
         } else {
-            client.transaction().withBundle(builder.getBundle()).execute();
+            client.transaction().withBundle(removal.transaction()).execute();
             response = new Response(Status.SUCCESS);
         }
 
@@ -104,82 +162,23 @@ public class RemoveDocumentsProcessor implements Iti62Service {
 
     private List<ListResource> fetchFolderAndSubmissionSets(List<String> uuidsToDelete) {
         var result = new ArrayList<ListResource>();
-        var reverseSearchCriteria = Collections.singletonMap("item:identifier", Collections.singletonList(
-                uuidsToDelete.stream().map(MappingSupport::toUrnCoded).map(urnCoded -> URI_URN + "|" + urnCoded).collect(Collectors.joining(","))));
-        var referenceQuery = client.search().forResource(ListResource.class)
-                .whereMap(reverseSearchCriteria)
+        identifierSearchTransport.search(client, uuidsToDelete, ids -> client.search().forResource(ListResource.class)
+                .whereMap(Collections.singletonMap("item:identifier", Collections.singletonList(itemIdentifiers(ids))))
                 .revInclude(ListResource.INCLUDE_ITEM)
-                .returnBundle(Bundle.class);
-
-        var listQuery = client.search().forResource(ListResource.class)
-                .where(ListResource.IDENTIFIER.exactly().systemAndValues(URI_URN,uuidsToDelete))
-                .revInclude(ListResource.INCLUDE_ITEM)
-                .returnBundle(Bundle.class);
-
-        new PagingFhirResultIterator<ListResource>(referenceQuery.execute(), ListResource.class, client)
+                .returnBundle(Bundle.class), ListResource.class)
                 .forEachRemaining(result::add);
 
-        new PagingFhirResultIterator<ListResource>(listQuery.execute(), ListResource.class, client)
+        identifierSearchTransport.search(client, uuidsToDelete, ids -> client.search().forResource(ListResource.class)
+                .where(ListResource.IDENTIFIER.exactly().systemAndValues(URI_URN, ids))
+                .revInclude(ListResource.INCLUDE_ITEM)
+                .returnBundle(Bundle.class), ListResource.class)
                 .forEachRemaining(result::add);
         return result;
     }
 
-    private void validateNoReferencesExists(DocumentReference doc,
-            List<DocumentReference> docResult, List<String> uuidsToDelete, List<ErrorInfo> errorInfo) {
-        var listOfRelations = new ArrayList<DocumentReferenceRelatesToComponent>();
-        docResult.forEach(aDoc -> {
-            var entryUuid = StoredQueryMapper.entryUuidFrom(aDoc);
-            if (!uuidsToDelete.contains(entryUuid) && aDoc != doc)
-                listOfRelations.addAll(aDoc.getRelatesTo());
-        });
-        doc.getRelatesTo().stream().filter(docRel -> DocumentRelationshipType.REPLACES.equals(docRel.getCode())).forEach(relDoc -> {
-            var entryUuid = StoredQueryMapper.entryUuidFrom(relDoc.getTarget().getResource());
-            if (!uuidsToDelete.contains(entryUuid)){
-                errorInfo.add(new ErrorInfo(ErrorCode.REFERENCE_EXISTS_EXCEPTION, "Some references still exists to " + entryUuid,
-                        Severity.ERROR, null, null));
-            }
-        });
-        listOfRelations.stream()
-                .filter(rel -> !uuidsToDelete.contains(rel.getId()))
-                .map(DocumentReferenceRelatesToComponent::getTarget)
-                .filter(Objects::nonNull)
-                .map(Reference::getResource).filter(DocumentReference.class::isInstance)
-                .map(DocumentReference.class::cast)
-                .filter(docRef -> docRef.equalsDeep(doc))
-                .findAny().ifPresent(res -> errorInfo.add(new ErrorInfo(ErrorCode.REFERENCE_EXISTS_EXCEPTION, "Some references still exists to " + res.getId(),
-                        Severity.ERROR, null, null)));
-    }
-
-    /**
-     * Remove metadata will also remove associations between registry entries. This method will ensure that these
-     * entries are correctly removed.
-     *
-     * @param resource
-     * @param associatedObjects
-     * @param uuidsToDelete
-     * @param builder
-     */
-    private void processAssociations(IAnyResource resource, List<? extends IBaseElement> associatedObjects,
-            List<String> uuidsToDelete, BundleBuilder builder) {
-        final var deletedElements = new ArrayList<IBaseElement>();
-        if (associatedObjects.stream().filter(Objects::nonNull).filter(rel -> uuidsToDelete.contains(rel.getId())).map(rel -> {
-            uuidsToDelete.remove(rel.getId());
-            deletedElements.add(rel);
-            var entryUuid = StoredQueryMapper.entryUuidFrom(resource);
-            return !uuidsToDelete.contains(entryUuid);
-        }).filter(updateRequired -> updateRequired == true).count() > 0)
-            builder.addTransactionUpdateEntry(resource);
-        associatedObjects.removeAll(deletedElements);
-    }
-
-    private boolean addToDeleteTransaction(IAnyResource resource, List<String> uuidsToDelete, BundleBuilder builder) {
-        var entryUuid = StoredQueryMapper.entryUuidFrom(resource);
-        if (uuidsToDelete.contains(entryUuid)) {
-            builder.addTransactionDeleteEntry(resource);
-            uuidsToDelete.remove(entryUuid);
-            return true;
-        }
-        return false;
+    private static String itemIdentifiers(List<String> uuids) {
+        return uuids.stream().map(MappingSupport::toUrnCoded).map(urnCoded -> URI_URN + "|" + urnCoded)
+                .collect(Collectors.joining(","));
     }
 
 }
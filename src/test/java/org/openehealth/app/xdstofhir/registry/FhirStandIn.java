@@ -0,0 +1,929 @@
+package org.openehealth.app.xdstofhir.registry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Base;
+import org.hl7.fhir.r4.model.BaseDateTimeType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
+import org.hl7.fhir.r4.model.Bundle.SearchEntryMode;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.DocumentReference.DocumentReferenceContextComponent;
+import org.hl7.fhir.r4.model.Enumerations.FHIRVersion;
+import org.hl7.fhir.r4.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.ListResource;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.PrimitiveType;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Stateful in-memory FHIR R4 server based on the JDK http server. It implements the interactions the registry
+ * uses, so that tests and benchmarks can run against it by pointing fhir.server.base to {@link #getBaseUrl()}:
+ * <ul>
+ * <li>create (also conditional with If-None-Exist), read, update (also with If-Match) and delete</li>
+ * <li>transaction and batch bundles, incl. urn:uuid and conditional references, If-Match and If-None-Exist.
+ * Transactions are atomic, all changes are rolled back if one entry fails.</li>
+ * <li>search with GET or POST [type]/_search on the search parameters of the registry, with the modifiers
+ * :missing, :not, :identifier and [type], chained parameters (e.g. patient.identifier), _has, _id, _profile,
+ * _include, _revinclude, _summary=count, _elements and paging with _count and next links.</li>
+ * </ul>
+ * Unknown search parameters are ignored, the result is then a superset of the matching resources.
+ *
+ * Stored resources are never modified, a write replaces the resource with a new version. Reads and searches
+ * run concurrently, writes are serialized by a read write lock.
+ */
+@Slf4j
+public class FhirStandIn implements AutoCloseable {
+    private static final String BASE_PATH = "/fhir";
+    private static final String FHIR_JSON = "application/fhir+json;charset=UTF-8";
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final Set<String> RESULT_PARAMETERS = Set.of("_include", "_include:iterate", "_revinclude",
+            "_count", "_summary", "_elements", "_sort", "_format", "_pretty", "_total");
+    private static final String SOURCE_ID_EXTENSION = "https://profiles.ihe.net/ITI/MHD/StructureDefinition/ihe-sourceId";
+    private static final String DESIGNATION_TYPE_EXTENSION = "https://profiles.ihe.net/ITI/MHD/StructureDefinition/ihe-designationType";
+
+    /**
+     * Search parameters per resource type, each extracting the elements the parameter is evaluated on. The
+     * extractors check for presence first, as the getters of the model would create missing elements.
+     */
+    private static final Map<String, Function<Resource, List<? extends Base>>> SEARCH_PARAMETERS = Map.ofEntries(
+            Map.entry("Patient:identifier", r -> ((Patient) r).hasIdentifier() ? ((Patient) r).getIdentifier() : List.of()),
+            Map.entry("DocumentReference:identifier", doc(d -> Stream.concat(
+                    optional(d.hasMasterIdentifier(), d::getMasterIdentifier).stream(),
+                    d.hasIdentifier() ? d.getIdentifier().stream() : Stream.<Identifier>empty()).toList())),
+            Map.entry("DocumentReference:patient", doc(d -> optional(d.hasSubject(), d::getSubject))),
+            Map.entry("DocumentReference:subject", doc(d -> optional(d.hasSubject(), d::getSubject))),
+            Map.entry("DocumentReference:status", doc(d -> optional(d.hasStatus(), d::getStatusElement))),
+            Map.entry("DocumentReference:category", doc(d -> d.hasCategory() ? d.getCategory() : List.of())),
+            Map.entry("DocumentReference:type", doc(d -> optional(d.hasType(), d::getType))),
+            Map.entry("DocumentReference:security-label", doc(d -> d.hasSecurityLabel() ? d.getSecurityLabel() : List.of())),
+            Map.entry("DocumentReference:date", doc(d -> optional(d.hasDate(), d::getDateElement))),
+            Map.entry("DocumentReference:format", doc(d -> d.hasContent() ? d.getContent().stream()
+                    .filter(content -> content.hasFormat()).map(content -> content.getFormat()).toList() : List.of())),
+            Map.entry("DocumentReference:relatesto", doc(d -> d.hasRelatesTo() ? d.getRelatesTo().stream()
+                    .filter(relation -> relation.hasTarget()).map(relation -> relation.getTarget()).toList() : List.of())),
+            Map.entry("DocumentReference:event", context(c -> c.hasEvent() ? c.getEvent() : List.of())),
+            Map.entry("DocumentReference:facility", context(c -> optional(c.hasFacilityType(), c::getFacilityType))),
+            Map.entry("DocumentReference:setting", context(c -> optional(c.hasPracticeSetting(), c::getPracticeSetting))),
+            Map.entry("DocumentReference:period", context(c -> optional(c.hasPeriod(), c::getPeriod))),
+            Map.entry("DocumentReference:related", context(c -> c.hasRelated() ? c.getRelated() : List.of())),
+            Map.entry("List:identifier", list(l -> l.hasIdentifier() ? l.getIdentifier() : List.of())),
+            Map.entry("List:code", list(l -> optional(l.hasCode(), l::getCode))),
+            Map.entry("List:patient", list(l -> optional(l.hasSubject(), l::getSubject))),
+            Map.entry("List:subject", list(l -> optional(l.hasSubject(), l::getSubject))),
+            Map.entry("List:status", list(l -> optional(l.hasStatus(), l::getStatusElement))),
+            Map.entry("List:date", list(l -> optional(l.hasDate(), l::getDateElement))),
+            Map.entry("List:item", list(l -> l.hasEntry() ? l.getEntry().stream().filter(entry -> entry.hasItem())
+                    .map(entry -> entry.getItem()).toList() : List.of())),
+            Map.entry("List:sourceId", list(l -> extensionValues(l, SOURCE_ID_EXTENSION))),
+            Map.entry("List:designationType", list(l -> extensionValues(l, DESIGNATION_TYPE_EXTENSION))));
+
+    private final FhirContext fhirContext = FhirContext.forR4();
+    private final Map<String, Map<String, Resource>> store = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong idSequence = new AtomicLong();
+    private final Cache<String, List<Resource>> searchResults = Caffeine.newBuilder().maximumSize(1000)
+            .expireAfterAccess(Duration.ofMinutes(10)).build();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpServer server;
+
+    private FhirStandIn(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext(BASE_PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * @param port - 0 to choose a free port
+     * @return started stand-in, the base URL is available with {@link #getBaseUrl()}.
+     * @throws IOException
+     */
+    public static FhirStandIn start(int port) throws IOException {
+        var standIn = new FhirStandIn(port);
+        standIn.server.start();
+        return standIn;
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + BASE_PATH;
+    }
+
+    /**
+     * @param resourceType
+     * @return number of stored resources of the given type.
+     */
+    public int count(String resourceType) {
+        return withReadLock(() -> store.getOrDefault(resourceType, Map.of()).size());
+    }
+
+    /**
+     * Remove all resources, e.g. between tests.
+     */
+    public void reset() {
+        withWriteLock(() -> {
+            store.clear();
+            return null;
+        });
+        searchResults.invalidateAll();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Reply reply;
+        try {
+            reply = dispatch(exchange);
+        } catch (StandInException e) {
+            reply = new Reply(e.status, outcome(e.getMessage()), Map.of());
+        } catch (RuntimeException e) {
+            log.warn("FHIR stand-in failed on {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            reply = new Reply(500, outcome(String.valueOf(e.getMessage())), Map.of());
+        }
+        var body = reply.body() != null ? newParser().encodeResourceToString(reply.body())
+                .getBytes(StandardCharsets.UTF_8) : new byte[0];
+        reply.headers().forEach((name, value) -> exchange.getResponseHeaders().add(name, value));
+        exchange.getResponseHeaders().add("Content-Type", FHIR_JSON);
+        exchange.sendResponseHeaders(reply.status(), body.length == 0 ? -1 : body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private Reply dispatch(HttpExchange exchange) throws IOException {
+        var path = exchange.getRequestURI().getRawPath().substring(BASE_PATH.length());
+        var segments = Stream.of(path.split("/")).filter(segment -> !segment.isEmpty())
+                .map(segment -> URLDecoder.decode(segment, StandardCharsets.UTF_8)).toList();
+        var params = parseParameters(exchange.getRequestURI().getRawQuery());
+        var method = exchange.getRequestMethod();
+        var headers = exchange.getRequestHeaders();
+
+        if (segments.isEmpty() && "POST".equals(method)) {
+            return new Reply(200, transaction(parse(exchange, Bundle.class)), Map.of());
+        }
+        if (segments.isEmpty() && "GET".equals(method) && params.containsKey("_getpages")) {
+            return new Reply(200, page(params), Map.of());
+        }
+        if (segments.size() == 1 && "metadata".equals(segments.getFirst())) {
+            return new Reply(200, capabilities(), Map.of());
+        }
+        if (segments.size() == 1 && "GET".equals(method)) {
+            return new Reply(200, search(segments.getFirst(), params), Map.of());
+        }
+        if (segments.size() == 2 && "_search".equals(segments.get(1)) && "POST".equals(method)) {
+            try (InputStream in = exchange.getRequestBody()) {
+                parseParameters(new String(in.readAllBytes(), StandardCharsets.UTF_8))
+                        .forEach((name, values) -> params.computeIfAbsent(name, key -> new ArrayList<>()).addAll(values));
+            }
+            return new Reply(200, search(segments.getFirst(), params), Map.of());
+        }
+        if (segments.size() == 1 && "POST".equals(method)) {
+            var resource = parse(exchange, Resource.class);
+            var result = withWriteLock(() -> create(segments.getFirst(), resource, headers.getFirst("If-None-Exist"),
+                    new ArrayDeque<>()));
+            return new Reply(result.created() ? 201 : 200, result.resource().copy(), versionHeaders(result.resource()));
+        }
+        if (segments.size() == 1 && "PUT".equals(method)) {
+            var resource = parse(exchange, Resource.class);
+            var result = withWriteLock(() -> update(segments.getFirst(), resolveConditional(segments.getFirst(),
+                    params).orElse(null), resource, headers.getFirst("If-Match"), new ArrayDeque<>()));
+            return new Reply(result.created() ? 201 : 200, result.resource().copy(), versionHeaders(result.resource()));
+        }
+        if (segments.size() == 1 && "DELETE".equals(method)) {
+            withWriteLock(() -> {
+                searchAll(segments.getFirst(), params).forEach(resource -> delete(resource.fhirType(),
+                        resource.getIdElement().getIdPart(), new ArrayDeque<>()));
+                return null;
+            });
+            return new Reply(204, null, Map.of());
+        }
+        if ((segments.size() == 2 || segments.size() == 4 && "_history".equals(segments.get(2)))
+                && "GET".equals(method)) {
+            var resource = withReadLock(() -> read(segments.get(0), segments.get(1)));
+            if (segments.size() == 4 && !segments.get(3).equals(resource.getMeta().getVersionId())) {
+                throw new StandInException(404, "Only the current version of " + segments.get(0) + "/"
+                        + segments.get(1) + " is available");
+            }
+            return new Reply(200, resource.copy(), versionHeaders(resource));
+        }
+        if (segments.size() == 2 && "PUT".equals(method)) {
+            var resource = parse(exchange, Resource.class);
+            var result = withWriteLock(() -> update(segments.get(0), segments.get(1), resource,
+                    headers.getFirst("If-Match"), new ArrayDeque<>()));
+            return new Reply(result.created() ? 201 : 200, result.resource().copy(), versionHeaders(result.resource()));
+        }
+        if (segments.size() == 2 && "DELETE".equals(method)) {
+            withWriteLock(() -> delete(segments.get(0), segments.get(1), new ArrayDeque<>()));
+            return new Reply(204, null, Map.of());
+        }
+        throw new StandInException(400, "Unsupported interaction " + method + " " + path);
+    }
+
+    private Map<String, String> versionHeaders(Resource resource) {
+        return Map.of("ETag", etag(resource), "Location", getBaseUrl() + "/" + resource.getIdElement().getValue());
+    }
+
+    private static String etag(Resource resource) {
+        return "W/\"" + resource.getMeta().getVersionId() + "\"";
+    }
+
+    private Resource read(String type, String id) {
+        var resource = store.getOrDefault(type, Map.of()).get(id);
+        if (resource == null) {
+            throw new StandInException(404, "Resource " + type + "/" + id + " is not known");
+        }
+        return resource;
+    }
+
+    /**
+     * @param ifNoneExist - search parameters of a conditional create, may be null
+     */
+    private Written create(String type, Resource resource, String ifNoneExist, Deque<Runnable> undo) {
+        var existing = conditionalMatch(type, ifNoneExist);
+        if (existing != null) {
+            return new Written(existing, false);
+        }
+        return new Written(put(type, Long.toString(idSequence.incrementAndGet()), resource, undo), true);
+    }
+
+    /**
+     * @param id - logical id, null to create a new one
+     * @param ifMatch - expected version as weak ETag, may be null
+     */
+    private Written update(String type, String id, Resource resource, String ifMatch, Deque<Runnable> undo) {
+        var existing = id != null ? store.getOrDefault(type, Map.of()).get(id) : null;
+        if (ifMatch != null && !ifMatch.isBlank()) {
+            if (existing == null) {
+                throw new StandInException(412, "If-Match on unknown resource " + type + "/" + id);
+            }
+            var expectedVersion = ifMatch.replace("W/", "").replace("\"", "").trim();
+            if (!expectedVersion.equals(existing.getMeta().getVersionId())) {
+                throw new StandInException(412, "Version " + expectedVersion + " of " + type + "/" + id
+                        + " is outdated, current version is " + existing.getMeta().getVersionId());
+            }
+        }
+        var logicalId = id != null ? id : Long.toString(idSequence.incrementAndGet());
+        return new Written(put(type, logicalId, resource, undo), existing == null);
+    }
+
+    private Void delete(String type, String id, Deque<Runnable> undo) {
+        var resources = store.get(type);
+        var previous = resources != null ? resources.remove(id) : null;
+        if (previous != null) {
+            undo.push(() -> resources.put(id, previous));
+        }
+        return null;
+    }
+
+    /**
+     * Store a copy of the resource as the next version of the given logical id.
+     */
+    private Resource put(String type, String id, Resource resource, Deque<Runnable> undo) {
+        if (!type.equals(resource.fhirType())) {
+            throw new StandInException(400, "Resource type " + resource.fhirType() + " do not match " + type);
+        }
+        var resources = store.computeIfAbsent(type, key -> new LinkedHashMap<>());
+        var previous = resources.get(id);
+        var version = previous == null ? 1 : Long.parseLong(previous.getMeta().getVersionId()) + 1;
+        var stored = resource.copy();
+        stored.setId(new IdType(type, id, Long.toString(version)));
+        stored.getMeta().setVersionId(Long.toString(version));
+        stored.getMeta().setLastUpdatedElement(InstantType.now());
+        resources.put(id, stored);
+        undo.push(() -> {
+            if (previous == null) {
+                resources.remove(id);
+            } else {
+                resources.put(id, previous);
+            }
+        });
+        return stored;
+    }
+
+    /**
+     * Process a transaction or batch. The entries are processed in the order DELETE, POST, PUT, GET. The logical
+     * ids of created resources are assigned upfront, references to the fullUrl of those entries and conditional
+     * references are replaced with the logical id. A failing entry rolls back the whole transaction, in a batch
+     * only the entry fails.
+     */
+    private Bundle transaction(Bundle request) {
+        if (request.getType() != BundleType.TRANSACTION && request.getType() != BundleType.BATCH) {
+            throw new StandInException(400, "Only transaction or batch bundles are supported");
+        }
+        var isTransaction = request.getType() == BundleType.TRANSACTION;
+        return withWriteLock(() -> {
+            var undo = new ArrayDeque<Runnable>();
+            try {
+                var assignedIds = new HashMap<String, String>();
+                var created = new IdentityHashMap<BundleEntryComponent, Resource>();
+                for (var entry : request.getEntry()) {
+                    if (entry.getRequest().getMethod() == HTTPVerb.POST && entry.hasResource()) {
+                        var resource = entry.getResource();
+                        var existing = conditionalMatch(resource.fhirType(), entry.getRequest().getIfNoneExist());
+                        var assigned = existing != null ? existing.fhirType() + "/" + existing.getIdElement().getIdPart()
+                                : resource.fhirType() + "/" + idSequence.incrementAndGet();
+                        if (existing != null) {
+                            created.put(entry, existing);
+                        }
+                        if (entry.hasFullUrl()) {
+                            assignedIds.put(entry.getFullUrl(), assigned);
+                        }
+                        if (resource.getIdElement().hasIdPart()) {
+                            assignedIds.put(resource.fhirType() + "/" + resource.getIdElement().getIdPart(), assigned);
+                        }
+                        entry.getResource().setId(assigned);
+                    }
+                }
+                for (var entry : request.getEntry()) {
+                    if (entry.hasResource()) {
+                        resolveReferences(entry.getResource(), assignedIds);
+                    }
+                }
+
+                var responses = new IdentityHashMap<BundleEntryComponent, BundleEntryComponent>();
+                var ordered = request.getEntry().stream().sorted(Comparator.comparingInt(
+                        entry -> List.of(HTTPVerb.DELETE, HTTPVerb.POST, HTTPVerb.PUT, HTTPVerb.GET)
+                                .indexOf(entry.getRequest().getMethod()))).toList();
+                for (var entry : ordered) {
+                    try {
+                        responses.put(entry, processEntry(entry, created.get(entry), undo));
+                    } catch (StandInException e) {
+                        if (isTransaction) {
+                            throw e;
+                        }
+                        var failed = new BundleEntryComponent();
+                        failed.getResponse().setStatus(Integer.toString(e.status)).setOutcome(outcome(e.getMessage()));
+                        responses.put(entry, failed);
+                    }
+                }
+
+                var response = new Bundle();
+                response.setType(isTransaction ? BundleType.TRANSACTIONRESPONSE : BundleType.BATCHRESPONSE);
+                request.getEntry().forEach(entry -> response.addEntry(responses.get(entry)));
+                return response;
+            } catch (RuntimeException e) {
+                undo.forEach(Runnable::run);
+                throw e;
+            }
+        });
+    }
+
+    private BundleEntryComponent processEntry(BundleEntryComponent entry, Resource existing, Deque<Runnable> undo) {
+        var result = new BundleEntryComponent();
+        var url = entry.getRequest().getUrl();
+        var type = url.contains("?") ? url.substring(0, url.indexOf('?')) : new IdType(url).getResourceType();
+        switch (entry.getRequest().getMethod()) {
+            case POST -> {
+                if (existing != null) {
+                    result.getResponse().setStatus("200 OK").setLocation(existing.getIdElement().getValue())
+                            .setEtag(etag(existing));
+                } else {
+                    var assigned = entry.getResource().getIdElement();
+                    var stored = put(assigned.getResourceType(), assigned.getIdPart(), entry.getResource(), undo);
+                    result.getResponse().setStatus("201 Created").setLocation(stored.getIdElement().getValue())
+                            .setEtag(etag(stored));
+                }
+            }
+            case PUT -> {
+                var id = url.contains("?") ? resolveConditional(type, conditionalParameters(url)).orElse(null)
+                        : new IdType(url).getIdPart();
+                var written = update(type, id, entry.getResource(), entry.getRequest().getIfMatch(), undo);
+                result.getResponse().setStatus(written.created() ? "201 Created" : "200 OK")
+                        .setLocation(written.resource().getIdElement().getValue()).setEtag(etag(written.resource()));
+            }
+            case DELETE -> {
+                if (url.contains("?")) {
+                    searchAll(type, conditionalParameters(url)).forEach(resource -> delete(type,
+                            resource.getIdElement().getIdPart(), undo));
+                } else {
+                    delete(type, new IdType(url).getIdPart(), undo);
+                }
+                result.getResponse().setStatus("204 No Content");
+            }
+            case GET -> {
+                var resource = read(type, new IdType(url).getIdPart());
+                result.setResource(resource.copy());
+                result.getResponse().setStatus("200 OK").setEtag(etag(resource));
+            }
+            default -> throw new StandInException(400, "Unsupported method " + entry.getRequest().getMethod());
+        }
+        return result;
+    }
+
+    private void resolveReferences(Resource resource, Map<String, String> assignedIds) {
+        for (var reference : fhirContext.newTerser().getAllPopulatedChildElementsOfType(resource, Reference.class)) {
+            var value = reference.getReference();
+            if (value == null) {
+                continue;
+            }
+            var assigned = assignedIds.get(value);
+            if (assigned != null) {
+                reference.setReference(assigned);
+            } else if (value.contains("?")) {
+                var type = value.substring(0, value.indexOf('?'));
+                var id = resolveConditional(type, conditionalParameters(value)).orElseThrow(
+                        () -> new StandInException(412, "Conditional reference " + value + " do not match"));
+                reference.setReference(type + "/" + id);
+            }
+        }
+    }
+
+    private Resource conditionalMatch(String type, String ifNoneExist) {
+        if (ifNoneExist == null || ifNoneExist.isBlank()) {
+            return null;
+        }
+        var existing = searchAll(type, conditionalParameters(ifNoneExist));
+        if (existing.size() > 1) {
+            throw new StandInException(412, "Multiple matches for If-None-Exist " + ifNoneExist);
+        }
+        return existing.isEmpty() ? null : existing.getFirst();
+    }
+
+    /**
+     * @return logical id of the single resource matching the conditional url, empty if none matches.
+     */
+    private Optional<String> resolveConditional(String type, Map<String, List<String>> params) {
+        var matches = searchAll(type, params);
+        if (matches.size() > 1) {
+            throw new StandInException(412, "Multiple matches for conditional operation on " + type);
+        }
+        return matches.stream().map(resource -> resource.getIdElement().getIdPart()).findFirst();
+    }
+
+    private static Map<String, List<String>> conditionalParameters(String url) {
+        return parseParameters(url.contains("?") ? url.substring(url.indexOf('?') + 1) : url);
+    }
+
+    private Bundle search(String type, Map<String, List<String>> params) {
+        var matches = withReadLock(() -> searchAll(type, params));
+        var result = new Bundle();
+        result.setType(BundleType.SEARCHSET);
+        result.setTotal(matches.size());
+        result.addLink().setRelation("self").setUrl(getBaseUrl() + "/" + type);
+        if (params.getOrDefault("_summary", List.of()).contains("count")) {
+            return result;
+        }
+        var searchId = UUID.randomUUID().toString();
+        var count = params.containsKey("_count") ? Integer.parseInt(params.get("_count").getFirst()) : DEFAULT_PAGE_SIZE;
+        if (matches.size() > count) {
+            searchResults.put(searchId, matches);
+        }
+        return page(result, searchId, matches, 0, count, params);
+    }
+
+    private Bundle page(Map<String, List<String>> params) {
+        var searchId = params.get("_getpages").getFirst();
+        var matches = searchResults.getIfPresent(searchId);
+        if (matches == null) {
+            throw new StandInException(410, "Search " + searchId + " is expired");
+        }
+        var result = new Bundle();
+        result.setType(BundleType.SEARCHSET);
+        result.setTotal(matches.size());
+        return page(result, searchId, matches, Integer.parseInt(params.get("_getpagesoffset").getFirst()),
+                Integer.parseInt(params.get("_count").getFirst()), params);
+    }
+
+    /**
+     * Add one page of the matches, the included resources of this page and the paging links to the bundle. The
+     * result parameters of further pages (_include, _elements) are passed along with the next link.
+     */
+    private Bundle page(Bundle result, String searchId, List<Resource> matches, int offset, int count,
+            Map<String, List<String>> params) {
+        var page = matches.subList(Math.min(offset, matches.size()), Math.min(offset + count, matches.size()));
+        var elements = params.getOrDefault("_elements", List.of()).stream()
+                .flatMap(value -> Stream.of(value.split(","))).map(element -> "*." + element.trim())
+                .collect(Collectors.toSet());
+        page.forEach(resource -> addEntry(result, elements.isEmpty() ? resource.copy() : subset(resource, elements),
+                SearchEntryMode.MATCH));
+
+        var included = withReadLock(() -> {
+            var resources = new LinkedHashSet<Resource>();
+            params.getOrDefault("_include", List.of()).forEach(include -> resources.addAll(includes(page, include)));
+            for (var include : params.getOrDefault("_include:iterate", List.of())) {
+                var iterated = new ArrayList<Resource>(page);
+                while (!iterated.isEmpty()) {
+                    iterated = new ArrayList<>(includes(iterated, include));
+                    iterated.removeIf(resource -> !resources.add(resource));
+                }
+            }
+            params.getOrDefault("_revinclude", List.of()).forEach(rev -> resources.addAll(revIncludes(page, rev)));
+            page.forEach(resources::remove);
+            return resources;
+        });
+        included.forEach(resource -> addEntry(result, resource.copy(), SearchEntryMode.INCLUDE));
+
+        if (offset + count < matches.size()) {
+            var next = new StringBuilder(getBaseUrl()).append("?_getpages=").append(searchId)
+                    .append("&_getpagesoffset=").append(offset + count).append("&_count=").append(count)
+                    .append("&_bundletype=searchset");
+            Stream.of("_include", "_include:iterate", "_revinclude", "_elements")
+                    .forEach(name -> params.getOrDefault(name, List.of()).forEach(value -> next.append('&')
+                            .append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8))));
+            result.addLink().setRelation("next").setUrl(next.toString());
+        }
+        return result;
+    }
+
+    private void addEntry(Bundle bundle, Resource resource, SearchEntryMode mode) {
+        bundle.addEntry().setFullUrl(getBaseUrl() + "/" + resource.fhirType() + "/" + resource.getIdElement().getIdPart())
+                .setResource(resource).getSearch().setMode(mode);
+    }
+
+    /**
+     * @return copy of the resource with the mandatory and the given elements only.
+     */
+    private Resource subset(Resource resource, Set<String> elements) {
+        var parser = newParser();
+        parser.setEncodeElements(elements);
+        var subset = newParser().parseResource(resource.getClass(), parser.encodeResourceToString(resource));
+        subset.setId(resource.getIdElement());
+        return subset;
+    }
+
+    /**
+     * Must be called with the read or write lock held.
+     *
+     * @return resources of the given type matching all search parameters, in order of creation.
+     */
+    private List<Resource> searchAll(String type, Map<String, List<String>> params) {
+        var reverseChains = new HashMap<String, Set<String>>();
+        var matches = new ArrayList<Resource>();
+        for (var resource : store.getOrDefault(type, Map.of()).values()) {
+            if (matches(resource, params, reverseChains)) {
+                matches.add(resource);
+            }
+        }
+        return matches;
+    }
+
+    private boolean matches(Resource resource, Map<String, List<String>> params, Map<String, Set<String>> reverseChains) {
+        for (var param : params.entrySet()) {
+            var name = param.getKey();
+            if (RESULT_PARAMETERS.contains(name)) {
+                continue;
+            }
+            for (var value : param.getValue()) {
+                if (name.startsWith("_has:")) {
+                    var referencing = reverseChains.computeIfAbsent(name + "=" + value, key -> reverseChain(name, value));
+                    if (!referencing.contains(resource.fhirType() + "/" + resource.getIdElement().getIdPart())) {
+                        return false;
+                    }
+                } else if (!matches(resource, name, value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param name - _has:Type:reference:parameter, e.g. _has:List:item:identifier
+     * @return Type/id of all resources referenced by a resource matching the parameter.
+     */
+    private Set<String> reverseChain(String name, String value) {
+        var parts = name.split(":", 4);
+        var extractor = parts.length == 4 ? SEARCH_PARAMETERS.get(parts[1] + ":" + parts[2]) : null;
+        if (extractor == null) {
+            throw new StandInException(400, "Unsupported reverse chain " + name);
+        }
+        var referenced = new HashSet<String>();
+        for (var candidate : store.getOrDefault(parts[1], Map.of()).values()) {
+            if (matches(candidate, Map.of(parts[3], List.of(value)), new HashMap<>())) {
+                extractor.apply(candidate).stream().filter(Reference.class::isInstance).map(Reference.class::cast)
+                        .filter(Reference::hasReference).map(reference -> new IdType(reference.getReference()))
+                        .forEach(id -> referenced.add(id.getResourceType() + "/" + id.getIdPart()));
+            }
+        }
+        return referenced;
+    }
+
+    private boolean matches(Resource resource, String name, String value) {
+        var alternatives = List.of(value.split(","));
+        if ("_id".equals(name)) {
+            return alternatives.contains(resource.getIdElement().getIdPart());
+        }
+        if ("_profile".equals(name)) {
+            return resource.getMeta().getProfile().stream().anyMatch(profile -> alternatives.contains(profile.getValue()));
+        }
+        var chain = name.indexOf('.');
+        var parameterWithModifier = chain < 0 ? name : name.substring(0, chain);
+        var modifierIndex = parameterWithModifier.indexOf(':');
+        var parameter = modifierIndex < 0 ? parameterWithModifier : parameterWithModifier.substring(0, modifierIndex);
+        var modifier = modifierIndex < 0 ? null : parameterWithModifier.substring(modifierIndex + 1);
+        var extractor = SEARCH_PARAMETERS.get(resource.fhirType() + ":" + parameter);
+        if (extractor == null) {
+            log.debug("Ignore unknown search parameter {} on {}", name, resource.fhirType());
+            return true;
+        }
+        var elements = extractor.apply(resource);
+        if (chain >= 0) {
+            var chained = name.substring(chain + 1);
+            return elements.stream().filter(Reference.class::isInstance).map(Reference.class::cast)
+                    .map(reference -> resolve(reference, modifier)).filter(Objects::nonNull)
+                    .anyMatch(target -> matches(target, chained, value));
+        }
+        if ("missing".equals(modifier)) {
+            return elements.isEmpty() == Boolean.parseBoolean(value);
+        }
+        if ("not".equals(modifier)) {
+            return elements.stream().noneMatch(element -> alternatives.stream().anyMatch(alt -> matchesValue(element, alt)));
+        }
+        if ("identifier".equals(modifier)) {
+            return elements.stream().filter(Reference.class::isInstance).map(Reference.class::cast)
+                    .filter(Reference::hasIdentifier)
+                    .anyMatch(reference -> alternatives.stream().anyMatch(alt -> matchesValue(reference.getIdentifier(), alt)));
+        }
+        return elements.stream().anyMatch(element -> alternatives.stream().anyMatch(alt -> matchesValue(element,
+                element instanceof Reference && modifier != null && !alt.contains("/") ? modifier + "/" + alt : alt)));
+    }
+
+    /**
+     * @param type - expected resource type, may be null
+     * @return referenced resource, null if not stored.
+     */
+    private Resource resolve(Reference reference, String type) {
+        if (!reference.hasReference() || reference.getReference().startsWith("#")) {
+            return null;
+        }
+        var target = new IdType(reference.getReference());
+        var targetType = target.hasResourceType() ? target.getResourceType() : type;
+        if (targetType == null || type != null && !type.equals(targetType)) {
+            return null;
+        }
+        return store.getOrDefault(targetType, Map.of()).get(target.getIdPart());
+    }
+
+    private static boolean matchesValue(Base element, String value) {
+        if (element instanceof Identifier identifier) {
+            return matchesToken(identifier.getSystem(), identifier.getValue(), value);
+        } else if (element instanceof CodeableConcept concept) {
+            return concept.hasCoding() && concept.getCoding().stream().anyMatch(coding -> matchesValue(coding, value));
+        } else if (element instanceof Coding coding) {
+            return matchesToken(coding.getSystem(), coding.getCode(), value);
+        } else if (element instanceof Reference reference) {
+            return matchesReference(reference, value);
+        } else if (element instanceof BaseDateTimeType dateTime) {
+            return dateTime.getValue() != null && matchesDate(dateTime.getValue().getTime(), upperBound(dateTime), value);
+        } else if (element instanceof Period period) {
+            var low = period.hasStart() ? period.getStart().getTime() : Long.MIN_VALUE;
+            var high = period.hasEnd() ? upperBound(period.getEndElement()) : Long.MAX_VALUE;
+            return matchesDate(low, high, value);
+        } else if (element instanceof PrimitiveType<?> primitive) {
+            return matchesToken(null, primitive.getValueAsString(), value);
+        }
+        return false;
+    }
+
+    private static boolean matchesToken(String system, String code, String value) {
+        var separator = value.indexOf('|');
+        if (separator < 0) {
+            return value.equals(code);
+        }
+        var expectedSystem = value.substring(0, separator);
+        var expectedCode = value.substring(separator + 1);
+        return (expectedSystem.isEmpty() ? system == null : expectedSystem.equals(system))
+                && (expectedCode.isEmpty() || expectedCode.equals(code));
+    }
+
+    private static boolean matchesReference(Reference reference, String value) {
+        if (!reference.hasReference()) {
+            return false;
+        }
+        var actual = new IdType(reference.getReference());
+        var expected = new IdType(value);
+        return Objects.equals(actual.getIdPart(), expected.getIdPart())
+                && (!expected.hasResourceType() || !actual.hasResourceType()
+                        || expected.getResourceType().equals(actual.getResourceType()));
+    }
+
+    private static boolean matchesDate(long low, long high, String value) {
+        var hasPrefix = value.length() > 2 && Character.isLetter(value.charAt(0));
+        var prefix = hasPrefix ? value.substring(0, 2) : "eq";
+        var parameter = new DateTimeType(hasPrefix ? value.substring(2) : value);
+        var paramLow = parameter.getValue().getTime();
+        var paramHigh = upperBound(parameter);
+        return switch (prefix) {
+            case "ge" -> high >= paramLow;
+            case "gt", "sa" -> high > paramHigh;
+            case "le" -> low <= paramHigh;
+            case "lt", "eb" -> low < paramLow;
+            case "ne" -> high < paramLow || low > paramHigh;
+            default -> low <= paramHigh && high >= paramLow;
+        };
+    }
+
+    private static long upperBound(BaseDateTimeType dateTime) {
+        var precision = dateTime.getPrecision() != null ? dateTime.getPrecision() : TemporalPrecisionEnum.MILLI;
+        var calendar = dateTime.getValueAsCalendar();
+        calendar.add(precision.getCalendarConstant(), 1);
+        calendar.add(Calendar.MILLISECOND, -1);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * @param include - Type:parameter[:TargetType]
+     */
+    private Collection<Resource> includes(Collection<Resource> resources, String include) {
+        var parts = include.split(":");
+        var extractor = parts.length > 1 ? SEARCH_PARAMETERS.get(parts[0] + ":" + parts[1]) : null;
+        var result = new LinkedHashSet<Resource>();
+        if (extractor == null) {
+            return result;
+        }
+        for (var resource : resources) {
+            if (resource.fhirType().equals(parts[0])) {
+                extractor.apply(resource).stream().filter(Reference.class::isInstance).map(Reference.class::cast)
+                        .map(reference -> resolve(reference, parts.length > 2 ? parts[2] : null))
+                        .filter(Objects::nonNull).forEach(result::add);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param revInclude - Type:parameter, e.g. List:item
+     */
+    private Collection<Resource> revIncludes(Collection<Resource> resources, String revInclude) {
+        var parts = revInclude.split(":");
+        var extractor = parts.length > 1 ? SEARCH_PARAMETERS.get(parts[0] + ":" + parts[1]) : null;
+        if (extractor == null || resources.isEmpty()) {
+            return List.of();
+        }
+        var targets = new HashSet<String>();
+        resources.forEach(resource -> targets.add(resource.fhirType() + "/" + resource.getIdElement().getIdPart()));
+        var result = new LinkedHashSet<Resource>();
+        for (var candidate : store.getOrDefault(parts[0], Map.of()).values()) {
+            var referencing = extractor.apply(candidate).stream().filter(Reference.class::isInstance)
+                    .map(Reference.class::cast).filter(Reference::hasReference)
+                    .map(reference -> new IdType(reference.getReference()))
+                    .anyMatch(id -> targets.contains(id.getResourceType() + "/" + id.getIdPart()));
+            if (referencing) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    private CapabilityStatement capabilities() {
+        var capabilities = new CapabilityStatement();
+        capabilities.setStatus(PublicationStatus.ACTIVE);
+        capabilities.setDate(new Date());
+        capabilities.setFhirVersion(FHIRVersion._4_0_1);
+        capabilities.addFormat("json");
+        return capabilities;
+    }
+
+    private static OperationOutcome outcome(String message) {
+        var outcome = new OperationOutcome();
+        outcome.addIssue().setSeverity(IssueSeverity.ERROR).setCode(IssueType.PROCESSING).setDiagnostics(message);
+        return outcome;
+    }
+
+    private <T extends Resource> T parse(HttpExchange exchange, Class<T> type) {
+        var contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        var parser = contentType != null && contentType.contains("xml") ? fhirContext.newXmlParser() : newParser();
+        try (InputStream in = exchange.getRequestBody()) {
+            return parser.parseResource(type, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (IOException | DataFormatException e) {
+            throw new StandInException(400, e.getMessage());
+        }
+    }
+
+    private IParser newParser() {
+        return fhirContext.newJsonParser();
+    }
+
+    private <T> T withReadLock(Supplier<T> action) {
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private <T> T withWriteLock(Supplier<T> action) {
+        lock.writeLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static Map<String, List<String>> parseParameters(String rawQuery) {
+        var params = new LinkedHashMap<String, List<String>>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (var pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            var separator = pair.indexOf('=');
+            var name = URLDecoder.decode(separator < 0 ? pair : pair.substring(0, separator), StandardCharsets.UTF_8);
+            var value = separator < 0 ? "" : URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8);
+            params.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+    private static Function<Resource, List<? extends Base>> doc(Function<DocumentReference, List<? extends Base>> extractor) {
+        return resource -> extractor.apply((DocumentReference) resource);
+    }
+
+    private static Function<Resource, List<? extends Base>> context(
+            Function<DocumentReferenceContextComponent, List<? extends Base>> extractor) {
+        return doc(d -> d.hasContext() ? extractor.apply(d.getContext()) : List.of());
+    }
+
+    private static Function<Resource, List<? extends Base>> list(Function<ListResource, List<? extends Base>> extractor) {
+        return resource -> extractor.apply((ListResource) resource);
+    }
+
+    private static List<Base> optional(boolean present, Supplier<? extends Base> element) {
+        return present ? List.of(element.get()) : List.of();
+    }
+
+    private static List<Base> extensionValues(ListResource list, String url) {
+        return list.hasExtension() ? list.getExtension().stream()
+                .filter(extension -> url.equals(extension.getUrl()) && extension.hasValue())
+                .<Base>map(extension -> extension.getValue()).toList() : List.of();
+    }
+
+    private record Reply(int status, Resource body, Map<String, String> headers) {
+    }
+
+    private record Written(Resource resource, boolean created) {
+    }
+
+    private static class StandInException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final int status;
+
+        StandInException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
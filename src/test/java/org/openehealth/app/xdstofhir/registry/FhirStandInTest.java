@@ -0,0 +1,233 @@
+package org.openehealth.app.xdstofhir.registry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.SearchStyleEnum;
+import ca.uhn.fhir.rest.api.SummaryEnum;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import ca.uhn.fhir.rest.server.exceptions.PreconditionFailedException;
+import ca.uhn.fhir.util.BundleBuilder;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.Enumerations.DocumentReferenceStatus;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.ListResource;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FhirStandInTest {
+    private static final String URI_SYSTEM = "urn:ietf:rfc:3986";
+    private static final String PATIENT_SYSTEM = "urn:oid:1.2.3";
+
+    private FhirStandIn standIn;
+    private IGenericClient client;
+
+    @BeforeEach
+    void start() throws IOException {
+        standIn = FhirStandIn.start(0);
+        var ctx = FhirContext.forR4Cached();
+        ctx.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+        client = ctx.newRestfulGenericClient(standIn.getBaseUrl());
+    }
+
+    @AfterEach
+    void stop() {
+        standIn.close();
+    }
+
+    @Test
+    void updateWithOutdatedVersion() {
+        var id = client.create().resource(patient("4711")).execute().getId();
+        var patient = client.read().resource(Patient.class).withId(id.toUnqualifiedVersionless()).execute();
+        assertEquals("1", patient.getMeta().getVersionId());
+
+        patient.setActive(true);
+        client.update().resource(patient).execute();
+        var updated = client.read().resource(Patient.class).withId(id.toUnqualifiedVersionless()).execute();
+        assertEquals("2", updated.getMeta().getVersionId());
+
+        assertThrows(PreconditionFailedException.class, () -> client.update().resource(patient).withId(id
+                .toUnqualifiedVersionless()).withAdditionalHeader("If-Match", "W/\"1\"").execute());
+    }
+
+    @Test
+    void transactionWithIncludedSubject() {
+        var patientId = client.create().resource(patient("4711")).execute().getId().toUnqualifiedVersionless();
+        client.transaction().withBundle(submission(patientId.getValue(), "doc1")).execute();
+
+        var result = client.search().forResource(DocumentReference.class)
+                .where(DocumentReference.PATIENT.hasId(patientId.getValue()))
+                .include(DocumentReference.INCLUDE_SUBJECT)
+                .returnBundle(Bundle.class).execute();
+
+        assertEquals(2, result.getEntry().size());
+        var document = (DocumentReference) result.getEntry().getFirst().getResource();
+        assertEquals(patientId.getValue(), document.getSubject().getReference());
+        assertTrue(result.getEntry().get(1).getResource() instanceof Patient);
+        assertEquals(1, standIn.count("List"));
+    }
+
+    @Test
+    void chainedAndReverseChainedSearch() {
+        var patientId = client.create().resource(patient("4711")).execute().getId().toUnqualifiedVersionless();
+        client.transaction().withBundle(submission(patientId.getValue(), "doc1")).execute();
+        client.transaction().withBundle(submission(patientId.getValue(), "doc2")).execute();
+
+        var byPatientIdentifier = client.search().forResource(DocumentReference.class)
+                .where(DocumentReference.PATIENT.hasChainedProperty(Patient.IDENTIFIER.exactly()
+                        .systemAndIdentifier(PATIENT_SYSTEM, "4711")))
+                .returnBundle(Bundle.class).execute();
+        assertEquals(2, byPatientIdentifier.getTotal());
+
+        var folderOfDocument = client.search().forResource(ListResource.class)
+                .whereMap(Map.of("item:DocumentReference.identifier", List.of(URI_SYSTEM
+                        + "|urn:uuid:doc2")))
+                .returnBundle(Bundle.class).execute();
+        assertEquals(1, folderOfDocument.getTotal());
+
+        var documentsOfFolder = client.search().forResource(DocumentReference.class)
+                .whereMap(Map.of("_has:List:item:identifier", List.of(URI_SYSTEM
+                        + "|urn:uuid:list-doc1")))
+                .revInclude(ListResource.INCLUDE_ITEM)
+                .returnBundle(Bundle.class).execute();
+        assertEquals(1, documentsOfFolder.getTotal());
+        assertEquals(2, documentsOfFolder.getEntry().size());
+    }
+
+    @Test
+    void pagingWithNextLink() {
+        for (int i = 0; i < 25; i++) {
+            client.create().resource(patient("p" + i)).execute();
+        }
+        var sizes = new ArrayList<Integer>();
+        var page = client.search().forResource(Patient.class).count(10).returnBundle(Bundle.class).execute();
+        sizes.add(page.getEntry().size());
+        while (page.getLink(Bundle.LINK_NEXT) != null) {
+            page = client.loadPage().next(page).execute();
+            sizes.add(page.getEntry().size());
+        }
+        assertEquals(List.of(10, 10, 5), sizes);
+    }
+
+    @Test
+    void conditionalCreate() {
+        var first = client.create().resource(patient("4711")).conditionalByUrl("Patient?identifier=" + PATIENT_SYSTEM
+                + "|4711").execute();
+        var second = client.create().resource(patient("4711")).conditionalByUrl("Patient?identifier=" + PATIENT_SYSTEM
+                + "|4711").execute();
+
+        assertEquals(first.getId().getIdPart(), second.getId().getIdPart());
+        assertEquals(1, standIn.count("Patient"));
+    }
+
+    @Test
+    void countAndElementsSubset() {
+        var patientId = client.create().resource(patient("4711")).execute().getId().toUnqualifiedVersionless();
+        client.transaction().withBundle(submission(patientId.getValue(), "doc1")).execute();
+
+        var count = client.search().forResource(DocumentReference.class).summaryMode(SummaryEnum.COUNT)
+                .returnBundle(Bundle.class).execute();
+        assertEquals(1, count.getTotal());
+        assertTrue(count.getEntry().isEmpty());
+
+        var subset = client.search().forResource(DocumentReference.class).elementsSubset("identifier")
+                .returnBundle(Bundle.class).execute();
+        var document = (DocumentReference) subset.getEntry().getFirst().getResource();
+        assertTrue(document.hasIdentifier());
+        assertFalse(document.hasSubject());
+    }
+
+    @Test
+    void searchWithPost() {
+        client.create().resource(patient("4711")).execute();
+        client.create().resource(patient("4712")).execute();
+
+        var result = client.search().forResource(Patient.class)
+                .where(Patient.IDENTIFIER.exactly().systemAndIdentifier(PATIENT_SYSTEM, "4712"))
+                .usingStyle(SearchStyleEnum.POST).returnBundle(Bundle.class).execute();
+        assertEquals(1, result.getTotal());
+    }
+
+    @Test
+    void transactionRollbackOnOutdatedVersion() {
+        var id = client.create().resource(patient("4711")).execute().getId().toUnqualifiedVersionless();
+        var patient = client.read().resource(Patient.class).withId(id).execute();
+        client.update().resource(patient).execute();
+
+        var builder = new BundleBuilder(FhirContext.forR4Cached());
+        builder.addTransactionCreateEntry(patient("4712"));
+        builder.addTransactionUpdateEntry(patient);
+        var bundle = (Bundle) builder.getBundle();
+        bundle.getEntry().get(1).getRequest().setIfMatch("W/\"1\"");
+
+        assertThrows(PreconditionFailedException.class, () -> client.transaction().withBundle(bundle).execute());
+        assertEquals(1, standIn.count("Patient"));
+        var current = client.read().resource(Patient.class).withId(id).execute();
+        assertEquals("2", current.getMeta().getVersionId());
+    }
+
+    @Test
+    void concurrentCreates() throws Exception {
+        var tasks = new ArrayList<Callable<String>>();
+        for (int i = 0; i < 100; i++) {
+            var value = "p" + i;
+            tasks.add(() -> client.create().resource(patient(value)).execute().getId().getIdPart());
+        }
+        var ids = new HashSet<String>();
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            for (var future : executor.invokeAll(tasks)) {
+                ids.add(future.get());
+            }
+        }
+        assertEquals(100, ids.size());
+        assertEquals(100, standIn.count("Patient"));
+        assertNull(client.search().forResource(Patient.class).count(200).returnBundle(Bundle.class).execute()
+                .getLink(Bundle.LINK_NEXT));
+    }
+
+    private static Patient patient(String id) {
+        var patient = new Patient();
+        patient.addIdentifier(new Identifier().setSystem(PATIENT_SYSTEM).setValue(id));
+        return patient;
+    }
+
+    /**
+     * Transaction in the style of the registry: urn:uuid ids of the new resources and references to them.
+     */
+    private static Bundle submission(String patientReference, String documentId) {
+        var document = new DocumentReference();
+        document.setId("urn:uuid:" + documentId);
+        document.setStatus(DocumentReferenceStatus.CURRENT);
+        document.addIdentifier(new Identifier().setSystem(URI_SYSTEM).setValue("urn:uuid:" + documentId));
+        document.setSubject(new Reference(patientReference));
+        var folder = new ListResource();
+        folder.setId("urn:uuid:list-" + documentId);
+        folder.setStatus(ListResource.ListStatus.CURRENT);
+        folder.setMode(ListResource.ListMode.WORKING);
+        folder.addIdentifier(new Identifier().setSystem(URI_SYSTEM).setValue("urn:uuid:list-" + documentId));
+        folder.setSubject(new Reference(patientReference));
+        folder.addEntry().setItem(new Reference("DocumentReference/urn:uuid:" + documentId));
+
+        var builder = new BundleBuilder(FhirContext.forR4Cached());
+        builder.addTransactionCreateEntry(document);
+        builder.addTransactionCreateEntry(folder);
+        return (Bundle) builder.getBundle();
+    }
+}
@@ -0,0 +1,63 @@
+package org.openehealth.app.xdstofhir.registry.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+import org.junit.jupiter.api.Test;
+
+class MappingSupportTest {
+
+    private static final List<String> CORPUS = List.of("1.2.3", "2.16.840.1.113883.6.1", "1.3.6.1.4.1.19376.1.2.3",
+            "0.39", "0.40", "1.40", "2.999", "3.1", "1", "1.", ".1", "1..2", "01.2", "1.02", "1.0", "2.0.0",
+            "1.2.3456789012", "+1.2", "1.2.-3", "urn:oid:1.2.3", "urn:uuid:6c0a6ea3-3bb6-4d27-a7a3-ee5e1d6fa8e0",
+            "urn:ihe:xds:scheme1", "urn:ihe:iti:xds:2013:referenceIdList", "urn:ietf:rfc:3986", "urn:oid:",
+            "urn:oid:1.2:", "urn:oid:1.2/3", "urn:x:y", "urn:", "urn", "URN:OID:1.2.3", "urn:oid:1 2",
+            "6c0a6ea3-3bb6-4d27-a7a3-ee5e1d6fa8e0", "6C0A6EA3-3BB6-4D27-A7A3-EE5E1D6FA8E0", "1-2-3-4-5",
+            "6c0a6ea3-3bb6-4d27-a7a3-ee5e1d6fa8eg", "http://loinc.org", "https://snomed.info/sct",
+            "http://hl7.org/fhir/ValueSet/c80-practice-codes", "http://a.b/c?d=e&f=g", "http://", "http:///x",
+            "http://a b", "http://a#b#c", "http://[::1]/x", "http://a%20b", "ftp://host/file", "mailto:a@b.c",
+            "LOINC", "DCM", "SNM3", "Connect-a-thon classCodes", "code_1", "a.b.c", "_", ".", "", " ", "1.2.3 ",
+            "abc:def", "a/b", "\u00e4\u00f6\u00fc", "1.2.3^^^&1.2.3&ISO");
+
+    @Test
+    void sameResultAsParsing() {
+        for (var value : corpus()) {
+            var expected = outcome(MappingSupport::parseUrnCoded, value);
+            assertEquals(expected, outcome(MappingSupport::toUrnCoded, value), value);
+            // second call served from the memo or fast path
+            assertEquals(expected, outcome(MappingSupport::toUrnCoded, value), value);
+        }
+    }
+
+    private static String outcome(UnaryOperator<String> classifier, String value) {
+        try {
+            return classifier.apply(value);
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+
+    private static List<String> corpus() {
+        var values = new ArrayList<>(CORPUS);
+        var random = new Random(4711);
+        var alphabet = "0123456789.abcdefABCXYZ-_:/%#?&@ ";
+        for (int i = 0; i < 5000; i++) {
+            var value = new StringBuilder();
+            var length = random.nextInt(20);
+            for (int j = 0; j < length; j++) {
+                value.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            values.add(value.toString());
+            values.add("urn:oid:" + value);
+            values.add("http://" + value);
+            values.add(random.nextInt(3) + "." + random.nextInt(50) + "." + random.nextInt(1000));
+            values.add(UUID.randomUUID().toString());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,47 @@
+package org.openehealth.app.xdstofhir.registry.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.LinkedHashMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RegistryConfigurationTest {
+    private RegistryConfiguration classUnderTest;
+
+    @BeforeEach
+    void init() {
+        var endpoints = new LinkedHashMap<String, String>();
+        endpoints.put("1.2.3", "http://repo/binary/$documentUniqueId");
+        endpoints.put("1.2.4", "http://repo/$documentUniqueId");
+        endpoints.put("1.2.5", "http://other/retrieve?id=$documentUniqueId&format=pdf");
+        classUnderTest = new RegistryConfiguration();
+        classUnderTest.setUnknownRepositoryId("9.9.9");
+        classUnderTest.setRepositoryEndpoint(endpoints);
+    }
+
+    @Test
+    void repositoryFromUrl() {
+        assertEquals("1.2.3", classUnderTest.repositoryFromUrl("http://repo/binary/1.2.3.4"));
+        assertEquals("1.2.4", classUnderTest.repositoryFromUrl("http://repo/document/1.2.3.4"));
+        assertEquals("1.2.5", classUnderTest.repositoryFromUrl("http://other/retrieve?id=1.2.3.4&format=pdf"));
+        assertEquals("9.9.9", classUnderTest.repositoryFromUrl("http://other/retrieve?id=1.2.3.4"));
+        assertEquals("9.9.9", classUnderTest.repositoryFromUrl("http://unknown/binary/1.2.3.4"));
+    }
+
+    @Test
+    void firstConfiguredTemplateWins() {
+        var endpoints = new LinkedHashMap<String, String>();
+        endpoints.put("1.2.4", "http://repo/$documentUniqueId");
+        endpoints.put("1.2.3", "http://repo/binary/$documentUniqueId");
+        classUnderTest.setRepositoryEndpoint(endpoints);
+
+        assertEquals("1.2.4", classUnderTest.repositoryFromUrl("http://repo/binary/1.2.3.4"));
+    }
+
+    @Test
+    void urlFrom() {
+        assertEquals("http://other/retrieve?id=1.2.3.4&format=pdf", classUnderTest.urlFrom("1.2.5", "1.2.3.4"));
+    }
+}
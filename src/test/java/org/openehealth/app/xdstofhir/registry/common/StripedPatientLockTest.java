@@ -0,0 +1,129 @@
+package org.openehealth.app.xdstofhir.registry.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+class StripedPatientLockTest {
+    // "a" and "b" are mapped to different stripes of 64
+    private static final String PATIENT_A = "a";
+    private static final String PATIENT_B = "b";
+
+    @Test
+    void samePatientIsSerialized() throws Exception {
+        var classUnderTest = new StripedPatientLock(64, new SimpleMeterRegistry());
+        assertEquals(1, maxConcurrency(classUnderTest, List.of(PATIENT_A), List.of(PATIENT_A)));
+    }
+
+    @Test
+    void singleStripeSerializesAllPatients() throws Exception {
+        var classUnderTest = new StripedPatientLock(1, new SimpleMeterRegistry());
+        assertEquals(1, maxConcurrency(classUnderTest, List.of(PATIENT_A), List.of(PATIENT_B)));
+    }
+
+    @Test
+    void differentPatientsRunInParallel() throws Exception {
+        var classUnderTest = new StripedPatientLock(64, new SimpleMeterRegistry());
+        var secondEntered = new CountDownLatch(1);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            // the first action only completes, if the second one can enter while the first holds its lock
+            var first = executor.submit(() -> classUnderTest.executeLocked(List.of(PATIENT_A),
+                    () -> await(secondEntered)));
+            var second = executor.submit(() -> classUnderTest.executeLocked(List.of(PATIENT_B), () -> {
+                secondEntered.countDown();
+                return true;
+            }));
+            assertTrue(first.get(5, TimeUnit.SECONDS));
+            assertTrue(second.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void multiplePatientsInAnyOrderDoNotDeadlock() throws Exception {
+        var classUnderTest = new StripedPatientLock(64, new SimpleMeterRegistry());
+        var executions = new AtomicInteger();
+        var tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 200; i++) {
+            var patients = i % 2 == 0 ? List.of(PATIENT_A, PATIENT_B) : List.of(PATIENT_B, PATIENT_A);
+            tasks.add(() -> classUnderTest.executeLocked(patients, executions::incrementAndGet));
+        }
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            for (var future : executor.invokeAll(tasks, 10, TimeUnit.SECONDS)) {
+                assertFalse(future.isCancelled(), "lock acquisition did not complete");
+            }
+        }
+        assertEquals(200, executions.get());
+    }
+
+    @Test
+    void waitTimeIsRecorded() {
+        var meterRegistry = new SimpleMeterRegistry();
+        var classUnderTest = new StripedPatientLock(4, meterRegistry);
+        classUnderTest.executeLocked(List.of(PATIENT_A), () -> null);
+        classUnderTest.executeLocked(List.of(PATIENT_A, PATIENT_B), () -> null);
+
+        assertEquals(2, meterRegistry.get("xds.patient.lock.wait").timer().count());
+    }
+
+    @Test
+    void invalidStripeCount() {
+        assertThrows(IllegalArgumentException.class, () -> new StripedPatientLock(0, new SimpleMeterRegistry()));
+    }
+
+    /**
+     * Run both actions at the same time. Each action stays in the lock for a while.
+     *
+     * @return maximum number of actions that were executed at the same time
+     */
+    private static int maxConcurrency(StripedPatientLock classUnderTest, List<String> firstPatients,
+            List<String> secondPatients) throws Exception {
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var start = new CountDownLatch(1);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var futures = List.of(firstPatients, secondPatients).stream()
+                    .map(patients -> executor.submit(() -> {
+                        start.await();
+                        return classUnderTest.executeLocked(patients, () -> {
+                            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                            sleep(200);
+                            return running.decrementAndGet();
+                        });
+                    })).toList();
+            start.countDown();
+            for (var future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        }
+        return maxRunning.get();
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.openehealth.app.xdstofhir.registry.common.mapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.openehealth.ipf.commons.spring.map.SpringBidiMappingService;
+import org.springframework.core.io.ClassPathResource;
+
+class TranslationTablesTest {
+    private SpringBidiMappingService mapService;
+    private TranslationTables classUnderTest;
+
+    @BeforeEach
+    public void setupTestClass() {
+        mapService = new SpringBidiMappingService();
+        mapService.setMappingResource(new ClassPathResource("META-INF/map/fhir-hl7v2-translation.map"));
+        mapService.setMappingResource(new ClassPathResource("META-INF/map/codesystem-fhir-translation.map"));
+        classUnderTest = new TranslationTables(mapService);
+    }
+
+    static Stream<Arguments> translations() {
+        return Stream.of(
+                Arguments.of("xds2FhirCodesystemMapping", "2.16.840.1.113883.6.1"),
+                Arguments.of("xds2FhirCodesystemMapping", "1.2.3.4.5"),
+                Arguments.of("fhir2XdsCodesystemMapping", "http://loinc.org"),
+                Arguments.of("fhir2XdsCodesystemMapping", "urn:oid:1.2.3.4.5"),
+                Arguments.of("hl7v2fhir-patient-gender", "female"),
+                Arguments.of("hl7v2fhir-patient-gender", "something"),
+                Arguments.of("hl7v2fhir-patient-administrativeGender", "M"),
+                Arguments.of("hl7v2fhir-patient-administrativeGender", "A"),
+                Arguments.of("hl7v2fhir-patient-administrativeGender", "X"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("translations")
+    void sameAsMappingService(String mappingKey, String key) {
+        assertEquals(mapService.get(mappingKey, key), classUnderTest.get(mappingKey, key));
+        // second lookup is served from the frozen table or the memoized fallback
+        assertEquals(mapService.get(mappingKey, key), classUnderTest.get(mappingKey, key));
+    }
+}
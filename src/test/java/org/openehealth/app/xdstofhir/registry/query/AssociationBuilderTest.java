@@ -0,0 +1,86 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.DocumentReference.DocumentRelationshipType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Identifier.IdentifierUse;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
+import org.openehealth.app.xdstofhir.registry.common.fhir.MhdFolder;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.AssociationType;
+
+class AssociationBuilderTest {
+    private static final String BASE_URL = "http://localhost:8080/fhir/";
+
+    @ParameterizedTest
+    @ValueSource(strings = { "DocumentReference/12", "DocumentReference/12/_history/3",
+            BASE_URL + "DocumentReference/12", BASE_URL + "DocumentReference/12/_history/3" })
+    void listEntryReferences(String reference) {
+        var folder = folder("urn:uuid:folder");
+        folder.addEntry().setId("urn:uuid:assoc").setItem(new Reference(reference));
+        var documents = List.of(document("1", "urn:uuid:doc1"), document("12", "urn:uuid:doc12"),
+                document("123", "urn:uuid:doc123"));
+
+        var associations = AssociationBuilder.createAssociationsFrom(List.of(folder), documents);
+
+        assertEquals(1, associations.size());
+        var association = associations.getFirst();
+        assertEquals(AssociationType.HAS_MEMBER, association.getAssociationType());
+        assertEquals("urn:uuid:assoc", association.getEntryUuid());
+        assertEquals("urn:uuid:folder", association.getSourceUuid());
+        assertEquals("urn:uuid:doc12", association.getTargetUuid());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "DocumentReference/12", "DocumentReference/12/_history/3",
+            BASE_URL + "DocumentReference/12", BASE_URL + "DocumentReference/12/_history/3" })
+    void relatesToReferences(String reference) {
+        var replacement = document("2", "urn:uuid:replacement");
+        replacement.addRelatesTo().setId("urn:uuid:rplc").setCode(DocumentRelationshipType.REPLACES)
+                .setTarget(new Reference(reference));
+        var documents = List.of(replacement, document("1", "urn:uuid:doc1"), document("12", "urn:uuid:doc12"));
+
+        var associations = AssociationBuilder.createAssociationsBetween(documents);
+
+        assertEquals(1, associations.size());
+        var association = associations.getFirst();
+        assertEquals(AssociationType.REPLACE, association.getAssociationType());
+        assertEquals("urn:uuid:rplc", association.getEntryUuid());
+        assertEquals("urn:uuid:replacement", association.getSourceUuid());
+        assertEquals("urn:uuid:doc12", association.getTargetUuid());
+    }
+
+    @Test
+    void noAssociationForOtherResourceType() {
+        var folder = folder("urn:uuid:folder");
+        folder.addEntry().setItem(new Reference("List/12"));
+        folder.addEntry().setItem(new Reference().setIdentifier(new Identifier().setValue("urn:uuid:doc12")));
+
+        assertTrue(AssociationBuilder.createAssociationsFrom(List.of(folder), List.of(document("12", "urn:uuid:doc12")))
+                .isEmpty());
+    }
+
+    private static DocumentReference document(String id, String entryUuid) {
+        var document = new DocumentReference();
+        document.setId(BASE_URL + "DocumentReference/" + id + "/_history/1");
+        document.addIdentifier(new Identifier().setUse(IdentifierUse.OFFICIAL).setSystem(MappingSupport.URI_URN)
+                .setValue(entryUuid));
+        return document;
+    }
+
+    private static MhdFolder folder(String entryUuid) {
+        var folder = new MhdFolder();
+        folder.setId(BASE_URL + "List/f1/_history/1");
+        folder.addIdentifier(new Identifier().setUse(IdentifierUse.OFFICIAL).setSystem(MappingSupport.URI_URN)
+                .setValue(entryUuid));
+        return folder;
+    }
+}
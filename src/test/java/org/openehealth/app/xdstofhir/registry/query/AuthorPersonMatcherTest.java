@@ -0,0 +1,63 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Author;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Hl7v2Based;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Person;
+
+class AuthorPersonMatcherTest {
+    private static final List<Author> AUTHORS = List.of(author("^Musterfrau^Martha^^^Dr"),
+            author("4711^Boer^Henk^^^^^^&1.2.3&ISO"));
+
+    private static Author author(String person) {
+        var author = new Author();
+        author.setAuthorPerson(Hl7v2Based.parse(person, Person.class));
+        return author;
+    }
+
+    /**
+     * The regular expression based evaluation, that was used before.
+     */
+    private static boolean legacyMatches(String authorNameCriteria) {
+        var regexQuotedQuery = Pattern.quote(authorNameCriteria)
+                .replace("_", "\\E.\\Q")
+                .replace("%", "\\E.*\\Q")
+                .replace("\\Q\\Q", "\\Q")
+                .replace("\\E\\E", "\\E");
+        return AUTHORS.stream().anyMatch(a -> Hl7v2Based.render(a.getAuthorPerson()).matches(regexQuotedQuery));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"^Musterfrau^Martha^^^Dr", "^Musterfrau^Martha^^^", "%", "%%", "^Muster%", "%Dr", "%Boer%",
+            "%boer%", "^M_sterfrau%", "%^Boer^%^ISO", "4711^%", "_711%", "%Henk%Dr", "Boer", "%Boer", "%1.2.3%"})
+    void matchesLikeRegex(String authorPerson) {
+        assertEquals(legacyMatches(authorPerson), AuthorPersonMatcher.of(List.of(authorPerson)).matches(AUTHORS),
+                authorPerson);
+    }
+
+    @Test
+    void allCriteriaMustMatch() {
+        assertTrue(AuthorPersonMatcher.of(List.of("%Boer%", "%Musterfrau%")).matches(AUTHORS));
+        assertFalse(AuthorPersonMatcher.of(List.of("%Boer%", "%Smith%")).matches(AUTHORS));
+        assertTrue(AuthorPersonMatcher.of(null).matches(AUTHORS));
+    }
+
+    @Test
+    void nameSearchPrefix() {
+        assertEquals(Optional.of("Musterfrau"), AuthorPersonMatcher.nameSearchPrefix("^Musterfrau^Martha^^^Dr"));
+        assertEquals(Optional.of("Muster"), AuthorPersonMatcher.nameSearchPrefix("^Muster%"));
+        assertEquals(Optional.of("Martha"), AuthorPersonMatcher.nameSearchPrefix("^^Martha%"));
+        assertEquals(Optional.empty(), AuthorPersonMatcher.nameSearchPrefix("%Musterfrau%"));
+        assertEquals(Optional.empty(), AuthorPersonMatcher.nameSearchPrefix("4711%"));
+    }
+}
@@ -0,0 +1,73 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
+
+class MappedMetadataCacheTest {
+    private MappedMetadataCache classUnderTest;
+    private AtomicInteger mappings;
+
+    @BeforeEach
+    void init() {
+        classUnderTest = new MappedMetadataCache(10, new SimpleMeterRegistry());
+        mappings = new AtomicInteger();
+    }
+
+    private DocumentEntry map(DocumentReference fhirDoc) {
+        mappings.incrementAndGet();
+        var doc = new DocumentEntry();
+        doc.setEntryUuid("urn:uuid:" + fhirDoc.getIdElement().getIdPart());
+        return doc;
+    }
+
+    private static DocumentReference document(String version, String patientVersion) {
+        var doc = new DocumentReference();
+        doc.setId("DocumentReference/1/_history/" + version);
+        var patient = new Patient();
+        patient.setId("Patient/2/_history/" + patientVersion);
+        doc.setSubject(new Reference(patient));
+        return doc;
+    }
+
+    @Test
+    void sameVersionIsMappedOnce() {
+        var first = classUnderTest.map(document("1", "1"), this::map);
+        var second = classUnderTest.map(document("1", "1"), this::map);
+
+        assertEquals(1, mappings.get());
+        assertSame(first, second);
+        assertEquals(first.getEntryUuid(), first.getLogicalUuid());
+    }
+
+    @Test
+    void newVersionIsMappedAgain() {
+        var first = classUnderTest.map(document("1", "1"), this::map);
+        var updatedDocument = classUnderTest.map(document("2", "1"), this::map);
+        var updatedPatient = classUnderTest.map(document("2", "2"), this::map);
+
+        assertEquals(3, mappings.get());
+        assertNotSame(first, updatedDocument);
+        assertNotSame(updatedDocument, updatedPatient);
+    }
+
+    @Test
+    void unversionedResourceIsNotCached() {
+        var doc = new DocumentReference();
+        doc.setId("DocumentReference/1");
+        classUnderTest.map(doc, this::map);
+        classUnderTest.map(doc, this::map);
+
+        assertEquals(2, mappings.get());
+    }
+}
@@ -0,0 +1,170 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Named;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.openehealth.ipf.commons.ihe.xds.core.SampleData;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.ObjectReference;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.QueryResponse;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.Status;
+
+class QueryCoalescerTest {
+    private static final long GENERATION = 1;
+    private QueryCoalescer classUnderTest;
+    private SimpleMeterRegistry meterRegistry;
+    private AtomicInteger executions;
+
+    @BeforeEach
+    void init() {
+        meterRegistry = new SimpleMeterRegistry();
+        classUnderTest = new QueryCoalescer(meterRegistry);
+        executions = new AtomicInteger();
+    }
+
+    @Test
+    void singleQueryIsNotCopied() {
+        var response = new QueryResponse(Status.SUCCESS);
+        assertSame(response, classUnderTest.execute(SampleData.createFindDocumentsQuery(), GENERATION,
+                q -> response));
+    }
+
+    @Test
+    void concurrentIdenticalQueriesAreExecutedOnce() throws Exception {
+        var leaderStarted = new CountDownLatch(1);
+        var response = new QueryResponse(Status.SUCCESS);
+        response.getReferences().add(new ObjectReference("urn:uuid:1"));
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var leader = executor.submit(() -> classUnderTest.execute(SampleData.createFindDocumentsQuery(), GENERATION,
+                    q -> {
+                        leaderStarted.countDown();
+                        awaitCoalescedQuery();
+                        return execute(response);
+                    }));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+            var waiter = executor.submit(() -> classUnderTest.execute(SampleData.createFindDocumentsQuery(), GENERATION,
+                    q -> execute(response)));
+
+            var leaderResponse = leader.get(5, TimeUnit.SECONDS);
+            var waiterResponse = waiter.get(5, TimeUnit.SECONDS);
+            assertEquals(1, executions.get());
+            assertSame(response, leaderResponse);
+            assertNotSame(leaderResponse, waiterResponse);
+            assertEquals(Status.SUCCESS, waiterResponse.getStatus());
+            assertEquals(List.of("urn:uuid:1"), waiterResponse.getReferences().stream()
+                    .map(ObjectReference::getId).toList());
+            assertNotSame(response.getReferences().getFirst(), waiterResponse.getReferences().getFirst());
+        }
+    }
+
+    @Test
+    void queryAfterModificationIsNotCoalesced() throws Exception {
+        var leaderStarted = new CountDownLatch(1);
+        var releaseLeader = new CountDownLatch(1);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var leader = executor.submit(() -> classUnderTest.execute(SampleData.createFindDocumentsQuery(), GENERATION,
+                    q -> {
+                        leaderStarted.countDown();
+                        await(releaseLeader);
+                        return execute(new QueryResponse(Status.SUCCESS));
+                    }));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+            // the query arrives after a modification was committed and must not receive the running response
+            var response = new QueryResponse(Status.SUCCESS);
+            assertSame(response, classUnderTest.execute(SampleData.createFindDocumentsQuery(), GENERATION + 1,
+                    q -> execute(response)));
+            releaseLeader.countDown();
+            leader.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(2, executions.get());
+        assertEquals(0, meterRegistry.get("xds.query.coalesced").counter().count());
+    }
+
+    static Stream<Named<Runnable>> failures() {
+        return Stream.of(Named.of("exception", () -> {
+            throw new IllegalStateException("FHIR server not available");
+        }), Named.of("error", () -> {
+            throw new AssertionError("mapping failed");
+        }));
+    }
+
+    @ParameterizedTest
+    @MethodSource("failures")
+    void failureIsPropagatedToWaitingQueries(Runnable failure) throws Exception {
+        var leaderStarted = new CountDownLatch(1);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var leader = executor.submit(() -> classUnderTest.execute(SampleData.createFindDocumentsQuery(), GENERATION,
+                    q -> {
+                        leaderStarted.countDown();
+                        awaitCoalescedQuery();
+                        executions.incrementAndGet();
+                        failure.run();
+                        return null;
+                    }));
+            assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+            var waiter = executor.submit(() -> classUnderTest.execute(SampleData.createFindDocumentsQuery(), GENERATION,
+                    q -> execute(new QueryResponse(Status.SUCCESS))));
+
+            var leaderFailure = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+            var waiterFailure = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+            assertEquals(1, executions.get());
+            assertSame(leaderFailure.getCause(), waiterFailure.getCause());
+        }
+    }
+
+    @Test
+    void failedQueryIsNotShared() {
+        var query = SampleData.createFindDocumentsQuery();
+        assertThrows(IllegalStateException.class, () -> classUnderTest.execute(query, GENERATION, q -> {
+            throw new IllegalStateException();
+        }));
+        assertEquals(Status.SUCCESS, classUnderTest.execute(query, GENERATION,
+                q -> execute(new QueryResponse(Status.SUCCESS))).getStatus());
+        assertEquals(1, executions.get());
+    }
+
+    private QueryResponse execute(QueryResponse response) {
+        executions.incrementAndGet();
+        return response;
+    }
+
+    /**
+     * Keep the leading query running, until the identical query joined it.
+     */
+    private void awaitCoalescedQuery() {
+        var counter = meterRegistry.get("xds.query.coalesced").counter();
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        try {
+            while (counter.count() < 1 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.openehealth.app.xdstofhir.registry.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openehealth.app.xdstofhir.registry.common.PatientIdCache.PatientIdentifier;
+import org.openehealth.ipf.commons.ihe.xds.core.SampleData;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.ObjectReference;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.QueryRegistry;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.query.FindDocumentsQuery;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.QueryResponse;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.Status;
+
+class QueryResultCacheTest {
+    private QueryResultCache classUnderTest;
+    private AtomicInteger executions;
+
+    @BeforeEach
+    void init() {
+        classUnderTest = new QueryResultCache(true, 10, Duration.ofMinutes(1), new SimpleMeterRegistry());
+        executions = new AtomicInteger();
+    }
+
+    private QueryResponse execute(QueryRegistry query) {
+        executions.incrementAndGet();
+        return new QueryResponse(Status.SUCCESS);
+    }
+
+    @Test
+    void cacheHitReturnsCopy() {
+        var query = SampleData.createFindDocumentsQuery();
+        var first = classUnderTest.execute(query, this::execute);
+        var second = classUnderTest.execute(SampleData.createFindDocumentsQuery(), this::execute);
+
+        assertEquals(1, executions.get());
+        assertEquals(first.getStatus(), second.getStatus());
+        assertNotSame(first, second);
+    }
+
+    @Test
+    void invalidateByPatient() {
+        var query = SampleData.createFindDocumentsQuery();
+        var patientId = ((FindDocumentsQuery) query.getQuery()).getPatientId();
+        classUnderTest.execute(query, this::execute);
+
+        classUnderTest.invalidate(List.of(new PatientIdentifier("urn:oid:1.2.3", "other")));
+        classUnderTest.execute(query, this::execute);
+        assertEquals(1, executions.get());
+
+        classUnderTest.invalidate(List.of(PatientIdentifier.of(patientId)));
+        classUnderTest.execute(query, this::execute);
+        assertEquals(2, executions.get());
+        assertEquals(1L, classUnderTest.statistics().get("invalidationCount"));
+    }
+
+    @Test
+    void invalidationDuringExecutionIsNotCached() {
+        var query = SampleData.createFindDocumentsQuery();
+        var patientId = PatientIdentifier.of(((FindDocumentsQuery) query.getQuery()).getPatientId());
+        classUnderTest.execute(query, q -> {
+            classUnderTest.invalidate(List.of(patientId));
+            return execute(q);
+        });
+        classUnderTest.execute(query, this::execute);
+
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    void failedResponseIsNotCached() {
+        var query = SampleData.createFindDocumentsQuery();
+        classUnderTest.execute(query, q -> {
+            executions.incrementAndGet();
+            return new QueryResponse(Status.FAILURE);
+        });
+        classUnderTest.execute(query, this::execute);
+
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    void queryAfterInvalidationDoesNotJoinOlderExecution() throws Exception {
+        var coalescer = new QueryCoalescer(new SimpleMeterRegistry());
+        var query = SampleData.createFindDocumentsQuery();
+        var patientId = PatientIdentifier.of(((FindDocumentsQuery) query.getQuery()).getPatientId());
+        var olderStarted = new CountDownLatch(1);
+        var releaseOlder = new CountDownLatch(1);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var older = executor.submit(() -> classUnderTest.execute(query,
+                    (q, generation) -> coalescer.execute(q, generation, c -> {
+                        olderStarted.countDown();
+                        await(releaseOlder);
+                        return respond("urn:uuid:before-register");
+                    })));
+            assertTrue(olderStarted.await(5, TimeUnit.SECONDS));
+
+            // a register commits while the older query is running, a query arriving afterward must see it
+            classUnderTest.invalidate(List.of(patientId));
+            var current = classUnderTest.execute(SampleData.createFindDocumentsQuery(),
+                    (q, generation) -> coalescer.execute(q, generation, c -> respond("urn:uuid:after-register")));
+            assertEquals(List.of("urn:uuid:after-register"), references(current));
+
+            releaseOlder.countDown();
+            assertEquals(List.of("urn:uuid:before-register"), references(older.get(5, TimeUnit.SECONDS)));
+        }
+
+        var cached = classUnderTest.execute(query, q -> respond("urn:uuid:not-expected"));
+        assertEquals(List.of("urn:uuid:after-register"), references(cached));
+        assertEquals(2, executions.get());
+    }
+
+    private QueryResponse respond(String reference) {
+        executions.incrementAndGet();
+        var response = new QueryResponse(Status.SUCCESS);
+        response.getReferences().add(new ObjectReference(reference));
+        return response;
+    }
+
+    private static List<String> references(QueryResponse response) {
+        return response.getReferences().stream().map(ObjectReference::getId).toList();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
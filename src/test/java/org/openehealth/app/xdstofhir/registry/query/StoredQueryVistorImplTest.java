@@ -1,29 +1,49 @@
 package org.openehealth.app.xdstofhir.registry.query;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
 
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.concurrent.Executors;
+
+import org.hl7.fhir.r4.model.DocumentReference;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.mockserver.model.MediaType;
+import org.mockserver.verify.VerificationTimes;
 import org.openehealth.app.xdstofhir.registry.AbstractFhirMockserver;
 import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
+import org.openehealth.app.xdstofhir.registry.common.fhir.MhdFolder;
+import org.openehealth.app.xdstofhir.registry.common.fhir.MhdSubmissionSet;
 import org.openehealth.ipf.commons.ihe.xds.core.SampleData;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.DocumentEntry;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.ObjectReference;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.query.FindDocumentsQuery;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.query.FindSubmissionSetsQuery;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.query.GetAllQuery;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.query.GetDocumentsAndAssociationsQuery;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.query.GetFolderAndContentsQuery;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.query.GetFoldersForDocumentQuery;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.query.GetFoldersQuery;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.query.GetRelatedDocumentsQuery;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.query.GetSubmissionSetAndContentsQuery;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.ErrorCode;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.Status;
 
 public class StoredQueryVistorImplTest extends AbstractFhirMockserver {
     private StoredQueryVistorImpl classUnderTest;
+    private StoredQueryVistorImpl objectRefClassUnderTest;
 
     @Override
     protected void initClassUnderTest()  {
-        classUnderTest = new StoredQueryVistorImpl(newRestfulGenericClient, Mockito.mock(StoredQueryProcessor.class), true);
+        var ctx = newRestfulGenericClient.getFhirContext();
+        ctx.setDefaultTypeForProfile(MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE, MhdFolder.class);
+        ctx.setDefaultTypeForProfile(MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE, MhdSubmissionSet.class);
+        classUnderTest = new StoredQueryVistorImpl(newRestfulGenericClient, Mockito.mock(StoredQueryProcessor.class), false);
+        objectRefClassUnderTest = new StoredQueryVistorImpl(newRestfulGenericClient, Mockito.mock(StoredQueryProcessor.class), true);
     }
 
     @Test
@@ -52,6 +72,121 @@ public class StoredQueryVistorImplTest extends AbstractFhirMockserver {
                 );
     }
 
+    @Test
+    void testFindDocumentsQueryWithMaxResultPreflight (){
+        var queryProcessor = Mockito.mock(StoredQueryProcessor.class);
+        Mockito.when(queryProcessor.getMaxResultCount()).thenReturn(10);
+        Mockito.when(queryProcessor.isMaxResultPreflight()).thenReturn(true);
+        var visitor = new StoredQueryVistorImpl(newRestfulGenericClient, queryProcessor, false);
+        mockServer.when(
+                request().withPath("/DocumentReference").withQueryStringParameter("_summary", "count"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody("{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"total\":11}"));
+        var query = (FindDocumentsQuery) SampleData.createFindDocumentsQuery().getQuery();
+        query.setAuthorPersons(null);
+        visitor.visit(query);
+
+        assertEquals(Status.PARTIAL_SUCCESS, visitor.getResponse().getStatus());
+        assertEquals(ErrorCode.TOO_MANY_RESULTS, visitor.getResponse().getErrors().get(0).getErrorCode());
+        mockServer.verify(request("/DocumentReference"), VerificationTimes.once());
+    }
+
+    @Test
+    void testFindDocumentsQueryWithObjectRefResultIgnoresMaxResultPreflight (){
+        var queryProcessor = Mockito.mock(StoredQueryProcessor.class);
+        Mockito.when(queryProcessor.getMaxResultCount()).thenReturn(1);
+        Mockito.when(queryProcessor.isMaxResultPreflight()).thenReturn(true);
+        var visitor = new StoredQueryVistorImpl(newRestfulGenericClient, queryProcessor, true);
+        mockServer.when(
+                request().withPath("/DocumentReference"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody("""
+                        {"resourceType":"Bundle","type":"searchset","total":2,"entry":[
+                        {"resource":{"resourceType":"DocumentReference","id":"1",
+                        "identifier":[{"use":"official","system":"urn:ietf:rfc:3986","value":"urn:uuid:1"}]}},
+                        {"resource":{"resourceType":"DocumentReference","id":"2",
+                        "identifier":[{"use":"official","system":"urn:ietf:rfc:3986","value":"urn:uuid:2"}]}}]}
+                        """));
+        var query = (FindDocumentsQuery) SampleData.createFindDocumentsQuery().getQuery();
+        query.setAuthorPersons(null);
+        visitor.visit(query);
+
+        assertEquals(Status.SUCCESS, visitor.getResponse().getStatus());
+        assertEquals(List.of("urn:uuid:1", "urn:uuid:2"), visitor.getResponse().getReferences().stream()
+                .map(ObjectReference::getId).toList());
+        mockServer.verify(request("/DocumentReference").withQueryStringParameter("_summary", "count"),
+                VerificationTimes.never());
+    }
+
+    @Test
+    void testFindDocumentsQueryWithMaxResultPushdown (){
+        var queryProcessor = Mockito.mock(StoredQueryProcessor.class);
+        Mockito.when(queryProcessor.getMaxResultCount()).thenReturn(10);
+        Mockito.when(queryProcessor.isMaxResultPushdown()).thenReturn(true);
+        var visitor = new StoredQueryVistorImpl(newRestfulGenericClient, queryProcessor, false);
+        mockServer.when(
+                request().withPath("/DocumentReference"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(EMPTY_BUNDLE_RESULT));
+        var query = (FindDocumentsQuery) SampleData.createFindDocumentsQuery().getQuery();
+        visitor.visit(query);
+
+        assertEquals(Status.SUCCESS, visitor.getResponse().getStatus());
+        mockServer.verify(request("/DocumentReference").withQueryStringParameter("_count", "12"));
+    }
+
+    @Test
+    void testFindDocumentsQueryWithParallelMapping () {
+        var queryProcessor = Mockito.mock(StoredQueryProcessor.class);
+        Mockito.when(queryProcessor.getMaxResultCount()).thenReturn(3);
+        Mockito.when(queryProcessor.getMappingBatchSize()).thenReturn(4);
+        Mockito.when(queryProcessor.getFhirQueryExecutor()).thenReturn(Executors.newVirtualThreadPerTaskExecutor());
+        Mockito.when(queryProcessor.apply(Mockito.any(DocumentReference.class))).thenAnswer(invocation -> {
+            var id = Integer.parseInt(invocation.getArgument(0, DocumentReference.class).getIdPart());
+            // later documents finish first
+            Thread.sleep(50L - 10L * id);
+            var doc = new DocumentEntry();
+            doc.setEntryUuid("urn:uuid:" + id);
+            return doc;
+        });
+        var visitor = new StoredQueryVistorImpl(newRestfulGenericClient, queryProcessor, false);
+        mockServer.when(
+                request().withPath("/DocumentReference"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody("""
+                        {"resourceType":"Bundle","type":"searchset","entry":[
+                        {"resource":{"resourceType":"DocumentReference","id":"1"}},
+                        {"resource":{"resourceType":"DocumentReference","id":"2"}},
+                        {"resource":{"resourceType":"DocumentReference","id":"3"}},
+                        {"resource":{"resourceType":"DocumentReference","id":"4"}},
+                        {"resource":{"resourceType":"DocumentReference","id":"5"}}]}
+                        """));
+        var query = (FindDocumentsQuery) SampleData.createFindDocumentsQuery().getQuery();
+        query.setAuthorPersons(null);
+        visitor.visit(query);
+
+        assertEquals(Status.PARTIAL_SUCCESS, visitor.getResponse().getStatus());
+        assertEquals(List.of("urn:uuid:1", "urn:uuid:2", "urn:uuid:3", "urn:uuid:4"), visitor.getResponse()
+                .getDocumentEntries().stream().map(DocumentEntry::getEntryUuid).toList());
+        Mockito.verify(queryProcessor, Mockito.times(4)).apply(Mockito.any(DocumentReference.class));
+    }
+
+    @Test
+    void testFindDocumentsQueryWithAuthorPushdown (){
+        var queryProcessor = Mockito.mock(StoredQueryProcessor.class);
+        Mockito.when(queryProcessor.isAuthorPushdown()).thenReturn(true);
+        var visitor = new StoredQueryVistorImpl(newRestfulGenericClient, queryProcessor, false);
+        mockServer.when(
+                request().withPath("/DocumentReference"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(EMPTY_BUNDLE_RESULT));
+        var query = (FindDocumentsQuery) SampleData.createFindDocumentsQuery().getQuery();
+        query.setAuthorPersons(List.of("^Muster%", "%Martha%"));
+        visitor.visit(query);
+
+        mockServer.verify(request("/DocumentReference").withQueryStringParameter("author-name", "Muster"));
+    }
+
     @Test
     void testFindSubmissionSetQuery (){
         mockServer.when(
@@ -69,6 +204,64 @@ public class StoredQueryVistorImplTest extends AbstractFhirMockserver {
                 );
     }
 
+    @Test
+    void testFindDocumentsQueryWithObjectRefResult (){
+        mockServer.when(
+                request().withPath("/DocumentReference"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(bundle(document("1", "urn:uuid:doc1"), document("2", "urn:uuid:doc2"))));
+        var query = (FindDocumentsQuery) SampleData.createFindDocumentsQuery().getQuery();
+        query.setAuthorPersons(null);
+        objectRefClassUnderTest.visit(query);
+
+        mockServer.verify(request()
+                .withQueryStringParameter("patient:Patient.identifier", "urn:oid:1.3|id3")
+                .withQueryStringParameter("format", "urn:ihe:xds:scheme13|code13,urn:ihe:xds:scheme14|code14")
+                .withQueryStringParameter("type", "urn:ihe:xds:schemet1|codet1,urn:ihe:xds:schemet2|codet2")
+                .withQueryStringParameter("_elements", "identifier,relatesTo")
+                .withQueryStringParameter("_profile", MappingSupport.MHD_COMPREHENSIVE_PROFILE)
+                .withQueryStringParameter("status", "current,superseded")
+                );
+        mockServer.verify(request().withQueryStringParameter("_include", ".*"), VerificationTimes.never());
+        assertEquals(List.of("urn:uuid:doc1", "urn:uuid:doc2"), references(objectRefClassUnderTest));
+    }
+
+    @Test
+    void testFindDocumentsQueryWithAuthorPersonAndObjectRefResult (){
+        mockServer.when(
+                request().withPath("/DocumentReference"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(EMPTY_BUNDLE_RESULT));
+        var query = (FindDocumentsQuery) SampleData.createFindDocumentsQuery().getQuery();
+        objectRefClassUnderTest.visit(query);
+
+        // authors are matched in memory, so the complete resources are required
+        mockServer.verify(request()
+                .withQueryStringParameter("patient:Patient.identifier", "urn:oid:1.3|id3")
+                .withQueryStringParameter("_include", "DocumentReference:subject"));
+        mockServer.verify(request().withQueryStringParameter("_elements", ".*"), VerificationTimes.never());
+    }
+
+    @Test
+    void testFindSubmissionSetQueryWithObjectRefResult (){
+        mockServer.when(
+                request().withPath("/List"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(bundle(list("3", MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE, "urn:uuid:ss1"))));
+        var query = (FindSubmissionSetsQuery) SampleData.createFindSubmissionSetsQuery().getQuery();
+        query.setAuthorPerson(null);
+        objectRefClassUnderTest.visit(query);
+
+        mockServer.verify(request()
+                .withQueryStringParameter("patient:Patient.identifier", "urn:oid:1.2|id1")
+                .withQueryStringParameter("_elements", "identifier,entry")
+                .withQueryStringParameter("_profile", MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE)
+                .withQueryStringParameter("code", "https://profiles.ihe.net/ITI/MHD/CodeSystem/MHDlistTypes|submissionset")
+                );
+        mockServer.verify(request().withQueryStringParameter("_include", ".*"), VerificationTimes.never());
+        assertEquals(List.of("urn:uuid:ss1"), references(objectRefClassUnderTest));
+    }
+
     @Test
     void testGetAllQuery (){
         mockServer.when(
@@ -99,6 +292,34 @@ public class StoredQueryVistorImplTest extends AbstractFhirMockserver {
                         MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE));
     }
 
+    @Test
+    void testGetAllQueryWithObjectRefResult (){
+        var visitor = new StoredQueryVistorImpl(newRestfulGenericClient, Mockito.mock(StoredQueryProcessor.class), true);
+        mockServer.when(
+                request().withPath("/DocumentReference"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(EMPTY_BUNDLE_RESULT));
+        mockServer.when(
+                request().withPath("/List"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(EMPTY_BUNDLE_RESULT));
+        var query = (GetAllQuery) SampleData.createGetAllQuery().getQuery();
+        visitor.visit(query);
+
+        mockServer.verify(request("/DocumentReference")
+                .withQueryStringParameter("patient:Patient.identifier", "urn:oid:1.2|id1")
+                .withQueryStringParameter("_elements", "identifier,relatesTo"));
+        mockServer.verify(request("/List")
+                .withQueryStringParameter("_elements", "identifier,entry")
+                .withQueryStringParameter("_profile",
+                        MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE));
+        mockServer.verify(request("/List")
+                .withQueryStringParameter("_elements", "identifier,entry")
+                .withQueryStringParameter("_profile",
+                        MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE));
+        mockServer.verify(request().withQueryStringParameter("_include", ".*"), VerificationTimes.never());
+    }
+
     @Test
     void testGetSubmissionSetAndContentsQuery (){
         mockServer.when(
@@ -221,4 +442,216 @@ public class StoredQueryVistorImplTest extends AbstractFhirMockserver {
                         MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE));
     }
 
+    @Test
+    void testGetSubmissionSetAndContentsQueryWithObjectRefResult (){
+        mockServer.when(
+                request().withPath("/DocumentReference"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(bundle(document("1", "urn:uuid:doc1"))));
+        mockServer.when(
+                request().withPath("/List").withQueryStringParameter("_profile",
+                        MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(bundle(list("2", MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE, "urn:uuid:folder1",
+                        entry("urn:uuid:a3", "DocumentReference/1")))));
+        mockServer.when(
+                request().withPath("/List").withQueryStringParameter("_profile",
+                        MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(bundle(list("3", MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE, "urn:uuid:ss1",
+                        entry("urn:uuid:a1", "DocumentReference/1"), entry("urn:uuid:a2", "List/2"),
+                        "{\"id\":\"urn:uuid:a4\",\"item\":{\"identifier\":{\"value\":\"urn:uuid:a3\"}}}"))));
+        var query = (GetSubmissionSetAndContentsQuery) SampleData.createGetSubmissionSetAndContentsQuery().getQuery();
+        objectRefClassUnderTest.visit(query);
+
+        mockServer.verify(request("/List")
+                .withQueryStringParameter("identifier", "urn:ietf:rfc:3986|urn:ihe:xds:12.21.34,urn:ietf:rfc:3986|urn:uuid:1.2.3.4")
+                .withQueryStringParameter("_elements", "identifier,entry")
+                .withQueryStringParameter("_profile",
+                        MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE));
+        mockServer.verify(request("/List")
+                .withQueryStringParameter("_has:List:item:identifier", "urn:ihe:xds:12.21.34", "urn:uuid:1.2.3.4")
+                .withQueryStringParameter("_elements", "identifier,entry")
+                .withQueryStringParameter("_profile",
+                        MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE));
+        mockServer.verify(request("/DocumentReference")
+                .withQueryStringParameter("_has:List:item:identifier", "urn:ihe:xds:12.21.34", "urn:uuid:1.2.3.4")
+                .withQueryStringParameter("_elements", "identifier,relatesTo")
+                .withQueryStringParameter("_profile",
+                       MappingSupport.MHD_COMPREHENSIVE_PROFILE));
+        mockServer.verify(request().withQueryStringParameter("_include", ".*"), VerificationTimes.never());
+        assertEquals(List.of("urn:uuid:doc1", "urn:uuid:folder1", "urn:uuid:ss1", "urn:uuid:a1", "urn:uuid:a2",
+                "urn:uuid:a3", "urn:uuid:a4"), references(objectRefClassUnderTest));
+    }
+
+    @Test
+    void testGetFolderAndContentsQueryWithObjectRefResult (){
+        mockServer.when(
+                request().withPath("/DocumentReference"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(bundle(document("1", "urn:uuid:doc1"), document("4", "urn:uuid:doc4"))));
+        mockServer.when(
+                request().withPath("/List"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(bundle(list("2", MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE, "urn:uuid:folder1",
+                        entry("urn:uuid:a1", "DocumentReference/1"), entry("urn:uuid:a4", "DocumentReference/4")))));
+        var query = (GetFolderAndContentsQuery) SampleData.createGetFolderAndContentsQuery().getQuery();
+        objectRefClassUnderTest.visit(query);
+
+        mockServer.verify(request("/List")
+                .withQueryStringParameter("_elements", "identifier,entry")
+                .withQueryStringParameter("_profile", MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE));
+        mockServer.verify(request("/DocumentReference")
+                .withQueryStringParameter("_has:List:item:identifier", ".*")
+                .withQueryStringParameter("_elements", "identifier,relatesTo"));
+        mockServer.verify(request().withQueryStringParameter("_include", ".*"), VerificationTimes.never());
+        assertEquals(List.of("urn:uuid:doc1", "urn:uuid:doc4", "urn:uuid:folder1", "urn:uuid:a1", "urn:uuid:a4"),
+                references(objectRefClassUnderTest));
+    }
+
+    @Test
+    void testGetFoldersQueryWithObjectRefResult (){
+        mockServer.when(
+                request().withPath("/List"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(EMPTY_BUNDLE_RESULT));
+        var query = (GetFoldersQuery) SampleData.createGetFoldersQuery().getQuery();
+        objectRefClassUnderTest.visit(query);
+
+        mockServer.verify(request()
+                .withQueryStringParameter("identifier",
+                        "urn:ietf:rfc:3986|urn:ihe:xds:12.21.34,urn:ietf:rfc:3986|"
+                               + "urn:ihe:xds:43.56.89,urn:ietf:rfc:3986|"
+                               + "urn:uuid:1.2.3.4,urn:ietf:rfc:3986|urn:uuid:2.3.4.5")
+                .withQueryStringParameter("_elements", "identifier,entry")
+                .withQueryStringParameter("_profile", MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE)
+                .withQueryStringParameter("code", "https://profiles.ihe.net/ITI/MHD/CodeSystem/MHDlistTypes|folder"));
+        mockServer.verify(request().withQueryStringParameter("_include", ".*"), VerificationTimes.never());
+    }
+
+    @Test
+    void testGetFolderForDocumentsWithObjectRefResult (){
+        mockServer.when(
+                request().withPath("/List"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(EMPTY_BUNDLE_RESULT));
+        var query = (GetFoldersForDocumentQuery) SampleData.createGetFoldersForDocumentQuery().getQuery();
+        objectRefClassUnderTest.visit(query);
+
+        mockServer.verify(request()
+                .withQueryStringParameter("item:DocumentReference.identifier", "urn:ietf:rfc:3986|urn:ihe:xds:12.21.34")
+                .withQueryStringParameter("_elements", "identifier,entry")
+                .withQueryStringParameter("_profile", MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE)
+                .withQueryStringParameter("code", "https://profiles.ihe.net/ITI/MHD/CodeSystem/MHDlistTypes|folder")
+                );
+        mockServer.verify(request().withQueryStringParameter("_include", ".*"), VerificationTimes.never());
+    }
+
+    @Test
+    void testGetRelatedDocumentsWithObjectRefResult (){
+        var original = document("1", "urn:uuid:original");
+        var replacement = document("2", "urn:uuid:replacement", "{\"id\":\"urn:uuid:rplc\",\"code\":\"replaces\","
+                + "\"target\":{\"reference\":\"DocumentReference/1\"}}");
+        mockServer.when(
+                request().withPath("/DocumentReference").withQueryStringParameter("identifier", ".*"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(bundle(replacement, original)));
+        mockServer.when(
+                request().withPath("/DocumentReference"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(EMPTY_BUNDLE_RESULT));
+        var query = (GetRelatedDocumentsQuery) SampleData.createGetRelatedDocumentsQuery().getQuery();
+        objectRefClassUnderTest.visit(query);
+
+        mockServer.verify(request()
+                .withQueryStringParameter("identifier", "urn:ietf:rfc:3986|urn:ihe:xds:12.21.34")
+                .withQueryStringParameter("_include", "DocumentReference:relatesto")
+                .withQueryStringParameter("_elements", "identifier,relatesTo")
+                .withQueryStringParameter("relatesto:missing", "false")
+                );
+        mockServer.verify(request()
+                .withQueryStringParameter("relatesto.identifier", "urn:ietf:rfc:3986|urn:ihe:xds:12.21.34")
+                .withQueryStringParameter("_include", "DocumentReference:relatesto")
+                .withQueryStringParameter("_elements", "identifier,relatesTo")
+                );
+        mockServer.verify(request().withQueryStringParameter("_include", "DocumentReference:subject"),
+                VerificationTimes.never());
+        assertEquals(List.of("urn:uuid:replacement", "urn:uuid:original", "urn:uuid:rplc"),
+                references(objectRefClassUnderTest));
+    }
+
+    @Test
+    void testGetDocumentsAndAssociationsWithObjectRefResult (){
+        mockServer.when(
+                request().withPath("/DocumentReference"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(bundle(document("1", "urn:uuid:doc1"))));
+        mockServer.when(
+                request().withPath("/List").withQueryStringParameter("_profile",
+                        MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(bundle(list("2", MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE, "urn:uuid:folder1",
+                        entry("urn:uuid:a2", "DocumentReference/1")))));
+        mockServer.when(
+                request().withPath("/List").withQueryStringParameter("_profile",
+                        MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(bundle(list("3", MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE, "urn:uuid:ss1",
+                        entry("urn:uuid:a1", "DocumentReference/1")))));
+        var query = (GetDocumentsAndAssociationsQuery) SampleData.createGetDocumentsAndAssociationsQuery().getQuery();
+        objectRefClassUnderTest.visit(query);
+
+        mockServer.verify(request("/DocumentReference")
+                .withQueryStringParameter("identifier", "urn:ietf:rfc:3986|urn:ihe:xds:12.21.34,urn:ietf:rfc:3986|urn:ihe:xds:43.56.89,urn:ietf:rfc:3986|urn:uuid:1.2.3.4,urn:ietf:rfc:3986|urn:uuid:2.3.4.5")
+                .withQueryStringParameter("_elements", "identifier,relatesTo")
+                .withQueryStringParameter("_profile", MappingSupport.MHD_COMPREHENSIVE_PROFILE)
+                );
+        mockServer.verify(request("/List")
+                .withQueryStringParameter("item:DocumentReference.identifier", ".*")
+                .withQueryStringParameter("_elements", "identifier,entry")
+                .withQueryStringParameter("_profile",
+                        MappingSupport.MHD_COMPREHENSIVE_SUBMISSIONSET_PROFILE));
+        mockServer.verify(request("/List")
+                .withQueryStringParameter("item:DocumentReference.identifier", ".*")
+                .withQueryStringParameter("_elements", "identifier,entry")
+                .withQueryStringParameter("_profile",
+                        MappingSupport.MHD_COMPREHENSIVE_FOLDER_PROFILE));
+        mockServer.verify(request().withQueryStringParameter("_include", ".*"), VerificationTimes.never());
+        assertEquals(List.of("urn:uuid:doc1", "urn:uuid:a2", "urn:uuid:a1"), references(objectRefClassUnderTest));
+    }
+
+    private static List<String> references(StoredQueryVistorImpl visitor) {
+        return visitor.getResponse().getReferences().stream().map(ObjectReference::getId).toList();
+    }
+
+    private static String bundle(String... entries) {
+        return Stream.of(entries).collect(Collectors.joining(",",
+                "{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"entry\":[", "]}"));
+    }
+
+    private static String bundleEntry(String resourceType, String id, String resource) {
+        return "{\"fullUrl\":\"http://localhost/fhir/" + resourceType + "/" + id + "\",\"resource\":" + resource + "}";
+    }
+
+    private static String document(String id, String entryUuid, String... relatesTo) {
+        return bundleEntry("DocumentReference", id, "{\"resourceType\":\"DocumentReference\",\"id\":\"" + id
+                + "\",\"identifier\":[" + identifier(entryUuid) + "]" + array("relatesTo", relatesTo) + "}");
+    }
+
+    private static String list(String id, String profile, String entryUuid, String... entries) {
+        return bundleEntry("List", id, "{\"resourceType\":\"List\",\"id\":\"" + id + "\",\"meta\":{\"profile\":[\""
+                + profile + "\"]},\"identifier\":[" + identifier(entryUuid) + "]" + array("entry", entries) + "}");
+    }
+
+    private static String array(String name, String... elements) {
+        return elements.length == 0 ? "" : ",\"" + name + "\":[" + String.join(",", elements) + "]";
+    }
+
+    private static String entry(String id, String reference) {
+        return "{\"id\":\"" + id + "\",\"item\":{\"reference\":\"" + reference + "\"}}";
+    }
+
+    private static String identifier(String entryUuid) {
+        return "{\"use\":\"official\",\"system\":\"urn:ietf:rfc:3986\",\"value\":\"" + entryUuid + "\"}";
+    }
 }
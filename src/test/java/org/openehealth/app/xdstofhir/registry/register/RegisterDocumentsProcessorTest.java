@@ -9,33 +9,49 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.groovy.util.Maps;
 import org.junit.jupiter.api.Test;
 import org.mockserver.matchers.MatchType;
+import org.mockserver.matchers.Times;
 import org.mockserver.model.JsonBody;
 import org.mockserver.model.MediaType;
+import org.mockserver.verify.VerificationTimes;
 import org.openehealth.app.xdstofhir.registry.AbstractFhirMockserver;
+import org.openehealth.app.xdstofhir.registry.common.IdentifierSearchTransport;
+import org.openehealth.app.xdstofhir.registry.common.PatientIdCache;
 import org.openehealth.app.xdstofhir.registry.common.RegistryConfiguration;
+import org.openehealth.app.xdstofhir.registry.common.StripedPatientLock;
 import org.openehealth.app.xdstofhir.registry.common.mapper.XdsToFhirDocumentMapper;
 import org.openehealth.app.xdstofhir.registry.common.mapper.XdsToFhirFolderMapper;
 import org.openehealth.app.xdstofhir.registry.common.mapper.XdsToFhirSubmissionsetMapper;
+import org.openehealth.app.xdstofhir.registry.query.QueryResultCache;
 import org.openehealth.ipf.commons.ihe.xds.core.SampleData;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.AssigningAuthority;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.Association;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.AssociationType;
 import org.openehealth.ipf.commons.ihe.xds.core.metadata.Identifiable;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.QueryRegistry;
 import org.openehealth.ipf.commons.ihe.xds.core.requests.builder.RegisterDocumentSetBuilder;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.query.FindDocumentsQuery;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.QueryResponse;
 import org.openehealth.ipf.commons.ihe.xds.core.responses.Status;
 import org.openehealth.ipf.commons.ihe.xds.core.validate.ValidationMessage;
 import org.openehealth.ipf.commons.ihe.xds.core.validate.XDSMetaDataException;
 import org.openehealth.ipf.commons.spring.map.SpringBidiMappingService;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
 
 class RegisterDocumentsProcessorTest extends AbstractFhirMockserver {
 	
     private RegisterDocumentsProcessor classUnderTest;
+    private SimpleMeterRegistry meterRegistry;
+    private QueryResultCache queryResultCache;
     
     private static String PATIENT_RESPONSE_MOCK = """
     		{"resourceType":"Bundle","id":"98925b67-fef2-4d69-9c5a-678b5af65035","type":"searchset",
@@ -61,8 +77,12 @@ class RegisterDocumentsProcessorTest extends AbstractFhirMockserver {
         var folderMapper = new XdsToFhirFolderMapper();
         folderMapper.setFhirMapping(mappingService);
 
+        meterRegistry = new SimpleMeterRegistry();
+        queryResultCache = new QueryResultCache(true, 10, Duration.ofMinutes(1), meterRegistry);
         classUnderTest = new RegisterDocumentsProcessor(newRestfulGenericClient, documentMapper, submissionSetMapper,
-                folderMapper, registryConfig);
+                folderMapper, registryConfig, new PatientIdCache(100, Duration.ofMinutes(1), meterRegistry),
+                meterRegistry, new StripedPatientLock(4, meterRegistry), new IdentifierSearchTransport(0, 0, null),
+                queryResultCache);
     }
 
     @Test
@@ -100,6 +120,59 @@ class RegisterDocumentsProcessorTest extends AbstractFhirMockserver {
                 );
     }
     
+    @Test
+    void registerDocumentInvalidatesCachedQueriesOfThePatient() {
+        mockServer.when(request().withPath("/DocumentReference")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+        mockServer.when(request().withPath("/Patient")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(PATIENT_RESPONSE_MOCK));
+        mockServer.when(request().withMethod("POST").withPath("/"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(EMPTY_BUNDLE_RESULT));
+
+        var someRegister = SampleData.createRegisterDocumentSet();
+        var patientId = someRegister.getSubmissionSet().getPatientId();
+        var query = SampleData.createFindDocumentsQuery();
+        // the register replaces the id of the request's patient with the logical id of the FHIR Patient
+        ((FindDocumentsQuery) query.getQuery()).setPatientId(new Identifiable(patientId.getId(),
+                new AssigningAuthority(patientId.getAssigningAuthority().getUniversalId())));
+        var executions = new AtomicInteger();
+        Function<QueryRegistry, QueryResponse> execution = q -> {
+            executions.incrementAndGet();
+            return new QueryResponse(Status.SUCCESS);
+        };
+        queryResultCache.execute(query, execution);
+        queryResultCache.execute(query, execution);
+        assertEquals(1, executions.get());
+
+        assertEquals(Status.SUCCESS, classUnderTest.processRegister(someRegister).getStatus());
+
+        queryResultCache.execute(query, execution);
+        assertEquals(2, executions.get());
+        assertEquals(1L, queryResultCache.statistics().get("invalidationCount"));
+    }
+
+    @Test
+    void registerDocumentRetryOnConcurrentModification() {
+        ReflectionTestUtils.setField(classUnderTest, "updateRetries", 1);
+        mockServer.when(request().withPath("/DocumentReference")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+        mockServer.when(request().withPath("/Patient")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(PATIENT_RESPONSE_MOCK));
+        mockServer.when(request().withMethod("POST").withPath("/"), Times.once())
+                .respond(response().withStatusCode(412).withContentType(MediaType.APPLICATION_JSON)
+                .withBody("{\"resourceType\":\"OperationOutcome\"}"));
+        mockServer.when(request().withMethod("POST").withPath("/"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(EMPTY_BUNDLE_RESULT));
+
+        var response = classUnderTest.processRegister(SampleData.createRegisterDocumentSet());
+        assertEquals(Status.SUCCESS, response.getStatus());
+
+        mockServer.verify(request().withMethod("POST").withPath("/"), VerificationTimes.exactly(2));
+        assertEquals(1.0, meterRegistry.counter("xds.register.update.conflicts", "outcome", "retried").count());
+    }
+
     @Test
     void registerDocumentSuccessAndValidateRequest() throws IOException, URISyntaxException {
         mockServer.when(request().withPath("/DocumentReference")).respond(response().withStatusCode(200)
@@ -4,21 +4,88 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import ca.uhn.fhir.context.FhirContext;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.HTTPVerb;
 import org.junit.jupiter.api.Test;
 import org.mockserver.model.MediaType;
+import org.mockserver.verify.VerificationTimes;
 import org.openehealth.app.xdstofhir.registry.AbstractFhirMockserver;
+import org.openehealth.app.xdstofhir.registry.common.IdentifierSearchTransport;
 import org.openehealth.app.xdstofhir.registry.common.MappingSupport;
+import org.openehealth.app.xdstofhir.registry.common.StripedPatientLock;
+import org.openehealth.app.xdstofhir.registry.query.QueryResultCache;
 import org.openehealth.ipf.commons.ihe.xds.core.SampleData;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.AssigningAuthority;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.Identifiable;
+import org.openehealth.ipf.commons.ihe.xds.core.metadata.ObjectReference;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.QueryRegistry;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.RemoveMetadata;
+import org.openehealth.ipf.commons.ihe.xds.core.requests.query.FindDocumentsQuery;
 import org.openehealth.ipf.commons.ihe.xds.core.responses.ErrorCode;
+import org.openehealth.ipf.commons.ihe.xds.core.responses.QueryResponse;
 import org.openehealth.ipf.commons.ihe.xds.core.responses.Status;
 
 class RemoveDocumentsProcessorTest  extends AbstractFhirMockserver {
+    private static final String DOCUMENT_RESPONSE_MOCK = """
+            {"resourceType":"Bundle","type":"searchset","entry":[{"fullUrl":"http://localhost/DocumentReference/1",
+            "resource":{"resourceType":"DocumentReference","id":"1","identifier":[{"use":"official",
+            "system":"urn:ietf:rfc:3986","value":"urn:uuid:b2632452-1de7-480d-94b1-c2074d79c871"}],
+            "status":"current","subject":{"reference":"Patient/41689208"}},"search":{"mode":"match"}}]}
+            """;
+    private static final String FOLDER_RESPONSE_MOCK = """
+            {"resourceType":"Bundle","type":"searchset","entry":[{"fullUrl":"http://localhost/List/2",
+            "resource":{"resourceType":"List","id":"2","identifier":[{"use":"official","system":"urn:ietf:rfc:3986",
+            "value":"urn:uuid:b2632452-1de7-480d-94b1-c2074d79c872"}],"status":"current","mode":"working",
+            "subject":{"reference":"Patient/41689208"},"entry":[{"id":"urn:uuid:b2632452-1de7-480d-94b1-c2074d79c873",
+            "item":{"reference":"DocumentReference/1","identifier":{"system":"urn:ietf:rfc:3986",
+            "value":"urn:uuid:b2632452-1de7-480d-94b1-c2074d79c873"}}}]},"search":{"mode":"match"}}]}
+            """;
+    private static final String PATIENT_RESPONSE_MOCK = """
+            {"resourceType":"Bundle","type":"searchset","entry":[{"fullUrl":"http://localhost/Patient/41689208",
+            "resource":{"resourceType":"Patient","id":"41689208","identifier":[{"system":"urn:oid:1.2.3",
+            "value":"4711"}]},"search":{"mode":"match"}}]}
+            """;
+
     private RemoveDocumentsProcessor classUnderTest;
+    private QueryResultCache queryResultCache;
 
 
     @Override
     protected void initClassUnderTest() {
-        classUnderTest = new RemoveDocumentsProcessor(newRestfulGenericClient);
+        queryResultCache = new QueryResultCache(true, 10, Duration.ofMinutes(1), new SimpleMeterRegistry());
+        classUnderTest = newRemoveDocumentsProcessor(new IdentifierSearchTransport(0, 0, null));
+    }
+
+    private RemoveDocumentsProcessor newRemoveDocumentsProcessor(IdentifierSearchTransport transport) {
+        return new RemoveDocumentsProcessor(newRestfulGenericClient,
+                new StripedPatientLock(4, new SimpleMeterRegistry()), transport,
+                queryResultCache);
+    }
+
+    /**
+     * @param lockedPatients - collects the patients of every lock acquisition
+     */
+    private RemoveDocumentsProcessor newRemoveDocumentsProcessor(List<Set<String>> lockedPatients) {
+        var patientLock = new StripedPatientLock(4, new SimpleMeterRegistry()) {
+            @Override
+            public <T> T executeLocked(Collection<String> patientIds, Supplier<T> action) {
+                lockedPatients.add(Set.copyOf(patientIds));
+                return super.executeLocked(patientIds, action);
+            }
+        };
+        return new RemoveDocumentsProcessor(newRestfulGenericClient, patientLock,
+                new IdentifierSearchTransport(0, 0, null), queryResultCache);
     }
 
 
@@ -45,4 +112,164 @@ class RemoveDocumentsProcessorTest  extends AbstractFhirMockserver {
                 .withQueryStringParameter("identifier", "urn:ietf:rfc:3986|urn:uuid:b2632452-1de7-480d-94b1-c2074d79c871,urn:ietf:rfc:3986|urn:uuid:b2632df2-1de7-480d-1045-c2074d79aabd")
                 .withQueryStringParameter("_revinclude", "List:item"));
     }
+
+    @Test
+    void removeWithPostSearch() {
+        classUnderTest = newRemoveDocumentsProcessor(new IdentifierSearchTransport(1, 0, null));
+        mockServer.when(request()).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+
+        var response = classUnderTest.remove(SampleData.createRemoveMetadata());
+        assertEquals(Status.FAILURE, response.getStatus());
+
+        mockServer.verify(request("/DocumentReference").withMethod("GET"), VerificationTimes.never());
+        mockServer.verify(request("/DocumentReference/_search").withMethod("POST"), VerificationTimes.atLeast(1));
+        mockServer.verify(request("/List/_search").withMethod("POST"), VerificationTimes.atLeast(1));
+    }
+
+    @Test
+    void removeWithChunkedSearch() {
+        classUnderTest = newRemoveDocumentsProcessor(new IdentifierSearchTransport(0, 1, null));
+        mockServer.when(request()).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+
+        var response = classUnderTest.remove(SampleData.createRemoveMetadata());
+        assertEquals(Status.FAILURE, response.getStatus());
+
+        mockServer.verify(request("/List")
+                .withQueryStringParameter("identifier", "urn:ietf:rfc:3986|urn:uuid:b2632452-1de7-480d-94b1-c2074d79c871")
+                .withQueryStringParameter("_revinclude", "List:item"));
+        mockServer.verify(request("/List")
+                .withQueryStringParameter("identifier", "urn:ietf:rfc:3986|urn:uuid:b2632df2-1de7-480d-1045-c2074d79aabd")
+                .withQueryStringParameter("_revinclude", "List:item"));
+    }
+
+    @Test
+    void removeWithDuplicateReference() {
+        mockServer.when(request().withPath("/DocumentReference")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(DOCUMENT_RESPONSE_MOCK));
+        mockServer.when(request().withPath("/List")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+        mockServer.when(request().withMethod("POST").withPath("/")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+
+        mockServer.when(request().withPath("/Patient")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(PATIENT_RESPONSE_MOCK));
+
+        var uuid = "urn:uuid:b2632452-1de7-480d-94b1-c2074d79c871";
+        var removeMetadata = new RemoveMetadata();
+        removeMetadata.getReferences().addAll(List.of(new ObjectReference(uuid), new ObjectReference(uuid)));
+        var response = classUnderTest.remove(removeMetadata);
+        assertEquals(Status.SUCCESS, response.getStatus());
+
+        var transactions = mockServer.retrieveRecordedRequests(request().withMethod("POST").withPath("/"));
+        assertEquals(1, transactions.length);
+        var transaction = FhirContext.forR4Cached().newJsonParser().parseResource(Bundle.class,
+                transactions[0].getBodyAsString());
+        assertEquals(1, transaction.getEntry().size());
+        assertEquals(HTTPVerb.DELETE, transaction.getEntryFirstRep().getRequest().getMethod());
+        assertEquals("DocumentReference/1", transaction.getEntryFirstRep().getRequest().getUrl());
+    }
+
+    @Test
+    void removeInvalidatesCachedQueriesOfThePatient() {
+        mockServer.when(request().withPath("/DocumentReference")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(DOCUMENT_RESPONSE_MOCK));
+        mockServer.when(request().withPath("/List")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+
+        assertRemoveInvalidatesCachedQueries("urn:uuid:b2632452-1de7-480d-94b1-c2074d79c871");
+    }
+
+    @Test
+    void removeOfAssociationInvalidatesCachedQueriesOfThePatient() {
+        mockServer.when(request().withPath("/DocumentReference")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+        mockServer.when(request().withPath("/List")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(FOLDER_RESPONSE_MOCK));
+
+        assertRemoveInvalidatesCachedQueries("urn:uuid:b2632452-1de7-480d-94b1-c2074d79c873");
+
+        var transactions = mockServer.retrieveRecordedRequests(request().withMethod("POST").withPath("/"));
+        var transaction = FhirContext.forR4Cached().newJsonParser().parseResource(Bundle.class,
+                transactions[0].getBodyAsString());
+        assertEquals(1, transaction.getEntry().size());
+        assertEquals(HTTPVerb.PUT, transaction.getEntryFirstRep().getRequest().getMethod());
+    }
+
+    @Test
+    void removeOfAssociationLocksThePatient() {
+        var lockedPatients = new ArrayList<Set<String>>();
+        classUnderTest = newRemoveDocumentsProcessor(lockedPatients);
+        mockServer.when(request().withPath("/DocumentReference")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+        mockServer.when(request().withPath("/List")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(FOLDER_RESPONSE_MOCK));
+        mockServer.when(request().withPath("/Patient")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(PATIENT_RESPONSE_MOCK));
+        mockServer.when(request().withMethod("POST").withPath("/")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+
+        var removeMetadata = new RemoveMetadata();
+        removeMetadata.getReferences().add(new ObjectReference("urn:uuid:b2632452-1de7-480d-94b1-c2074d79c873"));
+        assertEquals(Status.SUCCESS, classUnderTest.remove(removeMetadata).getStatus());
+
+        assertEquals(List.of(Set.of("41689208")), lockedPatients);
+    }
+
+    @Test
+    void removeRetriesWithLockOfPatientsMissedByTheLookup() {
+        var lockedPatients = new ArrayList<Set<String>>();
+        classUnderTest = newRemoveDocumentsProcessor(lockedPatients);
+        mockServer.when(request().withPath("/DocumentReference")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+        // the folder is only found by the searches within the lock, as if it was modified after the lookup
+        mockServer.when(request().withPath("/List").withQueryStringParameter("_revinclude", "List:item"))
+                .respond(response().withStatusCode(200).withContentType(MediaType.APPLICATION_JSON)
+                .withBody(FOLDER_RESPONSE_MOCK));
+        mockServer.when(request().withPath("/List")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+        mockServer.when(request().withPath("/Patient")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(PATIENT_RESPONSE_MOCK));
+        mockServer.when(request().withMethod("POST").withPath("/")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+
+        var removeMetadata = new RemoveMetadata();
+        removeMetadata.getReferences().add(new ObjectReference("urn:uuid:b2632452-1de7-480d-94b1-c2074d79c873"));
+        assertEquals(Status.SUCCESS, classUnderTest.remove(removeMetadata).getStatus());
+
+        assertEquals(List.of(Set.of(), Set.of("41689208")), lockedPatients);
+        mockServer.verify(request().withMethod("POST").withPath("/"), VerificationTimes.exactly(1));
+    }
+
+    /**
+     * Cache a query of the patient of the mocked resources, remove the given object and verify that the cached
+     * response was removed.
+     */
+    private void assertRemoveInvalidatesCachedQueries(String uuidToRemove) {
+        mockServer.when(request().withPath("/Patient")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(PATIENT_RESPONSE_MOCK));
+        mockServer.when(request().withMethod("POST").withPath("/")).respond(response().withStatusCode(200)
+                .withContentType(MediaType.APPLICATION_JSON).withBody(EMPTY_BUNDLE_RESULT));
+
+        var query = SampleData.createFindDocumentsQuery();
+        ((FindDocumentsQuery) query.getQuery()).setPatientId(new Identifiable("4711", new AssigningAuthority("1.2.3")));
+        var executions = new AtomicInteger();
+        Function<QueryRegistry, QueryResponse> execution = q -> {
+            executions.incrementAndGet();
+            return new QueryResponse(Status.SUCCESS);
+        };
+        queryResultCache.execute(query, execution);
+        queryResultCache.execute(query, execution);
+        assertEquals(1, executions.get());
+
+        var removeMetadata = new RemoveMetadata();
+        removeMetadata.getReferences().add(new ObjectReference(uuidToRemove));
+        assertEquals(Status.SUCCESS, classUnderTest.remove(removeMetadata).getStatus());
+
+        queryResultCache.execute(query, execution);
+        assertEquals(2, executions.get());
+        assertEquals(1L, queryResultCache.statistics().get("invalidationCount"));
+        mockServer.verify(request("/Patient").withQueryStringParameter("_id", "41689208"));
+    }
 }